@@ -0,0 +1,163 @@
+/**
+ * Copyright © 2014, 2015 Typesafe, Inc. All rights reserved. [http://www.typesafe.com]
+ */
+package com.lightbend.training.coffeehouse;
+
+import com.typesafe.config.Config;
+import scala.concurrent.duration.FiniteDuration;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Keeps track of the orders handed to the baristas but not yet prepared and decides what happens to
+ * a new order once there are `limit` of them. The limit follows from Little's law: with `slots`
+ * coffees brewing at a time, each taking `prepareCoffeeDuration`, an order admitted at the limit
+ * waits about `maxWait` before brewing starts.
+ *
+ * Not thread-safe; owned by a single `Bookkeeper`.
+ */
+public final class AdmissionControl {
+
+    public enum Policy {
+        // Admit every order, only account for it
+        NONE,
+        // Hold the order until an outstanding one is completed
+        QUEUE,
+        // Ask the guest to come back later
+        SHED,
+        // Try the order again after a while
+        DELAY
+    }
+
+    public enum Decision {
+        ADMIT, QUEUE, SHED, DELAY
+    }
+
+    private final Policy policy;
+
+    private final int limit;
+
+    private int inFlight;
+
+    private long admitted;
+
+    private long queued;
+
+    private long shed;
+
+    private long delayed;
+
+    public AdmissionControl(Policy policy, int limit) {
+        if (limit < 1) throw new IllegalArgumentException("Limit must be at least 1");
+        this.policy = policy;
+        this.limit = limit;
+    }
+
+    public static AdmissionControl fromConfig(Config config, int slots, FiniteDuration prepareCoffeeDuration) {
+        final long prepareMillis = Math.max(1, prepareCoffeeDuration.toMillis());
+        final long maxWaitMillis = config.getDuration("max-wait", MILLISECONDS);
+        return new AdmissionControl(
+                Policy.valueOf(config.getString("policy").toUpperCase()),
+                (int) Math.max(1, slots * (prepareMillis + maxWaitMillis) / prepareMillis));
+    }
+
+    public Policy policy() {
+        return policy;
+    }
+
+    /**
+     * Returns a new admission control with the same policy and the `shares`th part of the limit, for
+     * one of `shares` actors admitting orders independently.
+     */
+    public AdmissionControl share(int shares) {
+        return new AdmissionControl(policy, Math.max(1, limit / shares));
+    }
+
+    /**
+     * Decides on a new order; an admitted order is in flight until `complete` is called for it.
+     */
+    public Decision admit() {
+        if (policy == Policy.NONE || inFlight < limit) {
+            inFlight++;
+            admitted++;
+            return Decision.ADMIT;
+        }
+        switch (policy) {
+            case QUEUE:
+                queued++;
+                return Decision.QUEUE;
+            case SHED:
+                shed++;
+                return Decision.SHED;
+            default:
+                delayed++;
+                return Decision.DELAY;
+        }
+    }
+
+    /**
+     * Admits an order held back by `Decision.QUEUE` if there is room for it now.
+     */
+    public boolean admitQueued() {
+        if (inFlight >= limit) return false;
+        inFlight++;
+        admitted++;
+        return true;
+    }
+
+    public void complete() {
+        if (inFlight > 0) inFlight--;
+    }
+
+    public Stats stats() {
+        return new Stats(policy, limit, inFlight, admitted, queued, shed, delayed);
+    }
+
+    public static final class Stats {
+
+        public final Policy policy;
+
+        public final int limit;
+
+        public final int inFlight;
+
+        public final long admitted;
+
+        public final long queued;
+
+        public final long shed;
+
+        public final long delayed;
+
+        public Stats(final Policy policy, final int limit, final int inFlight,
+                     final long admitted, final long queued, final long shed, final long delayed) {
+            this.policy = policy;
+            this.limit = limit;
+            this.inFlight = inFlight;
+            this.admitted = admitted;
+            this.queued = queued;
+            this.shed = shed;
+            this.delayed = delayed;
+        }
+
+        /**
+         * Adds up the stats of admission controls sharing a limit; see `share`.
+         */
+        public Stats plus(Stats that) {
+            return new Stats(policy, limit + that.limit, inFlight + that.inFlight, admitted + that.admitted,
+                    queued + that.queued, shed + that.shed, delayed + that.delayed);
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{"
+                    + "policy=" + policy + ", "
+                    + "limit=" + limit + ", "
+                    + "inFlight=" + inFlight + ", "
+                    + "admitted=" + admitted + ", "
+                    + "queued=" + queued + ", "
+                    + "shed=" + shed + ", "
+                    + "delayed=" + delayed + "}";
+        }
+    }
+}
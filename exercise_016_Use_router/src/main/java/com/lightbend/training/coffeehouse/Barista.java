@@ -6,30 +6,119 @@ package com.lightbend.training.coffeehouse;
 
 import akka.actor.AbstractLoggingActor;
 import akka.actor.ActorRef;
+import akka.actor.Cancellable;
 import akka.actor.Props;
+import com.google.common.collect.ImmutableMap;
+import com.typesafe.config.Config;
+import scala.concurrent.duration.Duration;
 import scala.concurrent.duration.FiniteDuration;
 
-import java.util.Random;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 public class Barista extends AbstractLoggingActor {
 
     private final FiniteDuration prepareCoffeeDuration;
 
+    // Overrides `prepareCoffeeDuration` for individual coffees
+    private final Map<Coffee, FiniteDuration> prepareCoffeeDurations;
+
     private final int accuracy;
 
+    // Zero means blocking mode: one coffee at a time, brewed on the actor's thread.
+    private final int maxConcurrentBrews;
+
+    private final Batching batching;
+
+    private final QueueingDelay queueingDelay;
+
+    // Null unless the barista pulls its orders from a `BaristaCoordinator`
+    private final ActorRef coordinator;
+
+    // Serve the guest instead of replying `CoffeePrepared` to the waiter, sparing it the relay
+    private final boolean serveDirectly;
+
+    // Orders of guests that have left are dropped rather than brewed
+    private final DepartedGuests departedGuests;
+
+    private final OrderMetrics metrics;
+
+    // Batches still collecting cups, by coffee
+    private final Map<Coffee, Brew> openBatches = new HashMap<>();
+
+    // Remakes are started before any pending first-time order
+    private final Deque<Brew> pendingRemakes = new ArrayDeque<>();
+
+    private final Deque<Brew> pendingBrews = new ArrayDeque<>();
+
+    private final Set<Brew> brewsInProgress = new HashSet<>();
+
     public Barista(FiniteDuration prepareCoffeeDuration, int accuracy) {
-        this.prepareCoffeeDuration = prepareCoffeeDuration;
-        this.accuracy = accuracy;
+        this(new Settings(prepareCoffeeDuration, accuracy), new QueueingDelay(), null, new DepartedGuests(),
+                OrderMetrics.None);
+    }
+
+    public Barista(Settings settings, QueueingDelay queueingDelay, ActorRef coordinator,
+                   DepartedGuests departedGuests, OrderMetrics metrics) {
+        this.prepareCoffeeDuration = settings.prepareCoffeeDuration;
+        this.prepareCoffeeDurations = settings.prepareCoffeeDurations;
+        this.accuracy = settings.accuracy;
+        this.maxConcurrentBrews = settings.maxConcurrentBrews;
+        this.batching = settings.batching;
+        this.queueingDelay = queueingDelay;
+        this.coordinator = coordinator;
+        this.serveDirectly = settings.serveDirectly;
+        this.departedGuests = departedGuests;
+        this.metrics = metrics;
     }
 
     @Override
     public Receive createReceive() {
+        if (maxConcurrentBrews == 0) {
+            return receiveBuilder().
+                    match(PrepareCoffee.class, this::hasDeparted, prepareCoffee -> {
+                        orderDropped(prepareCoffee, sender());
+                        requestWork();
+                    }).
+                    match(PrepareCoffee.class, prepareCoffee -> {
+                        final long now = System.nanoTime();
+                        recordQueueingDelay(prepareCoffee.enqueued(now), now);
+                        metrics.move(OrderMetrics.Stage.WAITING_FOR_BARISTA, OrderMetrics.Stage.BREWING);
+                        Thread.sleep(prepareCoffeeDuration(prepareCoffee.coffee).toMillis()); // Attention: Never block a thread in "real" code!
+                        coffeePrepared(prepareCoffee, sender());
+                        requestWork();
+                    }).build();
+        }
         return receiveBuilder().
-                match(PrepareCoffee.class, prepareCoffee -> {
-                    Thread.sleep(this.prepareCoffeeDuration.toMillis()); // Attention: Never block a thread in "real" code!
-                    sender().tell(new CoffeePrepared(pickCoffee(prepareCoffee.coffee), prepareCoffee.guest), self());
+                match(PrepareCoffee.class, this::hasDeparted, prepareCoffee -> {
+                    orderDropped(prepareCoffee, sender());
+                    requestWork();
+                }).
+                match(PrepareCoffee.class, prepareCoffee -> batching.maxBatchSize > 1 && !prepareCoffee.remake, prepareCoffee ->
+                        addToBatch(new Brew(prepareCoffee.enqueued(System.nanoTime()), sender()))
+                ).
+                match(PrepareCoffee.class, prepareCoffee ->
+                        brew(new Brew(prepareCoffee.enqueued(System.nanoTime()), sender()))
+                ).
+                match(CloseBatch.class, closeBatch -> openBatches.get(closeBatch.batch.prepareCoffee.coffee) == closeBatch.batch, closeBatch ->
+                        closeBatch(closeBatch.batch)
+                ).
+                // Fired just before its batch filled up and was brewed early, so there is nothing left to close
+                match(CloseBatch.class, closeBatch -> {
+                }).
+                match(Brew.class, brew -> {
+                    brewsInProgress.remove(brew);
+                    for (Brew cup = brew; cup != null; cup = cup.next) coffeePrepared(cup.prepareCoffee, cup.replyTo);
+                    startPendingBrew();
                 }).build();
     }
 
@@ -37,8 +126,310 @@ public class Barista extends AbstractLoggingActor {
         return Props.create(Barista.class, () -> new Barista(prepareCoffeeDuration, accuracy));
     }
 
+    /**
+     * The barista pools of a coffee house share `queueingDelay`, `departedGuests` and `metrics`;
+     * `coordinator` is null unless the barista pulls its orders.
+     */
+    public static Props props(Settings settings, QueueingDelay queueingDelay, ActorRef coordinator,
+                              DepartedGuests departedGuests, OrderMetrics metrics) {
+        return Props.create(Barista.class,
+                () -> new Barista(settings, queueingDelay, coordinator, departedGuests, metrics));
+    }
+
+    @Override
+    public void preStart() {
+        for (int i = 0; i < Math.max(1, maxConcurrentBrews); i++) requestWork();
+    }
+
+    /**
+     * A non-blocking barista can be stopped with coffees still in progress, e.g. when the pool shrinks;
+     * these orders are handed back to the pool instead of being lost.
+     */
+    @Override
+    public void postStop() {
+        final ActorRef orders = coordinator != null ? coordinator : context().parent();
+        final Consumer<Brew> handBack = brew -> {
+            for (Brew cup = brew; cup != null; cup = cup.next) orders.tell(cup.prepareCoffee.requeued(), cup.replyTo);
+        };
+        brewsInProgress.forEach(brew -> {
+            for (Brew cup = brew; cup != null; cup = cup.next)
+                metrics.move(OrderMetrics.Stage.BREWING, OrderMetrics.Stage.WAITING_FOR_BARISTA);
+            handBack.accept(brew);
+        });
+        pendingRemakes.forEach(handBack);
+        pendingBrews.forEach(handBack);
+        openBatches.values().forEach(batch -> batch.closing.cancel());
+        openBatches.values().forEach(handBack);
+    }
+
+    /**
+     * A directly served coffee still comes from the waiter, though the guest complains to its own, and
+     * the waiter is told with `OrderServed` so it still completes the order.
+     */
+    private void coffeePrepared(PrepareCoffee prepareCoffee, ActorRef waiter) {
+        final Coffee coffee = pickCoffee(prepareCoffee.coffee);
+        metrics.leave(OrderMetrics.Stage.BREWING);
+        if (serveDirectly) {
+            if (hasDeparted(prepareCoffee)) {
+                departedGuests.servingDropped();
+            } else {
+                prepareCoffee.guest.tell(new Waiter.CoffeeServed(coffee, prepareCoffee.guestId), waiter);
+                metrics.served(coffee);
+            }
+            waiter.tell(new OrderServed(prepareCoffee), self());
+        } else {
+            metrics.enter(OrderMetrics.Stage.SERVING);
+            waiter.tell(new CoffeePrepared(coffee, prepareCoffee.guest, prepareCoffee.remake, prepareCoffee.guestId,
+                    prepareCoffee.leased), self());
+        }
+    }
+
+    private void orderDropped(PrepareCoffee prepareCoffee, ActorRef waiter) {
+        departedGuests.orderDropped();
+        metrics.leave(OrderMetrics.Stage.WAITING_FOR_BARISTA);
+        waiter.tell(new OrderDropped(prepareCoffee), self());
+    }
+
+    private boolean hasDeparted(PrepareCoffee prepareCoffee) {
+        return departedGuests.hasDeparted(prepareCoffee.guestId, prepareCoffee.guest);
+    }
+
+    /**
+     * Starts the next pending brew, dropping the single cups of guests that left while it was pending;
+     * a batch is brewed as a whole.
+     */
+    private void startPendingBrew() {
+        while (!pendingRemakes.isEmpty() || !pendingBrews.isEmpty()) {
+            final Brew brew = !pendingRemakes.isEmpty() ? pendingRemakes.poll() : pendingBrews.poll();
+            if (brew.cups == 1 && hasDeparted(brew.prepareCoffee)) {
+                orderDropped(brew.prepareCoffee, brew.replyTo);
+            } else {
+                startBrew(brew);
+                return;
+            }
+        }
+        requestWork();
+    }
+
+    private void requestWork() {
+        if (coordinator != null) coordinator.tell(BaristaCoordinator.RequestWork.Instance, self());
+    }
+
+    private void addToBatch(Brew cup) {
+        final Brew batch = openBatches.get(cup.prepareCoffee.coffee);
+        if (batch == null) {
+            openBatches.put(cup.prepareCoffee.coffee, cup);
+            cup.closing = context().system().scheduler().scheduleOnce(batching.window, self(),
+                    new CloseBatch(cup), context().dispatcher(), self());
+        } else {
+            cup.next = batch.next;
+            batch.next = cup;
+            batch.cups++;
+            if (batch.cups == batching.maxBatchSize) {
+                closeBatch(batch);
+                return;
+            }
+        }
+        // A pulling barista only gets as many orders as it asks for, so it asks for more to fill the batch,
+        // but only while it has a free slot to brew it in; otherwise it would drain the coordinator
+        if (brewsInProgress.size() + pendingRemakes.size() + pendingBrews.size() < maxConcurrentBrews)
+            requestWork();
+    }
+
+    private void closeBatch(Brew batch) {
+        openBatches.remove(batch.prepareCoffee.coffee);
+        batch.closing.cancel();
+        brew(batch);
+    }
+
+    private void brew(Brew brew) {
+        if (brewsInProgress.size() < maxConcurrentBrews) startBrew(brew);
+        else if (brew.prepareCoffee.remake) pendingRemakes.add(brew);
+        else pendingBrews.add(brew);
+    }
+
+    private void startBrew(Brew brew) {
+        final long now = System.nanoTime();
+        for (Brew cup = brew; cup != null; cup = cup.next) {
+            recordQueueingDelay(cup.prepareCoffee, now);
+            metrics.move(OrderMetrics.Stage.WAITING_FOR_BARISTA, OrderMetrics.Stage.BREWING);
+        }
+        brewsInProgress.add(brew);
+        context().system().scheduler().scheduleOnce(brewDuration(brew), self(),
+                brew, context().dispatcher(), self());
+    }
+
+    private void recordQueueingDelay(PrepareCoffee prepareCoffee, long now) {
+        if (prepareCoffee.remake) queueingDelay.recordRemake(now - prepareCoffee.enqueuedAt);
+        else queueingDelay.record(now - prepareCoffee.enqueuedAt);
+    }
+
+    private FiniteDuration brewDuration(Brew brew) {
+        final FiniteDuration duration = prepareCoffeeDuration(brew.prepareCoffee.coffee);
+        return brew.cups == 1 ? duration : duration.plus(batching.perCupIncrement.mul(brew.cups - 1));
+    }
+
+    private FiniteDuration prepareCoffeeDuration(Coffee coffee) {
+        return prepareCoffeeDurations.getOrDefault(coffee, prepareCoffeeDuration);
+    }
+
     private Coffee pickCoffee(Coffee coffee) {
-        return new Random().nextInt(100) < accuracy ? coffee : Coffee.orderOther(coffee);
+        return ThreadLocalRandom.current().nextInt(100) < accuracy ? coffee : Coffee.orderOther(coffee);
+    }
+
+    /**
+     * How a barista brews, read from `coffee-house.barista`; what it shares with the other baristas
+     * comes in through `props`.
+     */
+    public static final class Settings {
+
+        public final FiniteDuration prepareCoffeeDuration;
+
+        // Overrides `prepareCoffeeDuration` for individual coffees
+        public final Map<Coffee, FiniteDuration> prepareCoffeeDurations;
+
+        public final int accuracy;
+
+        // Zero means blocking mode
+        public final int maxConcurrentBrews;
+
+        public final Batching batching;
+
+        public final boolean serveDirectly;
+
+        /**
+         * A blocking barista brewing every coffee alike, one at a time, and replying to the waiter.
+         */
+        public Settings(final FiniteDuration prepareCoffeeDuration, final int accuracy) {
+            this(prepareCoffeeDuration, ImmutableMap.of(), accuracy, 0, Batching.None, false);
+        }
+
+        private Settings(final FiniteDuration prepareCoffeeDuration,
+                         final Map<Coffee, FiniteDuration> prepareCoffeeDurations, final int accuracy,
+                         final int maxConcurrentBrews, final Batching batching, final boolean serveDirectly) {
+            checkNotNull(prepareCoffeeDuration, "Prepare coffee duration cannot be null");
+            checkNotNull(prepareCoffeeDurations, "Prepare coffee durations cannot be null");
+            checkNotNull(batching, "Batching cannot be null");
+            this.prepareCoffeeDuration = prepareCoffeeDuration;
+            this.prepareCoffeeDurations = prepareCoffeeDurations;
+            this.accuracy = accuracy;
+            this.maxConcurrentBrews = maxConcurrentBrews;
+            this.batching = batching;
+            this.serveDirectly = serveDirectly;
+        }
+
+        public static Settings fromConfig(Config config) {
+            final ImmutableMap.Builder<Coffee, FiniteDuration> prepareCoffeeDurations = ImmutableMap.builder();
+            for (final Coffee coffee : Coffee.COFFEES) {
+                final String path = "prepare-coffee-durations." + Coffee.name(coffee);
+                if (config.hasPath(path)) prepareCoffeeDurations.put(coffee, duration(config, path));
+            }
+            return new Settings(duration(config, "prepare-coffee-duration"), prepareCoffeeDurations.build(),
+                    config.getInt("accuracy"),
+                    config.getBoolean("non-blocking") ? config.getInt("max-concurrent-brews") : 0,
+                    config.getBoolean("batching.enabled")
+                            ? new Batching(duration(config, "batching.window"), config.getInt("batching.max-batch-size"),
+                                    duration(config, "batching.per-cup-increment"))
+                            : Batching.None,
+                    config.getBoolean("serve-directly"));
+        }
+
+        public Settings withPrepareCoffeeDurations(Map<Coffee, FiniteDuration> prepareCoffeeDurations) {
+            return new Settings(prepareCoffeeDuration, prepareCoffeeDurations, accuracy, maxConcurrentBrews, batching,
+                    serveDirectly);
+        }
+
+        public Settings withMaxConcurrentBrews(int maxConcurrentBrews) {
+            return new Settings(prepareCoffeeDuration, prepareCoffeeDurations, accuracy, maxConcurrentBrews, batching,
+                    serveDirectly);
+        }
+
+        public Settings withBatching(Batching batching) {
+            return new Settings(prepareCoffeeDuration, prepareCoffeeDurations, accuracy, maxConcurrentBrews, batching,
+                    serveDirectly);
+        }
+
+        public Settings withServeDirectly(boolean serveDirectly) {
+            return new Settings(prepareCoffeeDuration, prepareCoffeeDurations, accuracy, maxConcurrentBrews, batching,
+                    serveDirectly);
+        }
+
+        private static FiniteDuration duration(Config config, String path) {
+            return Duration.create(config.getDuration(path, MILLISECONDS), MILLISECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return "Settings{"
+                    + "prepareCoffeeDuration=" + prepareCoffeeDuration + ", "
+                    + "prepareCoffeeDurations=" + prepareCoffeeDurations + ", "
+                    + "accuracy=" + accuracy + ", "
+                    + "maxConcurrentBrews=" + maxConcurrentBrews + ", "
+                    + "batching=" + batching + ", "
+                    + "serveDirectly=" + serveDirectly + "}";
+        }
+    }
+
+    /**
+     * Identical coffees ordered within `window` are brewed together, up to `maxBatchSize` cups. A batch
+     * takes the coffee's prepare duration plus `perCupIncrement` for every further cup. Only applies to
+     * non-blocking baristas.
+     */
+    public static final class Batching {
+
+        public static final Batching None = new Batching(Duration.Zero(), 1, Duration.Zero());
+
+        public final FiniteDuration window;
+
+        public final int maxBatchSize;
+
+        public final FiniteDuration perCupIncrement;
+
+        public Batching(final FiniteDuration window, final int maxBatchSize, final FiniteDuration perCupIncrement) {
+            checkNotNull(window, "Window cannot be null");
+            checkNotNull(perCupIncrement, "Per cup increment cannot be null");
+            if (maxBatchSize < 1) throw new IllegalArgumentException("Max batch size must be at least 1");
+            this.window = window;
+            this.maxBatchSize = maxBatchSize;
+            this.perCupIncrement = perCupIncrement;
+        }
+
+        @Override
+        public String toString() {
+            return "Batching{"
+                    + "window=" + window + ", "
+                    + "maxBatchSize=" + maxBatchSize + ", "
+                    + "perCupIncrement=" + perCupIncrement + "}";
+        }
+    }
+
+    // One or more cups of the same coffee brewed together, linked through `next`
+    private static final class Brew {
+
+        final PrepareCoffee prepareCoffee;
+
+        final ActorRef replyTo;
+
+        Brew next;
+
+        int cups = 1;
+
+        // The timer closing the batch; only set on the first cup of an open batch
+        Cancellable closing;
+
+        Brew(final PrepareCoffee prepareCoffee, final ActorRef replyTo) {
+            this.prepareCoffee = prepareCoffee;
+            this.replyTo = replyTo;
+        }
+    }
+
+    private static final class CloseBatch {
+
+        final Brew batch;
+
+        CloseBatch(final Brew batch) {
+            this.batch = batch;
+        }
     }
 
     public static final class PrepareCoffee {
@@ -47,18 +438,59 @@ public class Barista extends AbstractLoggingActor {
 
         public final ActorRef guest;
 
+        // Sent after a complaint; ranked ahead of first-time orders by `BaristaMailbox`
+        public final boolean remake;
+
+        // Not part of the order's identity, only passed on to route the `OrderCompleted`; -1 if unknown
+        public final int guestId;
+
+        // Approved by the waiter's lease rather than the bookkeepers, so never reported as completed;
+        // not part of the order's identity
+        public final boolean leased;
+
+        // When the order entered a barista's mailbox or the coordinator, or 0 while it has not; not part
+        // of the order's identity, only used to measure queueing delay
+        public final long enqueuedAt;
+
         public PrepareCoffee(final Coffee coffee, final ActorRef guest) {
+            this(coffee, guest, false, -1, false, 0);
+        }
+
+        public PrepareCoffee(final Coffee coffee, final ActorRef guest, final boolean remake, final int guestId,
+                             final boolean leased, final long enqueuedAt) {
             checkNotNull(coffee, "Coffee cannot be null");
             checkNotNull(guest, "Guest cannot be null");
             this.coffee = coffee;
             this.guest = guest;
+            this.remake = remake;
+            this.guestId = guestId;
+            this.leased = leased;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        /**
+         * Returns this order enqueued at `now`, unless it has already been enqueued; an order is only
+         * timed from the first queue it enters, so the coordinator's wait counts, too.
+         */
+        public PrepareCoffee enqueued(long now) {
+            return enqueuedAt != 0 ? this : new PrepareCoffee(coffee, guest, remake, guestId, leased, now);
+        }
+
+        /**
+         * Returns this order as not enqueued yet, e.g. to hand it back, so it is timed afresh.
+         */
+        public PrepareCoffee requeued() {
+            return new PrepareCoffee(coffee, guest, remake, guestId, leased, 0);
         }
 
         @Override
         public String toString() {
             return "PrepareCoffee{"
                     + "coffee=" + coffee + ", "
-                    + "guest=" + guest + "}";
+                    + "guest=" + guest + ", "
+                    + "remake=" + remake + ", "
+                    + "guestId=" + guestId + ", "
+                    + "leased=" + leased + "}";
         }
 
         @Override
@@ -66,8 +498,11 @@ public class Barista extends AbstractLoggingActor {
             if (o == this) return true;
             if (o instanceof PrepareCoffee) {
                 PrepareCoffee that = (PrepareCoffee) o;
+                // `guestId`, `leased` and `enqueuedAt` only travel with the order to report and time it,
+                // and `enqueuedAt` changes as the order is queued, so the same order stays equal throughout
                 return (this.coffee.equals(that.coffee))
-                        && (this.guest.equals(that.guest));
+                        && (this.guest.equals(that.guest))
+                        && (this.remake == that.remake);
             }
             return false;
         }
@@ -79,6 +514,118 @@ public class Barista extends AbstractLoggingActor {
             h ^= coffee.hashCode();
             h *= 1000003;
             h ^= guest.hashCode();
+            h *= 1000003;
+            h ^= remake ? 1231 : 1237;
+            return h;
+        }
+    }
+
+    /**
+     * The reply to a `PrepareCoffee` that did not fit into a full `BaristaMailbox` or coordinator.
+     */
+    public static final class Busy {
+
+        public final PrepareCoffee prepareCoffee;
+
+        public Busy(final PrepareCoffee prepareCoffee) {
+            checkNotNull(prepareCoffee, "Prepare coffee cannot be null");
+            this.prepareCoffee = prepareCoffee;
+        }
+
+        @Override
+        public String toString() {
+            return "Busy{prepareCoffee=" + prepareCoffee + "}";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (o instanceof Busy) {
+                Busy that = (Busy) o;
+                return this.prepareCoffee.equals(that.prepareCoffee);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 1;
+            h *= 1000003;
+            h ^= prepareCoffee.hashCode();
+            return h;
+        }
+    }
+
+    /**
+     * The reply to a `PrepareCoffee` of a guest that left before it was brewed; completes the order
+     * like `CoffeePrepared`, but there is nothing to serve.
+     */
+    public static final class OrderDropped {
+
+        public final PrepareCoffee prepareCoffee;
+
+        public OrderDropped(final PrepareCoffee prepareCoffee) {
+            checkNotNull(prepareCoffee, "Prepare coffee cannot be null");
+            this.prepareCoffee = prepareCoffee;
+        }
+
+        @Override
+        public String toString() {
+            return "OrderDropped{prepareCoffee=" + prepareCoffee + "}";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (o instanceof OrderDropped) {
+                OrderDropped that = (OrderDropped) o;
+                return this.prepareCoffee.equals(that.prepareCoffee);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 1;
+            h *= 1000003;
+            h ^= prepareCoffee.hashCode();
+            return h;
+        }
+    }
+
+    /**
+     * The reply to a `PrepareCoffee` served to the guest by a barista serving directly; completes the
+     * order like `CoffeePrepared`, but the waiter has nothing left to serve.
+     */
+    public static final class OrderServed {
+
+        public final PrepareCoffee prepareCoffee;
+
+        public OrderServed(final PrepareCoffee prepareCoffee) {
+            checkNotNull(prepareCoffee, "Prepare coffee cannot be null");
+            this.prepareCoffee = prepareCoffee;
+        }
+
+        @Override
+        public String toString() {
+            return "OrderServed{prepareCoffee=" + prepareCoffee + "}";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (o instanceof OrderServed) {
+                OrderServed that = (OrderServed) o;
+                return this.prepareCoffee.equals(that.prepareCoffee);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 1;
+            h *= 1000003;
+            h ^= prepareCoffee.hashCode();
             return h;
         }
     }
@@ -89,18 +636,46 @@ public class Barista extends AbstractLoggingActor {
 
         public final ActorRef guest;
 
+        // Prepared for a remake rather than a first-time order
+        public final boolean remake;
+
+        // Not part of the coffee's identity, see `PrepareCoffee.guestId`
+        public final int guestId;
+
+        // Not part of the coffee's identity, see `PrepareCoffee.leased`
+        public final boolean leased;
+
         public CoffeePrepared(final Coffee coffee, final ActorRef guest) {
+            this(coffee, guest, false);
+        }
+
+        public CoffeePrepared(final Coffee coffee, final ActorRef guest, final boolean remake) {
+            this(coffee, guest, remake, -1);
+        }
+
+        public CoffeePrepared(final Coffee coffee, final ActorRef guest, final boolean remake, final int guestId) {
+            this(coffee, guest, remake, guestId, false);
+        }
+
+        public CoffeePrepared(final Coffee coffee, final ActorRef guest, final boolean remake, final int guestId,
+                              final boolean leased) {
             checkNotNull(coffee, "Coffee cannot be null");
             checkNotNull(guest, "Guest cannot be null");
             this.coffee = coffee;
             this.guest = guest;
+            this.remake = remake;
+            this.guestId = guestId;
+            this.leased = leased;
         }
 
         @Override
         public String toString() {
             return "CoffeePrepared{"
                     + "coffee=" + coffee + ", "
-                    + "guest=" + guest + "}";
+                    + "guest=" + guest + ", "
+                    + "remake=" + remake + ", "
+                    + "guestId=" + guestId + ", "
+                    + "leased=" + leased + "}";
         }
 
         @Override
@@ -109,7 +684,8 @@ public class Barista extends AbstractLoggingActor {
             if (o instanceof CoffeePrepared) {
                 CoffeePrepared that = (CoffeePrepared) o;
                 return (this.coffee.equals(that.coffee))
-                        && (this.guest.equals(that.guest));
+                        && (this.guest.equals(that.guest))
+                        && (this.remake == that.remake);
             }
             return false;
         }
@@ -121,6 +697,8 @@ public class Barista extends AbstractLoggingActor {
             h ^= coffee.hashCode();
             h *= 1000003;
             h ^= guest.hashCode();
+            h *= 1000003;
+            h ^= remake ? 1231 : 1237;
             return h;
         }
     }
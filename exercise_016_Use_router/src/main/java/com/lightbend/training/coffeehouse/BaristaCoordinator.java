@@ -0,0 +1,97 @@
+/**
+ * Copyright © 2014, 2015 Typesafe, Inc. All rights reserved. [http://www.typesafe.com]
+ */
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.Terminated;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Holds pending `PrepareCoffee` orders and hands each one to the next barista asking for work, so an
+ * order never waits behind a slow brew while another barista is free.
+ *
+ * Orders are stamped as enqueued on arrival, so the time spent here counts as queueing delay.
+ */
+public class BaristaCoordinator extends AbstractLoggingActor {
+
+    // Remakes are handed out before any pending first-time order
+    private final Deque<Order> pendingRemakes = new ArrayDeque<>();
+
+    private final Deque<Order> pendingOrders = new ArrayDeque<>();
+
+    // A barista appears once per free brewing slot
+    private final Deque<ActorRef> idleBaristas = new ArrayDeque<>();
+
+    private final Set<ActorRef> baristas = new HashSet<>();
+
+    // Zero means unbounded; remakes are held even beyond it
+    private final int maxPendingOrders;
+
+    public BaristaCoordinator(int maxPendingOrders) {
+        this.maxPendingOrders = maxPendingOrders;
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder().
+                match(Barista.PrepareCoffee.class, prepareCoffee -> !prepareCoffee.remake && idleBaristas.isEmpty() && isFull(), prepareCoffee ->
+                        sender().tell(new Barista.Busy(prepareCoffee), self())
+                ).
+                match(Barista.PrepareCoffee.class, prepareCoffee -> idleBaristas.isEmpty(), prepareCoffee ->
+                        (prepareCoffee.remake ? pendingRemakes : pendingOrders).add(
+                                new Order(prepareCoffee.enqueued(System.nanoTime()), sender()))
+                ).
+                match(Barista.PrepareCoffee.class, prepareCoffee ->
+                        idleBaristas.poll().tell(prepareCoffee.enqueued(System.nanoTime()), sender())
+                ).
+                match(RequestWork.class, requestWork -> {
+                    if (baristas.add(sender())) context().watch(sender());
+                    final Order order = pendingRemakes.isEmpty() ? pendingOrders.poll() : pendingRemakes.poll();
+                    if (order == null) idleBaristas.add(sender());
+                    else sender().tell(order.prepareCoffee, order.replyTo);
+                }).
+                match(Terminated.class, terminated -> {
+                    baristas.remove(terminated.getActor());
+                    idleBaristas.removeIf(barista -> barista.equals(terminated.getActor()));
+                }).build();
+    }
+
+    public static Props props() {
+        return props(0);
+    }
+
+    public static Props props(int maxPendingOrders) {
+        return Props.create(BaristaCoordinator.class, () -> new BaristaCoordinator(maxPendingOrders));
+    }
+
+    private boolean isFull() {
+        return maxPendingOrders > 0 && pendingRemakes.size() + pendingOrders.size() >= maxPendingOrders;
+    }
+
+    private static final class Order {
+
+        final Barista.PrepareCoffee prepareCoffee;
+
+        final ActorRef replyTo;
+
+        Order(final Barista.PrepareCoffee prepareCoffee, final ActorRef replyTo) {
+            this.prepareCoffee = prepareCoffee;
+            this.replyTo = replyTo;
+        }
+    }
+
+    public static final class RequestWork {
+
+        public static final RequestWork Instance = new RequestWork();
+
+        private RequestWork() {
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright © 2014, 2015 Typesafe, Inc. All rights reserved. [http://www.typesafe.com]
+ */
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import com.typesafe.config.Config;
+import scala.Option;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Puts remakes ahead of first-time orders, as their guests have already waited a full cycle. Messages
+ * of the same kind keep their order.
+ *
+ * With a `mailbox-capacity` above zero, a first-time `PrepareCoffee` arriving at a full mailbox is not
+ * enqueued; its sender gets a `Barista.Busy` instead. Remakes, whose guests must not wait another
+ * cycle, and other messages, e.g. a barista's own timers, are always accepted, and count towards the
+ * capacity of later orders.
+ *
+ * Being bounded without ever blocking the sender, the queue declares neither unbounded nor bounded
+ * message queue semantics, so it cannot satisfy an actor requiring either.
+ *
+ * An order accepted here is stamped as enqueued, unless it already waited in the `BaristaCoordinator`,
+ * so its queueing delay starts when it reached the barista rather than when it was created.
+ */
+public class BaristaMailbox implements MailboxType, ProducesMessageQueue<BaristaMailbox.BaristaMessageQueue> {
+
+    private final boolean prioritizeRemakes;
+
+    private final int capacity;
+
+    public BaristaMailbox(ActorSystem.Settings settings, Config config) {
+        this(config.getBoolean("prioritize-remakes"), config.getInt("mailbox-capacity"));
+    }
+
+    public BaristaMailbox(boolean prioritizeRemakes, int capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("Mailbox capacity must not be negative");
+        this.prioritizeRemakes = prioritizeRemakes;
+        this.capacity = capacity;
+    }
+
+    @Override
+    public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+        return new BaristaMessageQueue(prioritizeRemakes, capacity);
+    }
+
+    public static final class BaristaMessageQueue implements MessageQueue {
+
+        private final boolean prioritizeRemakes;
+
+        private final int capacity;
+
+        private final Queue<Envelope> remakes = new ConcurrentLinkedQueue<>();
+
+        private final Queue<Envelope> messages = new ConcurrentLinkedQueue<>();
+
+        private final AtomicInteger orderCount = new AtomicInteger();
+
+        BaristaMessageQueue(boolean prioritizeRemakes, int capacity) {
+            this.prioritizeRemakes = prioritizeRemakes;
+            this.capacity = capacity;
+        }
+
+        @Override
+        public void enqueue(ActorRef receiver, Envelope handle) {
+            if (!(handle.message() instanceof Barista.PrepareCoffee)) {
+                messages.add(handle);
+                return;
+            }
+            final Barista.PrepareCoffee prepareCoffee = (Barista.PrepareCoffee) handle.message();
+            if (orderCount.incrementAndGet() > capacity && capacity > 0 && !prepareCoffee.remake) {
+                orderCount.decrementAndGet();
+                handle.sender().tell(new Barista.Busy(prepareCoffee), receiver);
+                return;
+            }
+            final Envelope enqueued = handle.copy(prepareCoffee.enqueued(System.nanoTime()), handle.sender());
+            if (prioritizeRemakes && prepareCoffee.remake) remakes.add(enqueued);
+            else messages.add(enqueued);
+        }
+
+        @Override
+        public Envelope dequeue() {
+            Envelope handle = remakes.poll();
+            if (handle == null) handle = messages.poll();
+            if (handle != null && handle.message() instanceof Barista.PrepareCoffee) orderCount.decrementAndGet();
+            return handle;
+        }
+
+        @Override
+        public int numberOfMessages() {
+            return remakes.size() + messages.size();
+        }
+
+        @Override
+        public boolean hasMessages() {
+            return !remakes.isEmpty() || !messages.isEmpty();
+        }
+
+        @Override
+        public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+            for (Envelope handle = dequeue(); handle != null; handle = dequeue())
+                deadLetters.enqueue(owner, handle);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright © 2014, 2015 Typesafe, Inc. All rights reserved. [http://www.typesafe.com]
+ */
+package com.lightbend.training.coffeehouse;
+
+import akka.routing.Resizer;
+import akka.routing.Routee;
+import com.typesafe.config.Config;
+import scala.collection.immutable.IndexedSeq;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Grows the barista pool while orders wait too long before brewing starts and shrinks it while
+ * they hardly wait at all. Unlike the default resizer it looks at the measured queueing delay of
+ * `PrepareCoffee` rather than at mailbox sizes.
+ */
+public class BaristaResizer implements Resizer {
+
+    private final QueueingDelay queueingDelay;
+
+    private final int lowerBound;
+
+    private final int upperBound;
+
+    private final int messagesPerResize;
+
+    private final long growAboveMillis;
+
+    private final long shrinkBelowMillis;
+
+    private final double rampupRate;
+
+    private volatile Decision lastDecision;
+
+    public BaristaResizer(QueueingDelay queueingDelay, int lowerBound, int upperBound, int messagesPerResize,
+                          long growAboveMillis, long shrinkBelowMillis, double rampupRate) {
+        if (lowerBound < 1) throw new IllegalArgumentException("Lower bound must be at least 1");
+        if (upperBound < lowerBound) throw new IllegalArgumentException("Upper bound must not be below lower bound");
+        if (messagesPerResize < 1) throw new IllegalArgumentException("Messages per resize must be at least 1");
+        this.queueingDelay = queueingDelay;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        this.messagesPerResize = messagesPerResize;
+        this.growAboveMillis = growAboveMillis;
+        this.shrinkBelowMillis = shrinkBelowMillis;
+        this.rampupRate = rampupRate;
+    }
+
+    public static BaristaResizer fromConfig(QueueingDelay queueingDelay, Config config) {
+        return new BaristaResizer(queueingDelay,
+                config.getInt("lower-bound"),
+                config.getInt("upper-bound"),
+                config.getInt("messages-per-resize"),
+                config.getDuration("grow-above", MILLISECONDS),
+                config.getDuration("shrink-below", MILLISECONDS),
+                config.getDouble("rampup-rate"));
+    }
+
+    @Override
+    public boolean isTimeForResize(long messageCounter) {
+        return messageCounter % messagesPerResize == 0;
+    }
+
+    @Override
+    public int resize(IndexedSeq<Routee> currentRoutees) {
+        final int size = currentRoutees.size();
+        final QueueingDelay.Sample sample = queueingDelay.sampleAndReset();
+        int target = size;
+        if (sample.count > 0 && sample.meanMillis > growAboveMillis)
+            target = size + Math.max(1, (int) Math.ceil(size * rampupRate));
+        else if (sample.count > 0 && sample.meanMillis < shrinkBelowMillis)
+            target = size - 1;
+        target = Math.max(lowerBound, Math.min(upperBound, target));
+        lastDecision = new Decision(size, target, sample);
+        return target - size;
+    }
+
+    /**
+     * The most recent resize decision, or `null` if the pool has not been resized yet.
+     */
+    public Decision lastDecision() {
+        return lastDecision;
+    }
+
+    public static final class Decision {
+
+        public final int previousSize;
+
+        public final int newSize;
+
+        public final QueueingDelay.Sample queueingDelay;
+
+        public Decision(final int previousSize, final int newSize, final QueueingDelay.Sample queueingDelay) {
+            this.previousSize = previousSize;
+            this.newSize = newSize;
+            this.queueingDelay = queueingDelay;
+        }
+
+        @Override
+        public String toString() {
+            return "Decision{"
+                    + "previousSize=" + previousSize + ", "
+                    + "newSize=" + newSize + ", "
+                    + "queueingDelay=" + queueingDelay + "}";
+        }
+    }
+}
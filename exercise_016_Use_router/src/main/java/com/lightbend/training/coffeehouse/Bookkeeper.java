@@ -0,0 +1,637 @@
+/**
+ * Copyright © 2014, 2015 Typesafe, Inc. All rights reserved. [http://www.typesafe.com]
+ */
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import com.typesafe.config.Config;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Approves the orders of one shard of the guests, those whose id modulo `shards` routes to it, and
+ * hands approved orders straight to the baristas. Each bookkeeper admits its own share of orders,
+ * so `OrderCompleted` has to reach the bookkeeper of the guest, too; see `BookkeeperShards`.
+ *
+ * With journaling, every change to the caffeine counts is appended to a `CaffeineJournal` named
+ * after the bookkeeper's path and replayed when it starts, so a restarted bookkeeper does not
+ * approve coffees past a guest's limit. With snapshots, the journal is rolled and the counts are
+ * encoded into one of two buffers every `snapshotInterval` and written by a `SnapshotWriter` child
+ * while the bookkeeper goes on filling the other, and a starting bookkeeper only replays the journal
+ * segments after its latest snapshot.
+ */
+public class Bookkeeper extends AbstractLoggingActor {
+
+    private static final String LIMIT_REACHED = "Sorry, {}, but you have reached your limit.";
+
+    private final ActorRef coffeeHouse;
+
+    private final ActorRef barista;
+
+    private final int caffeineLimit;
+
+    private final int shards;
+
+    private final CaffeineBookkeeper caffeineBookkeeper = new CaffeineBookkeeper();
+
+    private final AdmissionControl admissionControl;
+
+    private final FiniteDuration admissionDelay;
+
+    // Approvals per lease, counting the one for the order asking for it; 1 means no leases
+    private final int leaseSize;
+
+    // Orders held back by the `queue` admission policy
+    private final Deque<QueuedOrder> queuedOrders = new ArrayDeque<>();
+
+    private final Journaling journaling;
+
+    // Guests stopped at their limit are recorded right away, before the coffee house learns of it
+    private final DepartedGuests departedGuests;
+
+    private final LogSampler logSampler;
+
+    private final OrderMetrics metrics;
+
+    private CaffeineJournal journal;
+
+    private Cancellable journalCommits;
+
+    private String journalName;
+
+    // Buffers not held by the snapshot writer; a snapshot is skipped while there is none
+    private final Deque<ByteBuffer> snapshotBuffers = new ArrayDeque<>();
+
+    private ActorRef snapshotWriter;
+
+    private Cancellable snapshots;
+
+    // Journal segment the latest snapshot covers the journal up to, so an idle bookkeeper does not
+    // take any more
+    private int snapshotPosition = -1;
+
+    public Bookkeeper(ActorRef coffeeHouse, ActorRef barista, int caffeineLimit, Settings settings,
+                      AdmissionControl admissionControl, DepartedGuests departedGuests, LogSampler logSampler,
+                      OrderMetrics metrics) {
+        this.coffeeHouse = coffeeHouse;
+        this.barista = barista;
+        this.caffeineLimit = caffeineLimit;
+        this.shards = settings.shards;
+        this.admissionControl = admissionControl.share(shards);
+        this.admissionDelay = settings.admissionDelay;
+        // Orders approved by a lease bypass admission control
+        this.leaseSize = admissionControl.policy() == AdmissionControl.Policy.NONE ? settings.leaseSize : 1;
+        this.journaling = settings.journaling;
+        this.departedGuests = departedGuests;
+        this.logSampler = logSampler;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder().
+                match(AddGuest.class, addGuest ->
+                        addGuest(addGuest.guestId, addGuest.guest)
+                ).
+                match(RemoveGuest.class, removeGuest -> {
+                    caffeineBookkeeper.remove(slot(removeGuest.guestId));
+                    if (journal != null) journal.guestRemoved(removeGuest.guestId);
+                }).
+                match(CoffeeHouse.ApproveCoffee.class, approveCoffee -> approveCoffee.guestId < 0, approveCoffee ->
+                        // Only the coffee house can look the guest up
+                        coffeeHouse.forward(approveCoffee, context())
+                ).
+                match(CoffeeHouse.ApproveCoffee.class, approveCoffee ->
+                        departedGuests.hasDeparted(approveCoffee.guestId, approveCoffee.guest), approveCoffee -> {
+                    // Sent before the guest left, so its slot may belong to a new guest by now
+                    metrics.leave(OrderMetrics.Stage.APPROVING);
+                    departedGuests.orderDropped();
+                }).
+                match(CoffeeHouse.ApproveCoffee.class, this::coffeeApproved, approveCoffee -> {
+                    switch (admissionControl.admit()) {
+                        case ADMIT:
+                            metrics.move(OrderMetrics.Stage.APPROVING, OrderMetrics.Stage.WAITING_FOR_BARISTA);
+                            barista.forward(prepareCoffee(approveCoffee), context());
+                            if (leaseSize > 1) grantLease(approveCoffee);
+                            break;
+                        case QUEUE:
+                            queuedOrders.add(new QueuedOrder(approveCoffee, sender()));
+                            break;
+                        case SHED:
+                            metrics.leave(OrderMetrics.Stage.APPROVING);
+                            undoCoffeeApproved(approveCoffee);
+                            approveCoffee.guest.tell(new Waiter.ComeBackLater(approveCoffee.guestId), sender());
+                            break;
+                        case DELAY:
+                            undoCoffeeApproved(approveCoffee);
+                            context().system().scheduler().scheduleOnce(admissionDelay, self(),
+                                    approveCoffee, context().dispatcher(), sender());
+                            break;
+                    }
+                }).
+                match(CoffeeHouse.ApproveCoffee.class, approveCoffee -> {
+                    metrics.leave(OrderMetrics.Stage.APPROVING);
+                    if (logSampler.sample(LIMIT_REACHED)) log().info(LIMIT_REACHED, approveCoffee.guest.path().name());
+                    departedGuests.depart(approveCoffee.guestId, approveCoffee.guest);
+                    coffeeHouse.tell(new LimitReached(approveCoffee.guestId, approveCoffee.guest), self());
+                }).
+                match(ReturnLease.class, returnLease -> {
+                    final int returned = caffeineBookkeeper.undo(slot(returnLease.guestId), returnLease.guest,
+                            returnLease.approvals);
+                    if (returned > 0 && journal != null)
+                        journal.coffeesCounted(returnLease.guestId, returnLease.guest.path().uid(), -returned);
+                }).
+                match(CoffeeHouse.OrderCompleted.class, orderCompleted -> {
+                    admissionControl.complete();
+                    while (!queuedOrders.isEmpty() && admissionControl.admitQueued()) {
+                        final QueuedOrder queuedOrder = queuedOrders.poll();
+                        metrics.move(OrderMetrics.Stage.APPROVING, OrderMetrics.Stage.WAITING_FOR_BARISTA);
+                        barista.tell(prepareCoffee(queuedOrder.approveCoffee), queuedOrder.waiter);
+                    }
+                }).
+                match(GetAdmissionStats.class, getAdmissionStats ->
+                        sender().tell(new AdmissionStats(getAdmissionStats.requestId, admissionControl.stats()), self())
+                ).
+                match(CommitJournal.class, commitJournal ->
+                        journal.commit()
+                ).
+                match(TakeSnapshot.class, takeSnapshot ->
+                        takeSnapshot()
+                ).
+                match(SnapshotWriter.SnapshotWritten.class, snapshotWritten ->
+                        snapshotBuffers.add(snapshotWritten.buffer)
+                ).build();
+    }
+
+    @Override
+    public void preStart() throws IOException {
+        if (journaling.dir == null) return;
+        journalName = self().path().toStringWithoutAddress().substring(1).replace('/', '-').replace("$", "");
+        journal = CaffeineJournal.open(journaling.dir, journalName, journaling.initialSize);
+        final int from = loadSnapshot();
+        if (journal.firstSegment() > from)
+            log().warning("Journal segments before {} are gone, caffeine counts may be too low",
+                    journal.firstSegment());
+        final int replayed = journal.replay(caffeineBookkeeper, this::slot, from);
+        log().debug("Replayed {} journaled events for {} guests", replayed, caffeineBookkeeper.size());
+        journalCommits = context().system().scheduler().schedule(journaling.commitInterval,
+                journaling.commitInterval, self(), CommitJournal.Instance, context().dispatcher(), self());
+        if (journaling.snapshotInterval.length() > 0) {
+            snapshotBuffers.add(ByteBuffer.allocate(0));
+            snapshotBuffers.add(ByteBuffer.allocate(0));
+            snapshotWriter = context().actorOf(
+                    SnapshotWriter.props(journaling.dir, journalName, journaling.snapshotRetention), "snapshot-writer");
+            snapshots = context().system().scheduler().schedule(journaling.snapshotInterval,
+                    journaling.snapshotInterval, self(), TakeSnapshot.Instance, context().dispatcher(), self());
+        }
+    }
+
+    @Override
+    public void postStop() throws IOException {
+        if (journalCommits != null) journalCommits.cancel();
+        if (snapshots != null) snapshots.cancel();
+        if (journal != null) journal.close();
+    }
+
+    /**
+     * Every bookkeeper of a `BookkeeperShards` pool is created from the same props, so each admits its
+     * own share of `admissionControl`, the coffee house's, with counters of its own.
+     */
+    public static Props props(ActorRef coffeeHouse, ActorRef barista, int caffeineLimit, Settings settings,
+                              AdmissionControl admissionControl, DepartedGuests departedGuests,
+                              LogSampler logSampler, OrderMetrics metrics) {
+        return Props.create(Bookkeeper.class, () -> new Bookkeeper(coffeeHouse, barista, caffeineLimit, settings,
+                admissionControl, departedGuests, logSampler, metrics));
+    }
+
+    /**
+     * Restores the latest snapshot that is intact and not ahead of the journal; returns the journal
+     * segment to replay from, the first one it does not cover.
+     */
+    private int loadSnapshot() throws IOException {
+        for (File file : CaffeineSnapshot.list(journaling.dir, journalName)) {
+            final CaffeineBookkeeper snapshot = new CaffeineBookkeeper();
+            final int position = CaffeineSnapshot.load(file, snapshot);
+            if (position < 0 || position > journal.segment()) {
+                log().warning("Skipping snapshot {}, it is corrupt or ahead of the journal", file);
+                continue;
+            }
+            for (int slot = 0; slot < snapshot.capacity(); slot++)
+                if (snapshot.uid(slot) != 0)
+                    caffeineBookkeeper.restore(slot, snapshot.uid(slot), snapshot.count(slot));
+            snapshotPosition = position;
+            return position;
+        }
+        return 0;
+    }
+
+    /**
+     * A snapshot covers the journal up to a new segment, so the journal is rolled first unless its
+     * current segment is still empty. Rolling commits the journal, so a snapshot never covers events
+     * that are lost in a crash.
+     */
+    private void takeSnapshot() {
+        if (journal.size() == 0 && journal.segment() == snapshotPosition) return;
+        if (snapshotBuffers.isEmpty()) {
+            log().debug("Skipping snapshot, the previous ones are still being written");
+            return;
+        }
+        snapshotPosition = journal.size() == 0 ? journal.segment() : journal.roll();
+        snapshotWriter.tell(new SnapshotWriter.WriteSnapshot(
+                CaffeineSnapshot.encode(caffeineBookkeeper, snapshotPosition, snapshotBuffers.poll())), self());
+    }
+
+    private int slot(int guestId) {
+        return guestId / shards;
+    }
+
+    private void addGuest(int guestId, ActorRef guest) {
+        if (caffeineBookkeeper.add(slot(guestId), guest) && journal != null)
+            journal.guestAdded(guestId, guest.path().uid());
+    }
+
+    private boolean coffeeApproved(CoffeeHouse.ApproveCoffee approveCoffee) {
+        final int slot = slot(approveCoffee.guestId);
+        // An order may overtake the `AddGuest` of its guest
+        if (caffeineBookkeeper.uid(slot) == 0) addGuest(approveCoffee.guestId, approveCoffee.guest);
+        CaffeineBookkeeper.Approval approval = caffeineBookkeeper.approve(slot, approveCoffee.guest, caffeineLimit);
+        if (approval == CaffeineBookkeeper.Approval.OTHER_GUEST) {
+            // The guest has not departed, so the slot still holds a guest that has, e.g. one restored from
+            // the journal of an earlier run; the guest takes the slot over
+            addGuest(approveCoffee.guestId, approveCoffee.guest);
+            approval = caffeineBookkeeper.approve(slot, approveCoffee.guest, caffeineLimit);
+        }
+        if (approval != CaffeineBookkeeper.Approval.APPROVED) return false;
+        if (journal != null) journal.coffeesCounted(approveCoffee.guestId, approveCoffee.guest.path().uid(), 1);
+        return true;
+    }
+
+    private void undoCoffeeApproved(CoffeeHouse.ApproveCoffee approveCoffee) {
+        if (caffeineBookkeeper.undo(slot(approveCoffee.guestId)) && journal != null)
+            journal.coffeesCounted(approveCoffee.guestId, approveCoffee.guest.path().uid(), -1);
+    }
+
+    /**
+     * Leased approvals are counted right away, so the waiter spending them cannot exceed the limit.
+     */
+    private void grantLease(CoffeeHouse.ApproveCoffee approveCoffee) {
+        final int approvals = caffeineBookkeeper.approveUpTo(slot(approveCoffee.guestId), approveCoffee.guest,
+                leaseSize - 1, caffeineLimit);
+        if (approvals > 0 && journal != null)
+            journal.coffeesCounted(approveCoffee.guestId, approveCoffee.guest.path().uid(), approvals);
+        if (approvals > 0)
+            sender().tell(new Waiter.Lease(approveCoffee.guestId, approveCoffee.guest, approvals), self());
+    }
+
+    private static Barista.PrepareCoffee prepareCoffee(CoffeeHouse.ApproveCoffee approveCoffee) {
+        return new Barista.PrepareCoffee(approveCoffee.coffee, approveCoffee.guest, false, approveCoffee.guestId,
+                false, 0);
+    }
+
+    /**
+     * How a bookkeeper keeps its books, read from `coffee-house.bookkeeper`, but for the delay of the
+     * `delay` admission policy.
+     */
+    public static final class Settings {
+
+        public final int shards;
+
+        public final FiniteDuration admissionDelay;
+
+        // Approvals per lease, counting the one for the order asking for it; 1 means no leases
+        public final int leaseSize;
+
+        public final Journaling journaling;
+
+        /**
+         * A bookkeeper of one of `shards` without leases or a journal.
+         */
+        public Settings(final int shards, final FiniteDuration admissionDelay) {
+            this(shards, admissionDelay, 1, Journaling.None);
+        }
+
+        private Settings(final int shards, final FiniteDuration admissionDelay, final int leaseSize,
+                         final Journaling journaling) {
+            checkNotNull(admissionDelay, "Admission delay cannot be null");
+            checkNotNull(journaling, "Journaling cannot be null");
+            this.shards = shards;
+            this.admissionDelay = admissionDelay;
+            this.leaseSize = leaseSize;
+            this.journaling = journaling;
+        }
+
+        public static Settings fromConfig(Config config, FiniteDuration admissionDelay) {
+            return new Settings(config.getInt("shards"), admissionDelay, config.getInt("lease-size"),
+                    config.getBoolean("journal.enabled") ? Journaling.fromConfig(config.getConfig("journal"))
+                            : Journaling.None);
+        }
+
+        public Settings withLeaseSize(int leaseSize) {
+            return new Settings(shards, admissionDelay, leaseSize, journaling);
+        }
+
+        public Settings withJournaling(Journaling journaling) {
+            return new Settings(shards, admissionDelay, leaseSize, journaling);
+        }
+
+        @Override
+        public String toString() {
+            return "Settings{"
+                    + "shards=" + shards + ", "
+                    + "admissionDelay=" + admissionDelay + ", "
+                    + "leaseSize=" + leaseSize + ", "
+                    + "journaling=" + journaling + "}";
+        }
+    }
+
+    /**
+     * Where and how a bookkeeper journals its caffeine counts; `None` keeps them in memory only.
+     */
+    public static final class Journaling {
+
+        public static final Journaling None = new Journaling(null, 0, Duration.Zero(), Duration.Zero(), 0);
+
+        public final File dir;
+
+        public final int initialSize;
+
+        // Events appended in between are forced to disk together
+        public final FiniteDuration commitInterval;
+
+        // Zero means no snapshots
+        public final FiniteDuration snapshotInterval;
+
+        // Snapshots kept, so a corrupt latest one can fall back on an older one
+        public final int snapshotRetention;
+
+        public Journaling(final File dir, final int initialSize, final FiniteDuration commitInterval,
+                          final FiniteDuration snapshotInterval, final int snapshotRetention) {
+            checkNotNull(commitInterval, "Commit interval cannot be null");
+            checkNotNull(snapshotInterval, "Snapshot interval cannot be null");
+            this.dir = dir;
+            this.initialSize = initialSize;
+            this.commitInterval = commitInterval;
+            this.snapshotInterval = snapshotInterval;
+            this.snapshotRetention = snapshotRetention;
+        }
+
+        public static Journaling fromConfig(Config config) {
+            return new Journaling(new File(config.getString("dir")), config.getBytes("initial-size").intValue(),
+                    Duration.create(config.getDuration("commit-interval", MILLISECONDS), MILLISECONDS),
+                    Duration.create(config.getDuration("snapshot-interval", MILLISECONDS), MILLISECONDS),
+                    config.getInt("snapshot-retention"));
+        }
+
+        @Override
+        public String toString() {
+            return "Journaling{"
+                    + "dir=" + dir + ", "
+                    + "initialSize=" + initialSize + ", "
+                    + "commitInterval=" + commitInterval + ", "
+                    + "snapshotInterval=" + snapshotInterval + ", "
+                    + "snapshotRetention=" + snapshotRetention + "}";
+        }
+    }
+
+    private static final class CommitJournal {
+
+        static final CommitJournal Instance = new CommitJournal();
+
+        private CommitJournal() {
+        }
+    }
+
+    private static final class TakeSnapshot {
+
+        static final TakeSnapshot Instance = new TakeSnapshot();
+
+        private TakeSnapshot() {
+        }
+    }
+
+    private static final class QueuedOrder {
+
+        final CoffeeHouse.ApproveCoffee approveCoffee;
+
+        final ActorRef waiter;
+
+        QueuedOrder(final CoffeeHouse.ApproveCoffee approveCoffee, final ActorRef waiter) {
+            this.approveCoffee = approveCoffee;
+            this.waiter = waiter;
+        }
+    }
+
+    public static final class AddGuest {
+
+        public final int guestId;
+
+        public final ActorRef guest;
+
+        public AddGuest(final int guestId, final ActorRef guest) {
+            checkNotNull(guest, "Guest cannot be null");
+            this.guestId = guestId;
+            this.guest = guest;
+        }
+
+        @Override
+        public String toString() {
+            return "AddGuest{guestId=" + guestId + ", guest=" + guest + "}";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (o instanceof AddGuest) {
+                AddGuest that = (AddGuest) o;
+                return (this.guestId == that.guestId)
+                        && (this.guest.equals(that.guest));
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 1;
+            h *= 1000003;
+            h ^= guestId;
+            h *= 1000003;
+            h ^= guest.hashCode();
+            return h;
+        }
+    }
+
+    public static final class RemoveGuest {
+
+        public final int guestId;
+
+        public RemoveGuest(final int guestId) {
+            this.guestId = guestId;
+        }
+
+        @Override
+        public String toString() {
+            return "RemoveGuest{guestId=" + guestId + "}";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (o instanceof RemoveGuest) {
+                RemoveGuest that = (RemoveGuest) o;
+                return this.guestId == that.guestId;
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 1;
+            h *= 1000003;
+            h ^= guestId;
+            return h;
+        }
+    }
+
+    /**
+     * Tells the coffee house that a guest has reached its caffeine limit, so the guest's parent rather
+     * than the bookkeeper stops it.
+     */
+    public static final class LimitReached {
+
+        public final int guestId;
+
+        public final ActorRef guest;
+
+        public LimitReached(final int guestId, final ActorRef guest) {
+            checkNotNull(guest, "Guest cannot be null");
+            this.guestId = guestId;
+            this.guest = guest;
+        }
+
+        @Override
+        public String toString() {
+            return "LimitReached{"
+                    + "guestId=" + guestId + ", "
+                    + "guest=" + guest + "}";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (o instanceof LimitReached) {
+                LimitReached that = (LimitReached) o;
+                return (this.guestId == that.guestId)
+                        && (this.guest.equals(that.guest));
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 1;
+            h *= 1000003;
+            h ^= guestId;
+            h *= 1000003;
+            h ^= guest.hashCode();
+            return h;
+        }
+    }
+
+    /**
+     * The approvals of a `Waiter.Lease` a stopped or restarted waiter did not spend, to be uncounted.
+     */
+    public static final class ReturnLease {
+
+        public final int guestId;
+
+        public final ActorRef guest;
+
+        public final int approvals;
+
+        public ReturnLease(final int guestId, final ActorRef guest, final int approvals) {
+            checkNotNull(guest, "Guest cannot be null");
+            this.guestId = guestId;
+            this.guest = guest;
+            this.approvals = approvals;
+        }
+
+        @Override
+        public String toString() {
+            return "ReturnLease{"
+                    + "guestId=" + guestId + ", "
+                    + "guest=" + guest + ", "
+                    + "approvals=" + approvals + "}";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (o instanceof ReturnLease) {
+                ReturnLease that = (ReturnLease) o;
+                return (this.guestId == that.guestId)
+                        && (this.guest.equals(that.guest))
+                        && (this.approvals == that.approvals);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 1;
+            h *= 1000003;
+            h ^= guestId;
+            h *= 1000003;
+            h ^= guest.hashCode();
+            h *= 1000003;
+            h ^= approvals;
+            return h;
+        }
+    }
+
+    /**
+     * Broadcast by the coffee house to collect the admission stats of all bookkeepers for one status.
+     */
+    public static final class GetAdmissionStats {
+
+        public final long requestId;
+
+        public GetAdmissionStats(final long requestId) {
+            this.requestId = requestId;
+        }
+
+        @Override
+        public String toString() {
+            return "GetAdmissionStats{requestId=" + requestId + "}";
+        }
+    }
+
+    public static final class AdmissionStats {
+
+        public final long requestId;
+
+        public final AdmissionControl.Stats stats;
+
+        public AdmissionStats(final long requestId, final AdmissionControl.Stats stats) {
+            checkNotNull(stats, "Stats cannot be null");
+            this.requestId = requestId;
+            this.stats = stats;
+        }
+
+        @Override
+        public String toString() {
+            return "AdmissionStats{requestId=" + requestId + ", stats=" + stats + "}";
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright © 2014, 2015 Typesafe, Inc. All rights reserved. [http://www.typesafe.com]
+ */
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorSystem;
+import akka.actor.SupervisorStrategy;
+import akka.dispatch.Dispatchers;
+import akka.routing.NoRoutee$;
+import akka.routing.PoolBase;
+import akka.routing.Resizer;
+import akka.routing.Routee;
+import akka.routing.Router;
+import akka.routing.RoutingLogic;
+import scala.Option;
+import scala.collection.immutable.IndexedSeq;
+
+/**
+ * A pool of `Bookkeeper`s routing each message about a guest to the bookkeeper at the guest id modulo
+ * the pool size. Messages without a guest id go to the first bookkeeper, which hands orders back to
+ * the coffee house to look the guest up.
+ */
+public class BookkeeperShards extends PoolBase {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int shards;
+
+    public BookkeeperShards(final int shards) {
+        if (shards < 1) throw new IllegalArgumentException("There must be at least one shard");
+        this.shards = shards;
+    }
+
+    @Override
+    public int nrOfInstances(ActorSystem system) {
+        return shards;
+    }
+
+    @Override
+    public Router createRouter(ActorSystem system) {
+        return new Router(new GuestIdRoutingLogic());
+    }
+
+    // The shards are fixed, a guest id has to keep routing to the same bookkeeper
+    @Override
+    public Option<Resizer> resizer() {
+        return Option.empty();
+    }
+
+    // Restart a failed bookkeeper on its own rather than escalating to the coffee house
+    @Override
+    public SupervisorStrategy supervisorStrategy() {
+        return SupervisorStrategy.defaultStrategy();
+    }
+
+    @Override
+    public String routerDispatcher() {
+        return Dispatchers.DefaultDispatcherId();
+    }
+
+    static final class GuestIdRoutingLogic implements RoutingLogic {
+
+        @Override
+        public Routee select(Object message, IndexedSeq<Routee> routees) {
+            if (routees.isEmpty()) return NoRoutee$.MODULE$;
+            final int guestId = guestId(message);
+            return routees.apply(guestId < 0 ? 0 : guestId % routees.size());
+        }
+
+        static int guestId(Object message) {
+            if (message instanceof CoffeeHouse.ApproveCoffee) return ((CoffeeHouse.ApproveCoffee) message).guestId;
+            if (message instanceof CoffeeHouse.OrderCompleted) return ((CoffeeHouse.OrderCompleted) message).guestId;
+            if (message instanceof Bookkeeper.AddGuest) return ((Bookkeeper.AddGuest) message).guestId;
+            if (message instanceof Bookkeeper.RemoveGuest) return ((Bookkeeper.RemoveGuest) message).guestId;
+            if (message instanceof Bookkeeper.ReturnLease) return ((Bookkeeper.ReturnLease) message).guestId;
+            return -1;
+        }
+    }
+}
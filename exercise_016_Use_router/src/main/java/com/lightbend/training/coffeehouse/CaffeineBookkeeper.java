@@ -0,0 +1,129 @@
+/**
+ * Copyright © 2014, 2015 Typesafe, Inc. All rights reserved. [http://www.typesafe.com]
+ */
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+
+import java.util.Arrays;
+
+/**
+ * Counts the coffees of each guest in an `int[]` indexed by slot, so approving a coffee neither boxes
+ * a count nor hashes an `ActorRef`. Slots are derived from the ids handed out by a `GuestRegistry`;
+ * a slot keeps the uid of its guest's actor so an order of a guest whose id was reused in the
+ * meantime is not counted for the new guest, and so a count replayed from a `CaffeineJournal` only
+ * applies to the guest it was counted for.
+ *
+ * Not thread-safe; owned by a single actor.
+ */
+public final class CaffeineBookkeeper {
+
+    public enum Approval {
+        APPROVED,
+        // The guest has already had `limit` coffees
+        LIMIT_REACHED,
+        // The slot belongs to another guest, e.g. one restored from the journal of an earlier run
+        OTHER_GUEST
+    }
+
+    private int[] counts = new int[16];
+
+    // Zero for an empty slot; actors never get uid zero
+    private int[] uids = new int[16];
+
+    private int size;
+
+    /**
+     * Starts counting for the guest unless the slot already belongs to it; returns whether it did.
+     */
+    public boolean add(int slot, ActorRef guest) {
+        final int uid = guest.path().uid();
+        if (slot < uids.length && uids[slot] == uid) return false;
+        restore(slot, uid, 0);
+        return true;
+    }
+
+    public void restore(int slot, int uid, int count) {
+        if (slot >= counts.length) {
+            final int length = Math.max(slot + 1, counts.length * 2);
+            counts = Arrays.copyOf(counts, length);
+            uids = Arrays.copyOf(uids, length);
+        }
+        if (uids[slot] == 0) size++;
+        counts[slot] = count;
+        uids[slot] = uid;
+    }
+
+    public void remove(int slot) {
+        if (slot >= uids.length || uids[slot] == 0) return;
+        uids[slot] = 0;
+        size--;
+    }
+
+    /**
+     * Counts a coffee for the guest unless it has already had `limit` coffees or the slot belongs to
+     * another guest. A guest whose slot is still empty is added first.
+     */
+    public Approval approve(int slot, ActorRef guest, int limit) {
+        final int uid = guest.path().uid();
+        if (slot >= uids.length || uids[slot] == 0) restore(slot, uid, 0);
+        else if (uids[slot] != uid) return Approval.OTHER_GUEST;
+        if (counts[slot] >= limit) return Approval.LIMIT_REACHED;
+        counts[slot]++;
+        return Approval.APPROVED;
+    }
+
+    /**
+     * Counts up to `count` more coffees for a guest already in its slot, as far as its limit allows;
+     * returns how many were counted.
+     */
+    public int approveUpTo(int slot, ActorRef guest, int count, int limit) {
+        if (slot >= uids.length || uids[slot] == 0 || uids[slot] != guest.path().uid()) return 0;
+        final int approved = Math.min(count, limit - counts[slot]);
+        if (approved <= 0) return 0;
+        counts[slot] += approved;
+        return approved;
+    }
+
+    /**
+     * Returns whether a coffee was uncounted.
+     */
+    public boolean undo(int slot) {
+        if (slot >= counts.length || counts[slot] == 0) return false;
+        counts[slot]--;
+        return true;
+    }
+
+    /**
+     * Uncounts up to `count` coffees of the guest, unless the slot belongs to another guest by now;
+     * returns how many were uncounted.
+     */
+    public int undo(int slot, ActorRef guest, int count) {
+        if (slot >= uids.length || uids[slot] != guest.path().uid()) return 0;
+        final int undone = Math.min(count, counts[slot]);
+        counts[slot] -= undone;
+        return undone;
+    }
+
+    public int count(int slot) {
+        return slot < counts.length ? counts[slot] : 0;
+    }
+
+    /**
+     * Returns the uid of the guest in the slot, zero if it is empty.
+     */
+    public int uid(int slot) {
+        return slot < uids.length ? uids[slot] : 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of slots there is room for; all slots from here on are empty.
+     */
+    public int capacity() {
+        return uids.length;
+    }
+}
@@ -0,0 +1,284 @@
+/**
+ * Copyright © 2014, 2015 Typesafe, Inc. All rights reserved. [http://www.typesafe.com]
+ */
+package com.lightbend.training.coffeehouse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * An append-only journal of caffeine bookkeeping events in memory-mapped segment files. Appending an
+ * event is a few writes to memory; `commit` forces everything appended since the last commit to disk
+ * at once, so a bookkeeper commits on a timer rather than per event.
+ *
+ * Each event is a fixed 16 byte record of type, guest id, guest uid and delta. The type is written
+ * last and is never zero, so replay stops at the first zero type: the unwritten, zero-filled rest
+ * of a segment or a record torn by a crash.
+ *
+ * Segments are numbered and named after the journal, e.g. `bookkeeper-0000000003.journal`. Only the
+ * newest one is appended to; it grows from its initial size up to `maxSegmentSize` and is then rolled
+ * into the next one. A `CaffeineSnapshot` rolls the journal, too, so it covers exactly the segments
+ * before the one it names, which are deleted with `truncate` once no retained snapshot needs them.
+ *
+ * Not thread-safe; owned by a single `Bookkeeper`.
+ */
+public final class CaffeineJournal implements AutoCloseable {
+
+    static final int RECORD_SIZE = 16;
+
+    static final int GUEST_ADDED = 1;
+
+    static final int COFFEES_COUNTED = 2;
+
+    static final int GUEST_REMOVED = 3;
+
+    // The largest mapping a `MappedByteBuffer` can address, rounded down to whole records
+    static final long MAX_SEGMENT_SIZE = roundToRecords(Integer.MAX_VALUE);
+
+    private static final String SUFFIX = ".journal";
+
+    private final File dir;
+
+    private final String name;
+
+    private final int initialSize;
+
+    private final long maxSegmentSize;
+
+    private int segment;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer buffer;
+
+    private int position;
+
+    private boolean dirty;
+
+    private CaffeineJournal(final File dir, final String name, final int initialSize, final long maxSegmentSize) {
+        this.dir = dir;
+        this.name = name;
+        this.initialSize = initialSize;
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    /**
+     * Opens the journal `name` in `dir` to append to its newest segment, creating the directory and
+     * the first segment with `initialSize` bytes if they do not exist yet.
+     */
+    public static CaffeineJournal open(File dir, String name, int initialSize) throws IOException {
+        return open(dir, name, initialSize, MAX_SEGMENT_SIZE);
+    }
+
+    static CaffeineJournal open(File dir, String name, int initialSize, long maxSegmentSize) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create journal directory " + dir);
+        final CaffeineJournal journal = new CaffeineJournal(dir, name, initialSize,
+                Math.min(roundToRecords(maxSegmentSize), MAX_SEGMENT_SIZE));
+        final List<File> segments = segments(dir, name);
+        journal.openSegment(segments.isEmpty() ? 0 : segmentNumber(segments.get(segments.size() - 1)));
+        return journal;
+    }
+
+    /**
+     * Returns the segments of the journal `name` in `dir`, oldest first.
+     */
+    public static List<File> segments(File dir, String name) {
+        final File[] files = dir.listFiles((d, fileName) ->
+                fileName.startsWith(name + "-") && fileName.endsWith(SUFFIX)
+                        && fileName.length() == name.length() + 11 + SUFFIX.length());
+        if (files == null) return Arrays.asList();
+        return Arrays.stream(files).
+                sorted(Comparator.comparing(File::getName)).
+                collect(Collectors.toList());
+    }
+
+    /**
+     * Deletes the segments of the journal `name` in `dir` before the `segment`th. Only touches segments
+     * no longer appended to, so it may run outside of the journal's owner.
+     */
+    public static void truncate(File dir, String name, int segment) throws IOException {
+        for (File file : segments(dir, name))
+            if (segmentNumber(file) < segment) Files.deleteIfExists(file.toPath());
+    }
+
+    public void guestAdded(int guestId, int guestUid) {
+        append(GUEST_ADDED, guestId, guestUid, 0);
+    }
+
+    public void coffeesCounted(int guestId, int guestUid, int delta) {
+        append(COFFEES_COUNTED, guestId, guestUid, delta);
+    }
+
+    public void guestRemoved(int guestId) {
+        append(GUEST_REMOVED, guestId, 0, 0);
+    }
+
+    /**
+     * Applies the journaled events to `bookkeeper`, mapping guest ids to slots with `slots`; returns
+     * the number of events applied.
+     */
+    public int replay(CaffeineBookkeeper bookkeeper, IntUnaryOperator slots) throws IOException {
+        return replay(bookkeeper, slots, 0);
+    }
+
+    /**
+     * Applies the events journaled from the `from`th segment on, e.g. those after a `CaffeineSnapshot`.
+     */
+    public int replay(CaffeineBookkeeper bookkeeper, IntUnaryOperator slots, int from) throws IOException {
+        int events = 0;
+        for (File file : segments(dir, name)) {
+            final int number = segmentNumber(file);
+            if (number < from || number >= segment) continue;
+            try (FileChannel segmentChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                final ByteBuffer segmentBuffer = segmentChannel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        roundToRecords(segmentChannel.size()));
+                events += replay(segmentBuffer, scan(segmentBuffer), bookkeeper, slots);
+            }
+        }
+        if (segment >= from) events += replay(buffer, position, bookkeeper, slots);
+        return events;
+    }
+
+    /**
+     * Forces the events appended since the last commit to disk.
+     */
+    public void commit() {
+        if (!dirty) return;
+        buffer.force();
+        dirty = false;
+    }
+
+    /**
+     * Commits the current segment and goes on in the next one; returns the number of the new segment.
+     * Appending otherwise only writes to memory, so a failure to roll is not a checked exception.
+     */
+    public int roll() {
+        commit();
+        try {
+            channel.close();
+            openSegment(segment + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return segment;
+    }
+
+    /**
+     * Returns the number of the oldest segment left, e.g. to tell whether a replay from an older one
+     * misses events.
+     */
+    public int firstSegment() {
+        final List<File> segments = segments(dir, name);
+        return segments.isEmpty() ? segment : segmentNumber(segments.get(0));
+    }
+
+    /**
+     * Returns the number of the segment appended to.
+     */
+    public int segment() {
+        return segment;
+    }
+
+    /**
+     * Returns the number of events in the segment appended to.
+     */
+    public int size() {
+        return position / RECORD_SIZE;
+    }
+
+    @Override
+    public void close() throws IOException {
+        commit();
+        channel.close();
+    }
+
+    private void openSegment(int number) throws IOException {
+        final FileChannel segmentChannel = FileChannel.open(
+                new File(dir, String.format("%s-%010d%s", name, number, SUFFIX)).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            final long size = Math.min(maxSegmentSize, Math.max(segmentChannel.size(), roundToRecords(initialSize)));
+            buffer = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            position = scan(buffer);
+            channel = segmentChannel;
+            segment = number;
+        } catch (IOException | RuntimeException e) {
+            segmentChannel.close();
+            throw e;
+        }
+    }
+
+    private void append(int type, int guestId, int guestUid, int delta) {
+        if (position + RECORD_SIZE > buffer.capacity()) {
+            if (buffer.capacity() < maxSegmentSize) grow();
+            else roll();
+        }
+        buffer.putInt(position + 4, guestId);
+        buffer.putInt(position + 8, guestUid);
+        buffer.putInt(position + 12, delta);
+        buffer.putInt(position, type);
+        position += RECORD_SIZE;
+        dirty = true;
+    }
+
+    private void grow() {
+        final long size = Math.min(maxSegmentSize, (long) buffer.capacity() * 2);
+        buffer.force();
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the position after the last intact record in `segment`.
+     */
+    private static int scan(ByteBuffer segment) {
+        int position = 0;
+        while (position + RECORD_SIZE <= segment.capacity() && segment.getInt(position) != 0) position += RECORD_SIZE;
+        return position;
+    }
+
+    private static int replay(ByteBuffer segment, int end, CaffeineBookkeeper bookkeeper, IntUnaryOperator slots) {
+        for (int record = 0; record < end; record += RECORD_SIZE) {
+            final int guestId = segment.getInt(record + 4);
+            final int guestUid = segment.getInt(record + 8);
+            switch (segment.getInt(record)) {
+                case GUEST_ADDED:
+                    bookkeeper.restore(slots.applyAsInt(guestId), guestUid, 0);
+                    break;
+                case COFFEES_COUNTED:
+                    final int slot = slots.applyAsInt(guestId);
+                    if (bookkeeper.uid(slot) == guestUid)
+                        bookkeeper.restore(slot, guestUid, bookkeeper.count(slot) + segment.getInt(record + 12));
+                    break;
+                case GUEST_REMOVED:
+                    bookkeeper.remove(slots.applyAsInt(guestId));
+                    break;
+            }
+        }
+        return end / RECORD_SIZE;
+    }
+
+    private static int segmentNumber(File segment) {
+        final String fileName = segment.getName();
+        return Integer.parseInt(fileName.substring(fileName.length() - SUFFIX.length() - 10,
+                fileName.length() - SUFFIX.length()));
+    }
+
+    private static long roundToRecords(long size) {
+        return Math.max(RECORD_SIZE, size / RECORD_SIZE * RECORD_SIZE);
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright © 2014, 2015 Typesafe, Inc. All rights reserved. [http://www.typesafe.com]
+ */
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+
+import java.util.Arrays;
+
+/**
+ * The approvals a bookkeeper leased to the waiter, per guest id. An order approved by a lease is
+ * marked as `PrepareCoffee.leased`, so the waiter knows not to report it as `OrderCompleted` even
+ * after a restart: the bookkeepers never admitted it.
+ *
+ * Not thread-safe; owned by the `Waiter`.
+ */
+public final class CaffeineLeases {
+
+    private int[] approvals = new int[16];
+
+    private ActorRef[] guests = new ActorRef[16];
+
+    /**
+     * Adds approvals for the guest, dropping those of a previous guest with the same id.
+     */
+    public void grant(int guestId, ActorRef guest, int count) {
+        if (guestId >= guests.length) {
+            final int length = Math.max(guestId + 1, guests.length * 2);
+            approvals = Arrays.copyOf(approvals, length);
+            guests = Arrays.copyOf(guests, length);
+        }
+        if (!guest.equals(guests[guestId])) {
+            guests[guestId] = guest;
+            approvals[guestId] = 0;
+        }
+        approvals[guestId] += count;
+    }
+
+    /**
+     * Spends one of the guest's approvals, if it has any left.
+     */
+    public boolean spend(int guestId, ActorRef guest) {
+        if (!holds(guestId, guest) || approvals[guestId] == 0) return false;
+        approvals[guestId]--;
+        return true;
+    }
+
+    public int approvals(int guestId, ActorRef guest) {
+        return holds(guestId, guest) ? approvals[guestId] : 0;
+    }
+
+    /**
+     * Hands the unspent approvals of every guest to `unspent` and drops them.
+     */
+    public void drain(Unspent unspent) {
+        for (int guestId = 0; guestId < guests.length; guestId++) {
+            if (approvals[guestId] > 0) unspent.accept(guestId, guests[guestId], approvals[guestId]);
+            approvals[guestId] = 0;
+        }
+    }
+
+    private boolean holds(int guestId, ActorRef guest) {
+        return guestId >= 0 && guestId < guests.length && (guests[guestId] == guest || guest.equals(guests[guestId]));
+    }
+
+    @FunctionalInterface
+    public interface Unspent {
+
+        void accept(int guestId, ActorRef guest, int approvals);
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright © 2014, 2015 Typesafe, Inc. All rights reserved. [http://www.typesafe.com]
+ */
+package com.lightbend.training.coffeehouse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * Snapshots of the caffeine counts of a `CaffeineBookkeeper`, so a bookkeeper starts from its latest
+ * snapshot and only replays the events journaled after it instead of its whole `CaffeineJournal`.
+ *
+ * A snapshot is a 16 byte header of magic, checksum, journal position and entry count followed by a
+ * 12 byte entry of slot, guest uid and count per guest. The journal position is the first journal
+ * segment the snapshot does not cover. The CRC32 checksum covers everything after it, so a torn or
+ * otherwise corrupt snapshot is skipped in favor of an older one. Snapshots are named after their
+ * journal position and written to a temporary file that is renamed when complete.
+ */
+public final class CaffeineSnapshot {
+
+    static final int MAGIC = 0xCAFF5A95;
+
+    static final int HEADER_SIZE = 16;
+
+    static final int ENTRY_SIZE = 12;
+
+    private static final String SUFFIX = ".snapshot";
+
+    private CaffeineSnapshot() {
+    }
+
+    /**
+     * Encodes the counts in `bookkeeper` as of the start of journal segment `journalPosition` into
+     * `buffer`, or into a larger buffer if it does not fit, and returns the buffer ready to be written.
+     */
+    public static ByteBuffer encode(CaffeineBookkeeper bookkeeper, int journalPosition, ByteBuffer buffer) {
+        final int size = HEADER_SIZE + bookkeeper.size() * ENTRY_SIZE;
+        if (buffer.capacity() < size) buffer = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+        buffer.clear();
+        buffer.putInt(MAGIC).putInt(0).putInt(journalPosition).putInt(bookkeeper.size());
+        for (int slot = 0; slot < bookkeeper.capacity(); slot++) {
+            final int uid = bookkeeper.uid(slot);
+            if (uid != 0) buffer.putInt(slot).putInt(uid).putInt(bookkeeper.count(slot));
+        }
+        buffer.flip();
+        buffer.putInt(4, checksum(buffer));
+        return buffer;
+    }
+
+    /**
+     * Restores the counts of the snapshot in `file` into `bookkeeper`; returns the journal position of
+     * the snapshot, or -1 without touching `bookkeeper` if the snapshot is corrupt.
+     */
+    public static int load(File file, CaffeineBookkeeper bookkeeper) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) return -1;
+        final int entries = buffer.getInt(12);
+        if (entries < 0 || buffer.limit() != HEADER_SIZE + (long) entries * ENTRY_SIZE) return -1;
+        if (buffer.getInt(4) != checksum(buffer)) return -1;
+        for (int entry = HEADER_SIZE; entry < buffer.limit(); entry += ENTRY_SIZE)
+            bookkeeper.restore(buffer.getInt(entry), buffer.getInt(entry + 4), buffer.getInt(entry + 8));
+        return buffer.getInt(8);
+    }
+
+    /**
+     * Writes the snapshot in `buffer` for the journal `name` to `dir` and forces it to disk, then
+     * deletes all but the newest `retention` snapshots.
+     */
+    public static void write(File dir, String name, ByteBuffer buffer, int retention) throws IOException {
+        final File file = new File(dir, String.format("%s-%010d%s", name, buffer.getInt(8), SUFFIX));
+        final File temp = new File(dir, file.getName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
+            channel.force(false);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        final List<File> snapshots = list(dir, name);
+        for (File snapshot : snapshots.subList(Math.min(Math.max(retention, 1), snapshots.size()), snapshots.size()))
+            Files.deleteIfExists(snapshot.toPath());
+    }
+
+    /**
+     * Returns the journal position of the snapshot in `file`, as named after it.
+     */
+    public static int position(File file) {
+        final String fileName = file.getName();
+        return Integer.parseInt(fileName.substring(fileName.length() - SUFFIX.length() - 10,
+                fileName.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Returns the snapshots for the journal `name` in `dir`, newest first.
+     */
+    public static List<File> list(File dir, String name) {
+        final File[] files = dir.listFiles((d, fileName) ->
+                fileName.startsWith(name + "-") && fileName.endsWith(SUFFIX)
+                        && fileName.length() == name.length() + 11 + SUFFIX.length());
+        if (files == null) return Arrays.asList();
+        return Arrays.stream(files).
+                sorted(Comparator.comparing(File::getName).reversed()).
+                collect(Collectors.toList());
+    }
+
+    private static int checksum(ByteBuffer buffer) {
+        final CRC32 crc = new CRC32();
+        final ByteBuffer covered = buffer.duplicate();
+        covered.position(8);
+        crc.update(covered);
+        return (int) crc.getValue();
+    }
+}
@@ -3,12 +3,14 @@
  */
 package com.lightbend.training.coffeehouse;
 
+import com.google.common.base.CaseFormat;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
 import java.io.Serializable;
-import java.util.List;
-import java.util.Random;
-import java.util.stream.Collectors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
 
 public interface Coffee extends Serializable {
 
@@ -17,6 +19,11 @@ public interface Coffee extends Serializable {
     ImmutableSet<Coffee> COFFEES = ImmutableSet.of(
             new Akkaccino(), new CaffeJava(), new MochaPlay());
 
+    // Precomputed for `orderOther`, which is on the barista's hot path
+    ImmutableMap<Coffee, ImmutableList<Coffee>> OTHER_COFFEES = COFFEES.stream().collect(ImmutableMap.toImmutableMap(
+            Function.identity(),
+            coffee -> COFFEES.stream().filter(c -> !c.equals(coffee)).collect(ImmutableList.toImmutableList())));
+
     static Coffee order(final String code) {
         switch (code.toLowerCase()) {
             case Akkaccino.CODE:
@@ -30,10 +37,16 @@ public interface Coffee extends Serializable {
         }
     }
 
+    /**
+     * The coffee's name as used in configuration and actor names, e.g. "caffe-java".
+     */
+    static String name(final Coffee coffee) {
+        return CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_HYPHEN, coffee.getClass().getSimpleName());
+    }
+
     static Coffee orderOther(final Coffee coffee) {
-        Random rnd = new Random();
-        List<Coffee> filtered = COFFEES.stream().filter(c -> !c.equals(coffee)).collect(Collectors.toList());
-        return filtered.get(rnd.nextInt(filtered.size()));
+        final ImmutableList<Coffee> others = OTHER_COFFEES.get(coffee);
+        return others.get(ThreadLocalRandom.current().nextInt(others.size()));
     }
 
     final class Akkaccino implements Coffee {
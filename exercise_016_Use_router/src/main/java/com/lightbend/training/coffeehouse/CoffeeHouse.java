@@ -6,50 +6,178 @@ package com.lightbend.training.coffeehouse;
 
 import akka.actor.*;
 import akka.japi.pf.DeciderBuilder;
+import akka.routing.Broadcast;
+import akka.routing.ConsistentHashingPool;
 import akka.routing.FromConfig;
+import akka.routing.Pool;
+import com.google.common.collect.ImmutableMap;
+import com.typesafe.config.Config;
+import scala.Option;
 import scala.concurrent.duration.Duration;
 import scala.concurrent.duration.FiniteDuration;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.LongConsumer;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 public class CoffeeHouse extends AbstractLoggingActor {
 
-    private final FiniteDuration baristaPrepareCoffeeDuration =
-            Duration.create(
-                    context().system().settings().config().getDuration(
-                            "coffee-house.barista.prepare-coffee-duration", MILLISECONDS), MILLISECONDS);
+    private static final String THANKS = "Thanks, {}, for being our guest!";
 
-    private final FiniteDuration guestFinishCoffeeDuration =
-            Duration.create(
-                    context().system().settings().config().getDuration(
-                            "coffee-house.guest.finish-coffee-duration", MILLISECONDS), MILLISECONDS);
+    private static final String UNKNOWN_GUEST = "Guest {} is unknown to the coffee house";
 
-    private final int baristaAccuracy =
-            context().system().settings().config().getInt("coffee-house.barista.accuracy");
+    private static final String GUEST_ADDED = "Guest {} added to bookkeeper";
 
-    private final int waiterMaxComplaintCount =
-            context().system().settings().config().getInt("coffee-house.waiter.max-complaint-count");
+    private static final String GUEST_REMOVED = "Removed guest {} from bookkeeper";
+
+    private final Guest.Settings guestSettings =
+            Guest.Settings.fromConfig(context().system().settings().config().getConfig("coffee-house.guest"));
+
+    private final int baristaMailboxCapacity =
+            context().system().settings().config().getInt("coffee-house.barista.mailbox-capacity");
+
+    private final boolean baristaResizerEnabled =
+            context().system().settings().config().getBoolean("coffee-house.barista.resizer.enabled");
+
+    private final boolean baristaWorkPulling =
+            context().system().settings().config().getBoolean("coffee-house.barista.work-pulling");
+
+    private final boolean baristaLanes =
+            context().system().settings().config().getBoolean("coffee-house.barista.lanes");
+
+    private final Barista.Settings baristaSettings =
+            Barista.Settings.fromConfig(context().system().settings().config().getConfig("coffee-house.barista"));
+
+    // One resizer per barista pool, i.e. per lane if there are lanes
+    private final Map<String, BaristaResizer> baristaResizers = new LinkedHashMap<>();
+
+    private final Map<String, QueueingDelay> baristaQueueingDelays = new LinkedHashMap<>();
+
+    // Configured instances per barista pool
+    private final Map<String, Integer> configuredBaristaPoolSizes = new LinkedHashMap<>();
+
+    // Guests keep their timers on a shared `GuestTimer` rather than the system scheduler
+    private final FiniteDuration guestTimerTick =
+            context().system().settings().config().getBoolean("coffee-house.guest.timer.enabled")
+                    ? Duration.create(context().system().settings().config().getDuration(
+                            "coffee-house.guest.timer.tick", MILLISECONDS), MILLISECONDS)
+                    : null;
+
+    private final int guestSpawnChunkSize =
+            context().system().settings().config().getInt("coffee-house.guest.spawn-chunk-size");
+
+    private final int guestsPerSimulator =
+            context().system().settings().config().getInt("coffee-house.guest.simulator.guests-per-simulator");
+
+    private final FiniteDuration guestSimulatorTick =
+            Duration.create(context().system().settings().config().getDuration(
+                    "coffee-house.guest.simulator.tick", MILLISECONDS), MILLISECONDS);
+
+    private final FiniteDuration loadTick =
+            Duration.create(context().system().settings().config().getDuration(
+                    "coffee-house.load.tick", MILLISECONDS), MILLISECONDS);
+
+    private final FiniteDuration loadDrainTimeout =
+            Duration.create(context().system().settings().config().getDuration(
+                    "coffee-house.load.drain-timeout", MILLISECONDS), MILLISECONDS);
+
+    // Coffees all barista pools can brew at a time as configured, counted while creating them
+    private int baristaSlots;
+
+    // Guests that have left, whose orders the waiters and baristas drop; needed to create them
+    private final DepartedGuests departedGuests = new DepartedGuests();
+
+    // Shared by the guests, waiters and bookkeepers; needed to create them
+    private final LogSampler logSampler =
+            new LogSampler(context().system().settings().config().getInt("coffee-house.logging.sample-every"),
+                    context().system().settings().config().getInt("coffee-house.logging.max-per-second"));
+
+    private final FiniteDuration logSummaryInterval =
+            Duration.create(context().system().settings().config().getDuration(
+                    "coffee-house.logging.summary-interval", MILLISECONDS), MILLISECONDS);
+
+    private Cancellable logSummaries;
+
+    // Updated by the guests, waiters, bookkeepers and baristas; needed to create them
+    private final OrderMetrics orderMetrics = new OrderMetrics();
+
+    private final FiniteDuration metricsTick =
+            Duration.create(context().system().settings().config().getDuration(
+                    "coffee-house.metrics.tick", MILLISECONDS), MILLISECONDS);
+
+    private final FiniteDuration metricsLatencyWindow =
+            Duration.create(context().system().settings().config().getDuration(
+                    "coffee-house.metrics.latency-window", MILLISECONDS), MILLISECONDS);
+
+    private Cancellable metricsTicks;
+
+    // Dead letters of the whole actor system, by the simple class name of the message
+    private final Map<String, Long> deadLetters = new TreeMap<>();
 
     private final ActorRef barista =
             createBarista();
 
-    private final ActorRef waiter =
-            createWaiter();
+    private final Config admissionConfig =
+            context().system().settings().config().getConfig("coffee-house.admission");
+
+    private final Bookkeeper.Settings bookkeeperSettings =
+            Bookkeeper.Settings.fromConfig(context().system().settings().config().getConfig("coffee-house.bookkeeper"),
+                    Duration.create(admissionConfig.getDuration("delay", MILLISECONDS), MILLISECONDS));
+
+    private final int waiterPoolSize =
+            context().system().settings().config().getInt("coffee-house.waiter.pool-size");
+
+    private final Waiter.Settings waiterSettings =
+            Waiter.Settings.fromConfig(context().system().settings().config().getConfig("coffee-house.waiter"));
+
+    private final GuestRegistry guests = new GuestRegistry();
 
-    private final Map<ActorRef, Integer> guestCaffeineBookkeeper = new ConcurrentHashMap<>();
+    // Each holds the ids of all guests it simulates
+    private final Set<ActorRef> guestSimulators = new HashSet<>();
+
+    // Statuses waiting for the admission stats of every bookkeeper, by request id
+    private final Map<Long, StatusRequest> statusRequests = new HashMap<>();
+
+    // How long a status waits for the bookkeepers before it is reported with the admission stats it has
+    private final FiniteDuration admissionStatsTimeout =
+            Duration.create(context().system().settings().config().getDuration(
+                    "coffee-house.admission-stats-timeout", MILLISECONDS), MILLISECONDS);
+
+    private long nextStatusRequestId;
 
     private final int caffeineLimit;
 
+    private final ActorRef bookkeeper;
+
+    private final ActorRef waiter;
+
+    private final ActorRef guestTimer;
+
     private SupervisorStrategy strategy = new OneForOneStrategy(false, DeciderBuilder.
-            match(Guest.CaffeineException.class, e ->
-                    SupervisorStrategy.stop()
-            ).
+            match(Guest.CaffeineException.class, e -> {
+                final int guestId = guests.resolve(-1, sender());
+                if (guestId >= 0) departedGuests.depart(guestId, sender());
+                else if (logSampler.sample(UNKNOWN_GUEST)) log().warning(UNKNOWN_GUEST, sender().path().name());
+                return SupervisorStrategy.stop();
+            }).
+            matchAny(e -> SupervisorStrategy.restart()).build()
+    );
+
+    // Restarts a failed waiter of the pool on its own; applied by the pool, so it cannot use `sender()`
+    private final SupervisorStrategy waiterStrategy = new OneForOneStrategy(false, DeciderBuilder.
             match(Waiter.FrustratedException.class, (Waiter.FrustratedException e) -> {
-                barista.tell(new Barista.PrepareCoffee(e.coffee, e.guest), sender());
+                orderMetrics.enter(OrderMetrics.Stage.WAITING_FOR_BARISTA);
+                barista.tell(new Barista.PrepareCoffee(e.coffee, e.guest, true, e.guestId, false, 0), e.waiter);
                 return SupervisorStrategy.restart();
             }).
             matchAny(e -> SupervisorStrategy.restart()).build()
@@ -58,30 +186,116 @@ public class CoffeeHouse extends AbstractLoggingActor {
     public CoffeeHouse(int caffeineLimit) {
         log().debug("CoffeeHouse Open");
         this.caffeineLimit = caffeineLimit;
+        this.bookkeeper = createBookkeeper();
+        this.waiter = createWaiter();
+        this.guestTimer = guestTimerTick != null ? context().actorOf(GuestTimer.props(guestTimerTick), "guest-timer") : null;
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder().
-                match(CreateGuest.class, createGuest -> {
-                    final ActorRef guest = createGuest(createGuest.favoriteCoffee, createGuest.caffeineLimit);
-                    addGuestToBookkeeper(guest);
-                    context().watch(guest);
-                }).
-                match(ApproveCoffee.class, this::coffeeApproved, approveCoffee ->
-                        barista.forward(new Barista.PrepareCoffee(approveCoffee.coffee, approveCoffee.guest), context())
+                match(CreateGuest.class, createGuest ->
+                        spawnGuest(createGuest.favoriteCoffee, createGuest.caffeineLimit)
+                ).
+                match(CreateGuests.class, createGuests ->
+                        spawnGuests(createGuests, createGuests.count, System.nanoTime())
+                ).
+                match(RemainingGuests.class, remainingGuests ->
+                        spawnGuests(remainingGuests.createGuests, remainingGuests.count, remainingGuests.startedAt)
+                ).
+                match(SimulateGuests.class, simulateGuests ->
+                        spawnGuestSimulators(simulateGuests, simulateGuests.count, System.nanoTime())
                 ).
+                match(RemainingSimulatedGuests.class, remainingSimulatedGuests ->
+                        spawnGuestSimulators(remainingSimulatedGuests.simulateGuests, remainingSimulatedGuests.count,
+                                remainingSimulatedGuests.startedAt)
+                ).
+                match(GenerateLoad.class, generateLoad ->
+                        context().actorOf(LoadGenerator.props(self(), sender(), generateLoad.rate,
+                                generateLoad.duration, generateLoad.mix, loadTick, loadDrainTimeout))
+                ).
+                match(SimulateArrivals.class, simulateArrivals ->
+                        sender().tell(spawnArrivals(simulateArrivals), self())
+                ).
+                match(GuestSimulator.GuestLeft.class, guestLeft -> {
+                    if (guests.remove(guestLeft.guestId)) guestDeparted(guestLeft.guestId, sender());
+                }).
+                match(Terminated.class, terminated -> guestSimulators.remove(terminated.getActor()), terminated -> {
+                    log().info("Thanks, {}, for simulating our guests!", terminated.getActor());
+                    guests.removeAll(terminated.getActor(), guestId -> guestDeparted(guestId, terminated.getActor()));
+                }).
                 match(ApproveCoffee.class, approveCoffee -> {
-                    log().info("Sorry, {}, but you have reached your limit.", approveCoffee.guest.path().name());
-                    context().stop(approveCoffee.guest);
+                    final int guestId = guests.resolve(approveCoffee.guestId, approveCoffee.guest);
+                    if (guestId >= 0) {
+                        bookkeeper.forward(new ApproveCoffee(approveCoffee.coffee, approveCoffee.guest, guestId), context());
+                    } else {
+                        // E.g. an order still in flight from a guest already removed; it has not reached
+                        // its limit, so it is neither stopped nor recorded as departed
+                        orderMetrics.leave(OrderMetrics.Stage.APPROVING);
+                        if (logSampler.sample(UNKNOWN_GUEST)) log().warning(UNKNOWN_GUEST, approveCoffee.guest.path().name());
+                    }
                 }).
+                match(Bookkeeper.LimitReached.class, limitReached ->
+                        context().stop(limitReached.guest)
+                ).
+                match(OrderCompleted.class, orderCompleted ->
+                        bookkeeper.forward(orderCompleted, context())
+                ).
                 match(Terminated.class, terminated -> {
-                    log().info("Thanks, {}, for being our guest!", terminated.getActor());
+                    if (logSampler.sample(THANKS)) log().info(THANKS, terminated.getActor());
                     removeGuestFromBookkeeper(terminated.getActor());
                 }).
+                match(LogSummary.class, logSummary ->
+                        logSampler.summarize((template, messages, logged) ->
+                                log().info("Logged {} of {} \"{}\" in the last {}", logged, messages, template,
+                                        logSummaryInterval))
+                ).
+                match(MetricsTick.class, metricsTick ->
+                        orderMetrics.tick(System.nanoTime(), this.metricsTick.toNanos(), metricsLatencyWindow.toNanos())
+                ).
+                match(DeadLetter.class, deadLetter ->
+                        deadLetters.merge(deadLetter.message().getClass().getSimpleName(), 1L, Long::sum)
+                ).
+                match(GetStatus.class, getStatus -> {
+                    final long requestId = nextStatusRequestId++;
+                    statusRequests.put(requestId, new StatusRequest(sender(),
+                            context().system().scheduler().scheduleOnce(admissionStatsTimeout, self(),
+                                    new StatusTimeout(requestId), context().dispatcher(), self())));
+                    bookkeeper.tell(new Broadcast(new Bookkeeper.GetAdmissionStats(requestId)), self());
+                }).
+                match(Bookkeeper.AdmissionStats.class, admissionStats -> {
+                    final StatusRequest statusRequest = statusRequests.get(admissionStats.requestId);
+                    if (statusRequest != null && statusRequest.add(admissionStats.stats) == bookkeeperSettings.shards) {
+                        statusRequests.remove(admissionStats.requestId);
+                        statusRequest.timeout.cancel();
+                        replyStatus(statusRequest);
+                    }
+                }).
+                match(StatusTimeout.class, statusTimeout -> {
+                    // A bookkeeper restarting or overloaded must not keep the asker waiting for good
+                    final StatusRequest statusRequest = statusRequests.remove(statusTimeout.requestId);
+                    if (statusRequest == null) return;
+                    log().warning("Reporting status without the admission stats of {} of {} bookkeepers",
+                            bookkeeperSettings.shards - statusRequest.replies, bookkeeperSettings.shards);
+                    replyStatus(statusRequest);
+                }).
                 matchAny(this::unhandled).build();
     }
 
+    private void replyStatus(StatusRequest statusRequest) {
+        final OrderMetrics.Snapshot metrics = orderMetrics.snapshot();
+        final Map<String, Integer> poolSizes = baristaPoolSizes();
+        final AdmissionControl.Stats admission = statusRequest.admission != null ? statusRequest.admission :
+                new AdmissionControl.Stats(
+                        AdmissionControl.Policy.valueOf(admissionConfig.getString("policy").toUpperCase()),
+                        0, 0, 0, 0, 0, 0);
+        statusRequest.replyTo.tell(new Status(guests.size(), baristaResizerDecisions(),
+                baristaRemakeQueueingDelays(), admission, new TreeMap<>(deadLetters),
+                departedGuests.droppedOrders(), departedGuests.droppedServings(),
+                metrics, poolSizes, baristaUtilization(metrics, poolSizes)),
+                self());
+    }
+
     public static Props props(int caffeineLimit) {
         return Props.create(CoffeeHouse.class, () -> new CoffeeHouse(caffeineLimit));
     }
@@ -91,23 +305,146 @@ public class CoffeeHouse extends AbstractLoggingActor {
         return strategy;
     }
 
-    private boolean coffeeApproved(ApproveCoffee approveCoffee) {
-        final int guestCaffeineCount = guestCaffeineBookkeeper.get(approveCoffee.guest);
-        if (guestCaffeineCount < caffeineLimit) {
-            guestCaffeineBookkeeper.put(approveCoffee.guest, guestCaffeineCount + 1);
-            return true;
+    @Override
+    public void preStart() {
+        context().system().eventStream().subscribe(self(), DeadLetter.class);
+        logSummaries = context().system().scheduler().schedule(logSummaryInterval, logSummaryInterval, self(),
+                LogSummary.Instance, context().dispatcher(), self());
+        metricsTicks = context().system().scheduler().schedule(metricsTick, metricsTick, self(),
+                MetricsTick.Instance, context().dispatcher(), self());
+    }
+
+    @Override
+    public void postStop() {
+        context().system().eventStream().unsubscribe(self());
+        logSummaries.cancel();
+        metricsTicks.cancel();
+        statusRequests.values().forEach(statusRequest -> statusRequest.timeout.cancel());
+    }
+
+    private Map<String, BaristaResizer.Decision> baristaResizerDecisions() {
+        final Map<String, BaristaResizer.Decision> decisions = new LinkedHashMap<>();
+        baristaResizers.forEach((pool, resizer) -> {
+            if (resizer.lastDecision() != null) decisions.put(pool, resizer.lastDecision());
+        });
+        return decisions;
+    }
+
+    private Map<String, QueueingDelay.Sample> baristaRemakeQueueingDelays() {
+        final Map<String, QueueingDelay.Sample> delays = new LinkedHashMap<>();
+        baristaQueueingDelays.forEach((pool, queueingDelay) -> delays.put(pool, queueingDelay.remakes()));
+        return delays;
+    }
+
+    /**
+     * The size of each barista pool as of its `BaristaResizer`'s latest decision, or as configured if it has
+     * not been resized yet.
+     */
+    private Map<String, Integer> baristaPoolSizes() {
+        final Map<String, Integer> poolSizes = new LinkedHashMap<>(configuredBaristaPoolSizes);
+        baristaResizers.forEach((pool, resizer) -> {
+            if (resizer.lastDecision() != null) poolSizes.put(pool, resizer.lastDecision().newSize);
+        });
+        return poolSizes;
+    }
+
+    /**
+     * The share of the coffees the barista pools, at their current sizes, can brew at a time that are brewing.
+     */
+    private double baristaUtilization(OrderMetrics.Snapshot metrics, Map<String, Integer> poolSizes) {
+        int slots = 0;
+        for (final int poolSize : poolSizes.values())
+            slots += poolSize * Math.max(1, baristaSettings.maxConcurrentBrews);
+        return slots == 0 ? 0 : (double) metrics.inFlight.get(OrderMetrics.Stage.BREWING) / slots;
+    }
+
+    private void spawnGuest(Coffee favoriteCoffee, int caffeineLimit) {
+        final int guestId = guests.reserve();
+        final ActorRef guest = createGuest(guestId, favoriteCoffee, caffeineLimit);
+        addGuestToBookkeeper(guestId, guest);
+        context().watch(guest);
+    }
+
+    /**
+     * Spawns one chunk of the guests and sends the rest to the back of the mailbox, so the messages
+     * that arrived in the meantime are not held up by a large arrival.
+     */
+    private void spawnGuests(CreateGuests createGuests, int count, long startedAt) {
+        final int chunk = Math.min(count, guestSpawnChunkSize);
+        for (int i = 0; i < chunk; i++) spawnGuest(createGuests.favoriteCoffee, createGuests.caffeineLimit);
+        if (count > chunk) {
+            self().tell(new RemainingGuests(createGuests, count - chunk, startedAt), self());
+        } else {
+            final long millis = Math.max(1, MILLISECONDS.convert(System.nanoTime() - startedAt, NANOSECONDS));
+            log().info("Spawned {} guests in {} ms ({} guests/s)", createGuests.count, millis,
+                    createGuests.count * 1000L / millis);
         }
-        return false;
     }
 
-    private void addGuestToBookkeeper(ActorRef guest) {
-        guestCaffeineBookkeeper.put(guest, 0);
-        log().debug("Guest {} added to bookkeeper", guest);
+    /**
+     * Spawns one simulator with up to `guests-per-simulator` of the guests and sends the rest to the
+     * back of the mailbox, like `spawnGuests`. The simulated guests are added to the bookkeepers by
+     * their first order, and their limit is kept below the coffee house's, as the bookkeeper would
+     * stop the simulator along with the guest that reaches it.
+     */
+    private void spawnGuestSimulators(SimulateGuests simulateGuests, int count, long startedAt) {
+        final int chunk = Math.min(count, guestsPerSimulator);
+        final int[] guestIds = new int[chunk];
+        final Coffee[] favoriteCoffees = new Coffee[chunk];
+        final int[] caffeineLimits = new int[chunk];
+        for (int i = 0; i < chunk; i++) {
+            guestIds[i] = guests.reserve();
+            favoriteCoffees[i] = simulateGuests.favoriteCoffee;
+            caffeineLimits[i] = Math.min(simulateGuests.caffeineLimit, caffeineLimit - 1);
+        }
+        final ActorRef simulator = createGuestSimulator(guestIds, favoriteCoffees, caffeineLimits, null,
+                orderMetrics::recordLatency);
+        for (final int guestId : guestIds) guests.add(guestId, simulator);
+        guestSimulators.add(simulator);
+        context().watch(simulator);
+        if (count > chunk) {
+            self().tell(new RemainingSimulatedGuests(simulateGuests, count - chunk, startedAt), self());
+        } else {
+            final long millis = Math.max(1, MILLISECONDS.convert(System.nanoTime() - startedAt, NANOSECONDS));
+            log().info("Simulating {} guests after {} ms", simulateGuests.count, millis);
+        }
+    }
+
+    /**
+     * Spawns one simulator with all the arriving guests, each ordering one coffee, whatever
+     * `guests-per-simulator`, as they arrive within one tick of the load generator.
+     */
+    private ActorRef spawnArrivals(SimulateArrivals simulateArrivals) {
+        final int count = simulateArrivals.arrivedAt.length;
+        final int[] guestIds = new int[count];
+        for (int i = 0; i < count; i++) guestIds[i] = guests.reserve();
+        final LatencyHistogram latencies = simulateArrivals.latencies;
+        final ActorRef simulator = createGuestSimulator(guestIds, simulateArrivals.favoriteCoffees, new int[count],
+                simulateArrivals.arrivedAt, nanos -> {
+                    latencies.record(nanos);
+                    orderMetrics.recordLatency(nanos);
+                });
+        for (final int guestId : guestIds) guests.add(guestId, simulator);
+        guestSimulators.add(simulator);
+        context().watch(simulator);
+        return simulator;
+    }
+
+    private void guestDeparted(int guestId, ActorRef guest) {
+        departedGuests.depart(guestId, guest);
+        bookkeeper.tell(new Bookkeeper.RemoveGuest(guestId), self());
+    }
+
+    private void addGuestToBookkeeper(int guestId, ActorRef guest) {
+        guests.add(guestId, guest);
+        bookkeeper.tell(new Bookkeeper.AddGuest(guestId, guest), self());
+        if (logSampler.sample(GUEST_ADDED)) log().debug(GUEST_ADDED, guest);
     }
 
     private void removeGuestFromBookkeeper(ActorRef guest) {
-        guestCaffeineBookkeeper.remove(guest);
-        log().debug("Removed guest {} from bookkeeper", guest);
+        final int guestId = guests.remove(guest);
+        if (guestId >= 0) guestDeparted(guestId, guest);
+        if (logSampler.sample(GUEST_REMOVED)) log().debug(GUEST_REMOVED, guest);
     }
 
     //===========================================================================
@@ -115,16 +452,79 @@ public class CoffeeHouse extends AbstractLoggingActor {
     //===========================================================================
     // @todo Use an externally configured `round-robin` pool router.
     protected ActorRef createBarista() {
-        return context().actorOf(FromConfig.getInstance().props(
-                Barista.props(baristaPrepareCoffeeDuration, baristaAccuracy)), "barista");
+        if (!baristaLanes) return createBaristaPool("barista");
+        final List<String> lanePaths = new ArrayList<>();
+        for (final Coffee coffee : Coffee.COFFEES)
+            lanePaths.add(createBaristaPool("barista-" + Coffee.name(coffee)).path().toStringWithoutAddress());
+        return context().actorOf(new CoffeeLanes(lanePaths).props(), "barista-lanes");
+    }
+
+    private ActorRef createBaristaPool(String name) {
+        final int poolSize = poolSize(name);
+        configuredBaristaPoolSizes.put(name, poolSize);
+        baristaSlots += poolSize * Math.max(1, baristaSettings.maxConcurrentBrews);
+        final QueueingDelay queueingDelay = new QueueingDelay();
+        baristaQueueingDelays.put(name, queueingDelay);
+        if (baristaWorkPulling) {
+            final ActorRef coordinator = context().actorOf(BaristaCoordinator.props(baristaMailboxCapacity),
+                    name + "-coordinator");
+            context().actorOf(FromConfig.getInstance().props(baristaProps(queueingDelay, coordinator)), name);
+            return coordinator;
+        }
+        FromConfig router = FromConfig.getInstance();
+        if (baristaResizerEnabled) {
+            final BaristaResizer resizer = BaristaResizer.fromConfig(queueingDelay,
+                    context().system().settings().config().getConfig("coffee-house.barista.resizer"));
+            baristaResizers.put(name, resizer);
+            router = router.withResizer(resizer);
+        }
+        return context().actorOf(router.props(baristaProps(queueingDelay, null)), name);
+    }
+
+    private int poolSize(String name) {
+        final Option<Deploy> deploy = ((ExtendedActorSystem) context().system()).provider().deployer()
+                .lookup(self().path().child(name));
+        return deploy.isDefined() && deploy.get().routerConfig() instanceof Pool
+                ? ((Pool) deploy.get().routerConfig()).nrOfInstances(context().system())
+                : 1;
+    }
+
+    private Props baristaProps(QueueingDelay queueingDelay, ActorRef coordinator) {
+        return Barista.props(baristaSettings, queueingDelay, coordinator, departedGuests, orderMetrics)
+                .withMailbox("barista-mailbox");
+    }
+
+    /**
+     * The admission control of the whole coffee house, of which each bookkeeper admits its share.
+     */
+    protected AdmissionControl createAdmissionControl() {
+        return AdmissionControl.fromConfig(admissionConfig, baristaSlots, baristaSettings.prepareCoffeeDuration);
+    }
+
+    protected ActorRef createBookkeeper() {
+        final AdmissionControl admissionControl = createAdmissionControl();
+        return context().actorOf(new BookkeeperShards(bookkeeperSettings.shards).props(Bookkeeper.props(self(),
+                barista, caffeineLimit, bookkeeperSettings, admissionControl, departedGuests, logSampler,
+                orderMetrics)), "bookkeeper");
     }
 
+    // Orders go to the bookkeepers directly, sparing the coffee house a hop. The waiters are hashed by
+    // guest, so the complaints of a guest are counted by one of them
     protected ActorRef createWaiter() {
-        return context().actorOf(Waiter.props(self(), barista, waiterMaxComplaintCount), "waiter");
+        return context().actorOf(new ConsistentHashingPool(waiterPoolSize).withSupervisorStrategy(waiterStrategy)
+                .props(Waiter.props(bookkeeper, barista, waiterSettings, departedGuests, logSampler, orderMetrics)),
+                "waiter");
     }
 
-    protected ActorRef createGuest(Coffee favoriteCoffee, int caffeineLimit) {
-        return context().actorOf(Guest.props(waiter, favoriteCoffee, guestFinishCoffeeDuration, caffeineLimit));
+    protected ActorRef createGuest(int guestId, Coffee favoriteCoffee, int caffeineLimit) {
+        return context().actorOf(Guest.props(guestId, waiter, favoriteCoffee, caffeineLimit, guestSettings, guestTimer,
+                logSampler, orderMetrics));
+    }
+
+    protected ActorRef createGuestSimulator(int[] guestIds, Coffee[] favoriteCoffees, int[] caffeineLimits,
+                                            long[] arrivedAt, LongConsumer latencies) {
+        return context().actorOf(GuestSimulator.props(waiter, guestIds, favoriteCoffees, caffeineLimits,
+                arrivedAt, latencies, guestSettings.finishCoffeeDuration, guestSimulatorTick));
     }
 
     public static final class CreateGuest {
@@ -168,24 +568,246 @@ public class CoffeeHouse extends AbstractLoggingActor {
         }
     }
 
+    /**
+     * Creates `count` guests, spawning them in chunks of `coffee-house.guest.spawn-chunk-size`.
+     */
+    public static final class CreateGuests {
+
+        public final int count;
+
+        public final Coffee favoriteCoffee;
+
+        public final int caffeineLimit;
+
+        public CreateGuests(final int count, final Coffee favoriteCoffee, final int caffeineLimit) {
+            checkNotNull(favoriteCoffee, "Favorite coffee cannot be null");
+            this.count = count;
+            this.favoriteCoffee = favoriteCoffee;
+            this.caffeineLimit = caffeineLimit;
+        }
+
+        @Override
+        public String toString() {
+            return "CreateGuests{"
+                    + "count=" + count + ", "
+                    + "favoriteCoffee=" + favoriteCoffee + ", "
+                    + "caffeineLimit=" + caffeineLimit + "}";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (o instanceof CreateGuests) {
+                CreateGuests that = (CreateGuests) o;
+                return (this.count == that.count)
+                        && (this.favoriteCoffee.equals(that.favoriteCoffee))
+                        && (this.caffeineLimit == that.caffeineLimit);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 1;
+            h *= 1000003;
+            h ^= count;
+            h *= 1000003;
+            h ^= favoriteCoffee.hashCode();
+            h *= 1000003;
+            h ^= caffeineLimit;
+            return h;
+        }
+    }
+
+    private static final class RemainingGuests {
+
+        final CreateGuests createGuests;
+
+        final int count;
+
+        final long startedAt;
+
+        RemainingGuests(final CreateGuests createGuests, final int count, final long startedAt) {
+            this.createGuests = createGuests;
+            this.count = count;
+            this.startedAt = startedAt;
+        }
+    }
+
+    /**
+     * Simulates `count` guests in `GuestSimulator`s of `coffee-house.guest.simulator.guests-per-simulator`
+     * guests each, rather than creating an actor per guest.
+     */
+    public static final class SimulateGuests {
+
+        public final int count;
+
+        public final Coffee favoriteCoffee;
+
+        public final int caffeineLimit;
+
+        public SimulateGuests(final int count, final Coffee favoriteCoffee, final int caffeineLimit) {
+            checkNotNull(favoriteCoffee, "Favorite coffee cannot be null");
+            this.count = count;
+            this.favoriteCoffee = favoriteCoffee;
+            this.caffeineLimit = caffeineLimit;
+        }
+
+        @Override
+        public String toString() {
+            return "SimulateGuests{"
+                    + "count=" + count + ", "
+                    + "favoriteCoffee=" + favoriteCoffee + ", "
+                    + "caffeineLimit=" + caffeineLimit + "}";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (o instanceof SimulateGuests) {
+                SimulateGuests that = (SimulateGuests) o;
+                return (this.count == that.count)
+                        && (this.favoriteCoffee.equals(that.favoriteCoffee))
+                        && (this.caffeineLimit == that.caffeineLimit);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 1;
+            h *= 1000003;
+            h ^= count;
+            h *= 1000003;
+            h ^= favoriteCoffee.hashCode();
+            h *= 1000003;
+            h ^= caffeineLimit;
+            return h;
+        }
+    }
+
+    private static final class RemainingSimulatedGuests {
+
+        final SimulateGuests simulateGuests;
+
+        final int count;
+
+        final long startedAt;
+
+        RemainingSimulatedGuests(final SimulateGuests simulateGuests, final int count, final long startedAt) {
+            this.simulateGuests = simulateGuests;
+            this.count = count;
+            this.startedAt = startedAt;
+        }
+    }
+
+    /**
+     * Starts a `LoadGenerator`, which replies its `LoadGenerator.Report` to the sender once done.
+     */
+    public static final class GenerateLoad {
+
+        public final double rate;
+
+        public final FiniteDuration duration;
+
+        public final ImmutableMap<Coffee, Integer> mix;
+
+        public GenerateLoad(final double rate, final FiniteDuration duration, final ImmutableMap<Coffee, Integer> mix) {
+            checkNotNull(duration, "Duration cannot be null");
+            checkNotNull(mix, "Mix cannot be null");
+            this.rate = rate;
+            this.duration = duration;
+            this.mix = mix;
+        }
+
+        @Override
+        public String toString() {
+            return "GenerateLoad{"
+                    + "rate=" + rate + ", "
+                    + "duration=" + duration + ", "
+                    + "mix=" + mix + "}";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (o instanceof GenerateLoad) {
+                GenerateLoad that = (GenerateLoad) o;
+                return (this.rate == that.rate)
+                        && (this.duration.equals(that.duration))
+                        && (this.mix.equals(that.mix));
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 1;
+            h *= 1000003;
+            h ^= Double.hashCode(rate);
+            h *= 1000003;
+            h ^= duration.hashCode();
+            h *= 1000003;
+            h ^= mix.hashCode();
+            return h;
+        }
+    }
+
+    /**
+     * Guests arriving at `arrivedAt` (`System.nanoTime`) to order one coffee each, simulated in one
+     * `GuestSimulator` recording their latencies, whose `ActorRef` is the reply.
+     */
+    public static final class SimulateArrivals {
+
+        public final long[] arrivedAt;
+
+        public final Coffee[] favoriteCoffees;
+
+        public final LatencyHistogram latencies;
+
+        public SimulateArrivals(final long[] arrivedAt, final Coffee[] favoriteCoffees, final LatencyHistogram latencies) {
+            checkNotNull(arrivedAt, "Arrival times cannot be null");
+            checkNotNull(favoriteCoffees, "Favorite coffees cannot be null");
+            checkNotNull(latencies, "Latencies cannot be null");
+            this.arrivedAt = arrivedAt;
+            this.favoriteCoffees = favoriteCoffees;
+            this.latencies = latencies;
+        }
+
+        @Override
+        public String toString() {
+            return "SimulateArrivals{"
+                    + "arrivals=" + arrivedAt.length + "}";
+        }
+    }
+
     public static final class ApproveCoffee {
 
         public final Coffee coffee;
 
         public final ActorRef guest;
 
+        // -1 if unknown, in which case the guest is looked up by `guest`
+        public final int guestId;
+
         public ApproveCoffee(final Coffee coffee, final ActorRef guest) {
+            this(coffee, guest, -1);
+        }
+
+        public ApproveCoffee(final Coffee coffee, final ActorRef guest, final int guestId) {
             checkNotNull(coffee, "Coffee cannot be null");
             checkNotNull(guest, "Guest cannot be null");
             this.coffee = coffee;
             this.guest = guest;
+            this.guestId = guestId;
         }
 
         @Override
         public String toString() {
             return "ApproveCoffee{"
                     + "coffee=" + coffee + ", "
-                    + "guest=" + guest + "}";
+                    + "guest=" + guest + ", "
+                    + "guestId=" + guestId + "}";
         }
 
         @Override
@@ -194,7 +816,8 @@ public class CoffeeHouse extends AbstractLoggingActor {
             if (o instanceof ApproveCoffee) {
                 ApproveCoffee that = (ApproveCoffee) o;
                 return (this.coffee.equals(that.coffee))
-                        && (this.guest.equals(that.guest));
+                        && (this.guest.equals(that.guest))
+                        && (this.guestId == that.guestId);
             }
             return false;
         }
@@ -206,7 +829,168 @@ public class CoffeeHouse extends AbstractLoggingActor {
             h ^= coffee.hashCode();
             h *= 1000003;
             h ^= guest.hashCode();
+            h *= 1000003;
+            h ^= guestId;
             return h;
         }
     }
+
+    /**
+     * Sent by the waiter once a first-time order has been prepared, or given up on.
+     */
+    public static final class OrderCompleted {
+
+        // Routes the message to the bookkeeper that admitted the order; -1 if unknown
+        public final int guestId;
+
+        public OrderCompleted(final int guestId) {
+            this.guestId = guestId;
+        }
+
+        @Override
+        public String toString() {
+            return "OrderCompleted{guestId=" + guestId + "}";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (o instanceof OrderCompleted) {
+                OrderCompleted that = (OrderCompleted) o;
+                return this.guestId == that.guestId;
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 1;
+            h *= 1000003;
+            h ^= guestId;
+            return h;
+        }
+    }
+
+    private static final class StatusRequest {
+
+        final ActorRef replyTo;
+
+        final Cancellable timeout;
+
+        // Null until the first bookkeeper replies
+        AdmissionControl.Stats admission;
+
+        int replies;
+
+        StatusRequest(final ActorRef replyTo, final Cancellable timeout) {
+            this.replyTo = replyTo;
+            this.timeout = timeout;
+        }
+
+        int add(AdmissionControl.Stats stats) {
+            admission = admission == null ? stats : admission.plus(stats);
+            return ++replies;
+        }
+    }
+
+    private static final class StatusTimeout {
+
+        final long requestId;
+
+        StatusTimeout(final long requestId) {
+            this.requestId = requestId;
+        }
+    }
+
+    private static final class LogSummary {
+
+        static final LogSummary Instance = new LogSummary();
+
+        private LogSummary() {
+        }
+    }
+
+    private static final class MetricsTick {
+
+        static final MetricsTick Instance = new MetricsTick();
+
+        private MetricsTick() {
+        }
+    }
+
+    public static final class GetStatus {
+
+        public static final GetStatus Instance = new GetStatus();
+
+        private GetStatus() {
+        }
+    }
+
+    public static final class Status {
+
+        public final int guestCount;
+
+        // Latest decision per barista pool resized by a `BaristaResizer`
+        public final Map<String, BaristaResizer.Decision> baristaResizerDecisions;
+
+        // Queueing delay of all remakes per barista pool
+        public final Map<String, QueueingDelay.Sample> baristaRemakeQueueingDelays;
+
+        public final AdmissionControl.Stats admission;
+
+        // Dead letters since the coffee house opened, by the simple class name of the message
+        public final Map<String, Long> deadLetters;
+
+        // Orders of departed guests dropped before they were brewed, and coffees brewed but not served
+        public final long droppedOrders;
+
+        public final long droppedServings;
+
+        // Orders in flight, throughput, complaints and latencies, kept up to date as the orders pass
+        public final OrderMetrics.Snapshot metrics;
+
+        // Current size of each barista pool, as of its resizer's latest decision
+        public final Map<String, Integer> baristaPoolSizes;
+
+        // Share of the coffees all baristas can brew at a time that are brewing
+        public final double baristaUtilization;
+
+        public Status(final int guestCount, final Map<String, BaristaResizer.Decision> baristaResizerDecisions,
+                      final Map<String, QueueingDelay.Sample> baristaRemakeQueueingDelays,
+                      final AdmissionControl.Stats admission, final Map<String, Long> deadLetters,
+                      final long droppedOrders, final long droppedServings, final OrderMetrics.Snapshot metrics,
+                      final Map<String, Integer> baristaPoolSizes, final double baristaUtilization) {
+            checkNotNull(baristaResizerDecisions, "Barista resizer decisions cannot be null");
+            checkNotNull(baristaRemakeQueueingDelays, "Barista remake queueing delays cannot be null");
+            checkNotNull(admission, "Admission cannot be null");
+            checkNotNull(deadLetters, "Dead letters cannot be null");
+            checkNotNull(metrics, "Metrics cannot be null");
+            checkNotNull(baristaPoolSizes, "Barista pool sizes cannot be null");
+            this.guestCount = guestCount;
+            this.baristaResizerDecisions = baristaResizerDecisions;
+            this.baristaRemakeQueueingDelays = baristaRemakeQueueingDelays;
+            this.admission = admission;
+            this.deadLetters = deadLetters;
+            this.droppedOrders = droppedOrders;
+            this.droppedServings = droppedServings;
+            this.metrics = metrics;
+            this.baristaPoolSizes = baristaPoolSizes;
+            this.baristaUtilization = baristaUtilization;
+        }
+
+        @Override
+        public String toString() {
+            return "Status{"
+                    + "guestCount=" + guestCount + ", "
+                    + "baristaResizerDecisions=" + baristaResizerDecisions + ", "
+                    + "baristaRemakeQueueingDelays=" + baristaRemakeQueueingDelays + ", "
+                    + "admission=" + admission + ", "
+                    + "deadLetters=" + deadLetters + ", "
+                    + "droppedOrders=" + droppedOrders + ", "
+                    + "droppedServings=" + droppedServings + ", "
+                    + "metrics=" + metrics + ", "
+                    + "baristaPoolSizes=" + baristaPoolSizes + ", "
+                    + "baristaUtilization=" + String.format("%.2f", baristaUtilization) + "}";
+        }
+    }
 }
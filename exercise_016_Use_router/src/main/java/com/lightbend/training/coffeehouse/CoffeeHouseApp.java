@@ -9,8 +9,11 @@ import akka.actor.ActorSystem;
 import akka.actor.Props;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import akka.pattern.PatternsCS;
+import com.google.common.collect.ImmutableMap;
 import scala.concurrent.Await;
 import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -23,6 +26,8 @@ import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
 public class CoffeeHouseApp implements Terminal {
 
     public static final Pattern optPattern = Pattern.compile("(\\S+)=(\\S+)");
@@ -98,6 +103,9 @@ public class CoffeeHouseApp implements Terminal {
             if (tc instanceof TerminalCommand.Guest) {
                 TerminalCommand.Guest tcg = (TerminalCommand.Guest) tc;
                 createGuest(tcg.count, tcg.coffee, tcg.maxCoffeeCount);
+            } else if (tc instanceof TerminalCommand.Load) {
+                TerminalCommand.Load tcl = (TerminalCommand.Load) tc;
+                generateLoad(tcl.rate, tcl.duration, tcl.mix);
             } else if (tc == TerminalCommand.Status.Instance) {
                 getStatus();
             } else if (tc == TerminalCommand.Quit.Instance) {
@@ -111,11 +119,31 @@ public class CoffeeHouseApp implements Terminal {
     }
 
     protected void createGuest(int count, Coffee coffee, int maxCoffeeCount) {
-        for (int i = 0; i < count; i++) {
-            coffeeHouse.tell(new CoffeeHouse.CreateGuest(coffee, maxCoffeeCount), ActorRef.noSender());
-        }
+        coffeeHouse.tell(new CoffeeHouse.CreateGuests(count, coffee, maxCoffeeCount), ActorRef.noSender());
     }
 
     protected void getStatus() {
+        PatternsCS.ask(coffeeHouse, CoffeeHouse.GetStatus.Instance, statusTimeout()).whenComplete((status, e) -> {
+            if (e != null) log.warning("Could not get status: {}", e.getMessage());
+            else log.warning("{}", status);
+        });
+    }
+
+    /**
+     * Logs the `LoadGenerator.Report` once the run is over, which takes up to its duration plus the
+     * drain timeout.
+     */
+    protected void generateLoad(double rate, FiniteDuration duration, ImmutableMap<Coffee, Integer> mix) {
+        final long timeout = duration.toMillis() + statusTimeout()
+                + system.settings().config().getDuration("coffee-house.load.drain-timeout", MILLISECONDS);
+        log.warning("Generating load of {} guests/s for {}", rate, duration);
+        PatternsCS.ask(coffeeHouse, new CoffeeHouse.GenerateLoad(rate, duration, mix), timeout).whenComplete((report, e) -> {
+            if (e != null) log.warning("Could not generate load: {}", e.getMessage());
+            else log.warning("{}", report);
+        });
+    }
+
+    private long statusTimeout() {
+        return system.settings().config().getDuration("coffee-house.status-timeout", MILLISECONDS);
     }
 }
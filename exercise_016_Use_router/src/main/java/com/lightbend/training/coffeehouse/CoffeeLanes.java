@@ -0,0 +1,58 @@
+/**
+ * Copyright © 2014, 2015 Typesafe, Inc. All rights reserved. [http://www.typesafe.com]
+ */
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorSystem;
+import akka.dispatch.Dispatchers;
+import akka.routing.GroupBase;
+import akka.routing.NoRoutee$;
+import akka.routing.Routee;
+import akka.routing.Router;
+import akka.routing.RoutingLogic;
+import com.google.common.collect.ImmutableList;
+import scala.collection.immutable.IndexedSeq;
+
+import java.util.List;
+
+/**
+ * Routes each `PrepareCoffee` to the barista lane brewing its coffee, so long drinks cannot delay
+ * short ones. The lane paths are given in the order of `Coffee.COFFEES`.
+ */
+public class CoffeeLanes extends GroupBase {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> lanePaths;
+
+    public CoffeeLanes(final List<String> lanePaths) {
+        if (lanePaths.size() != Coffee.COFFEES.size())
+            throw new IllegalArgumentException("There must be one lane per coffee");
+        this.lanePaths = ImmutableList.copyOf(lanePaths);
+    }
+
+    @Override
+    public Iterable<String> getPaths(ActorSystem system) {
+        return lanePaths;
+    }
+
+    @Override
+    public Router createRouter(ActorSystem system) {
+        return new Router(new CoffeeRoutingLogic());
+    }
+
+    @Override
+    public String routerDispatcher() {
+        return Dispatchers.DefaultDispatcherId();
+    }
+
+    static final class CoffeeRoutingLogic implements RoutingLogic {
+
+        @Override
+        public Routee select(Object message, IndexedSeq<Routee> routees) {
+            if (message instanceof Barista.PrepareCoffee && routees.size() == Coffee.COFFEES.size())
+                return routees.apply(Coffee.COFFEES.asList().indexOf(((Barista.PrepareCoffee) message).coffee));
+            return NoRoutee$.MODULE$;
+        }
+    }
+}
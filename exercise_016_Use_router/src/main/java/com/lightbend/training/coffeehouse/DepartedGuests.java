@@ -0,0 +1,71 @@
+/**
+ * Copyright © 2014, 2015 Typesafe, Inc. All rights reserved. [http://www.typesafe.com]
+ */
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The guests that have left while their orders may still be in flight, so the waiters and baristas
+ * can drop those orders instead of brewing and serving coffees nobody drinks. Written by the
+ * `CoffeeHouse` and its bookkeepers as guests leave or are stopped, and read by all waiters and
+ * baristas; only writing takes a lock.
+ *
+ * A guest is known by its id and the uid of its `ActorRef`, as the coffee house recycles the ids of
+ * departed guests, so the last departure per id is all there is to keep: the orders of a new guest
+ * with the same id do not match its uid. As the ids are dense, that is one int per id.
+ */
+public final class DepartedGuests {
+
+    // The uid of the guest that left last by guest id, 0 for none; replaced by a larger copy as ids grow,
+    // so a reader may miss a departure just recorded
+    private volatile AtomicIntegerArray uids = new AtomicIntegerArray(16);
+
+    private final LongAdder droppedOrders = new LongAdder();
+
+    private final LongAdder droppedServings = new LongAdder();
+
+    public synchronized void depart(int guestId, ActorRef guest) {
+        if (guestId < 0) return;
+        AtomicIntegerArray uids = this.uids;
+        if (guestId >= uids.length()) {
+            final AtomicIntegerArray grown = new AtomicIntegerArray(Math.max(guestId + 1, uids.length() * 2));
+            for (int i = 0; i < uids.length(); i++) grown.lazySet(i, uids.get(i));
+            this.uids = uids = grown;
+        }
+        uids.set(guestId, guest.path().uid());
+    }
+
+    /**
+     * Whether the guest has left; always false for an unknown guest id.
+     */
+    public boolean hasDeparted(int guestId, ActorRef guest) {
+        final AtomicIntegerArray uids = this.uids;
+        return guestId >= 0 && guestId < uids.length() && uids.get(guestId) == guest.path().uid();
+    }
+
+    /**
+     * Counts an order dropped before it was brewed.
+     */
+    public void orderDropped() {
+        droppedOrders.increment();
+    }
+
+    /**
+     * Counts a coffee brewed but not served, as its guest left in the meantime.
+     */
+    public void servingDropped() {
+        droppedServings.increment();
+    }
+
+    public long droppedOrders() {
+        return droppedOrders.sum();
+    }
+
+    public long droppedServings() {
+        return droppedServings.sum();
+    }
+}
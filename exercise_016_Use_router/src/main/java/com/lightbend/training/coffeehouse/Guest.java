@@ -6,11 +6,29 @@ package com.lightbend.training.coffeehouse;
 
 import akka.actor.AbstractLoggingActor;
 import akka.actor.ActorRef;
+import akka.actor.Cancellable;
 import akka.actor.Props;
+import com.typesafe.config.Config;
+import scala.concurrent.duration.Duration;
 import scala.concurrent.duration.FiniteDuration;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
 public class Guest extends AbstractLoggingActor {
 
+    private static final String ENJOYING = "Enjoying my {} yummy {}!";
+
+    private static final String EXPECTED = "Expected a {}, but got a {}!";
+
+    private static final String GOODBYE = "Goodbye!";
+
+    private final int guestId;
+
     private final ActorRef waiter;
 
     private final Coffee favoriteCoffee;
@@ -19,34 +37,103 @@ public class Guest extends AbstractLoggingActor {
 
     private final int caffeineLimit;
 
+    // Orders placed ahead, on top of the one replacing the coffee being drunk
+    private final int prefetch;
+
+    // The coffee house's shared `GuestTimer`, or null to schedule on the system scheduler
+    private final ActorRef timer;
+
+    // Logs a sample of the messages logged for every coffee and every guest
+    private final LogSampler logSampler;
+
+    private final OrderMetrics metrics;
+
+    // When the orders still outstanding were placed, for the latency of each: a ring of `prefetch` + 1
+    // times, as a guest never has more orders outstanding, oldest at `orderedAtHead`
+    private final long[] orderedAt;
+
+    private int orderedAtHead;
+
+    private int orderedAtCount;
+
+    private final GuestTimer.Schedule scheduleCoffeeFinished;
+
+    private final GuestTimer.Schedule scheduleOrderAgain;
+
+    // Timers on the system scheduler, oldest first; as all take `finishCoffeeDuration`, that is the
+    // order they fire in
+    private final Deque<Cancellable> scheduled = new ArrayDeque<>(2);
+
     private int coffeeCount = 0;
 
+    // Coffees ordered so far, not counting orders placed again after `ComeBackLater`
+    private int orderCount = 0;
+
+    private boolean drinking;
+
+    // Coffees served while the guest was still drinking, drunk one after the other
+    private int waitingCoffees;
+
     public Guest(ActorRef waiter, Coffee favoriteCoffee, FiniteDuration finishCoffeeDuration, int caffeineLimit) {
+        this(-1, waiter, favoriteCoffee, caffeineLimit, new Settings(finishCoffeeDuration), null, LogSampler.None,
+                OrderMetrics.None);
+    }
+
+    /**
+     * @param timer the coffee house's shared `GuestTimer`, or null to schedule on the system scheduler
+     */
+    public Guest(int guestId, ActorRef waiter, Coffee favoriteCoffee, int caffeineLimit, Settings settings,
+                 ActorRef timer, LogSampler logSampler, OrderMetrics metrics) {
+        this.guestId = guestId;
         this.waiter = waiter;
         this.favoriteCoffee = favoriteCoffee;
-        this.finishCoffeeDuration = finishCoffeeDuration;
+        this.finishCoffeeDuration = settings.finishCoffeeDuration;
         this.caffeineLimit = caffeineLimit;
+        this.prefetch = settings.prefetch;
+        this.orderedAt = new long[prefetch + 1];
+        this.timer = timer;
+        this.logSampler = logSampler;
+        this.metrics = metrics;
+        this.scheduleCoffeeFinished = new GuestTimer.Schedule(finishCoffeeDuration, CoffeeFinished.Instance);
+        this.scheduleOrderAgain = new GuestTimer.Schedule(finishCoffeeDuration, OrderAgain.Instance);
+        orderCount++;
         orderFavoriteCoffee();
+        for (int i = 0; i < prefetch; i++) orderNextCoffee();
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder().
                 match(Waiter.CoffeeServed.class, coffeeServed -> coffeeServed.coffee.equals(favoriteCoffee), coffeeServed -> {
-                    coffeeCount++;
-                    log().info("Enjoying my {} yummy {}!", coffeeCount, coffeeServed.coffee);
-                    scheduleCoffeeFinished();
+                    if (orderedAtCount > 0) metrics.recordLatency(System.nanoTime() - pollOrderedAt());
+                    if (drinking) waitingCoffees++;
+                    else drinkCoffee();
                 }).
                 match(Waiter.CoffeeServed.class, coffeeServed -> {
-                    log().info("Expected a {}, but got a {}!", favoriteCoffee, coffeeServed.coffee);
-                    waiter.tell(new Waiter.Complaint(favoriteCoffee), self());
+                    if (logSampler.sample(EXPECTED)) log().info(EXPECTED, favoriteCoffee, coffeeServed.coffee);
+                    waiter.tell(new Waiter.Complaint(favoriteCoffee, guestId, self()), self());
+                }).
+                match(Waiter.ComeBackLater.class, comeBackLater -> {
+                    if (orderedAtCount > 0) pollOrderedAt();
+                    schedule(scheduleOrderAgain);
+                }).
+                match(OrderAgain.class, orderAgain -> {
+                    scheduled.poll();
+                    orderFavoriteCoffee();
                 }).
                 match(CoffeeFinished.class, coffeeFinished -> coffeeCount > this.caffeineLimit, coffeeFinished -> {
+                    scheduled.poll();
                     throw new CaffeineException();
                 }).
-                match(CoffeeFinished.class, coffeeFinished ->
-                        orderFavoriteCoffee()
-                ).build();
+                match(CoffeeFinished.class, coffeeFinished -> {
+                    scheduled.poll();
+                    drinking = false;
+                    orderNextCoffee();
+                    if (waitingCoffees > 0) {
+                        waitingCoffees--;
+                        drinkCoffee();
+                    }
+                }).build();
     }
 
     public static Props props(final ActorRef waiter, final Coffee favoriteCoffee,
@@ -55,18 +142,115 @@ public class Guest extends AbstractLoggingActor {
                 () -> new Guest(waiter, favoriteCoffee, finishCoffeeDuration, caffeineLimit));
     }
 
+    public static Props props(final int guestId, final ActorRef waiter, final Coffee favoriteCoffee,
+                              final int caffeineLimit, final Settings settings, final ActorRef timer,
+                              final LogSampler logSampler, final OrderMetrics metrics) {
+        return Props.create(Guest.class, () -> new Guest(guestId, waiter, favoriteCoffee, caffeineLimit, settings,
+                timer, logSampler, metrics));
+    }
+
+    /**
+     * A stopped guest cancels its pending timers, which would otherwise end up as dead letters.
+     */
     @Override
     public void postStop() {
-        log().info("Goodbye!");
+        if (timer != null) timer.tell(GuestTimer.Cancel.Instance, self());
+        scheduled.forEach(Cancellable::cancel);
+        if (logSampler.sample(GOODBYE)) log().info(GOODBYE);
+    }
+
+    /**
+     * Unlike a stopped guest, a restarted one keeps its timers, which fire into the new instance.
+     */
+    @Override
+    public void preRestart(Throwable reason, Optional<Object> message) {
+    }
+
+    private void drinkCoffee() {
+        drinking = true;
+        coffeeCount++;
+        if (logSampler.sample(ENJOYING)) log().info(ENJOYING, coffeeCount, favoriteCoffee);
+        scheduleCoffeeFinished();
+    }
+
+    /**
+     * Without prefetch a guest orders its next coffee once it has finished one, as long as it has not
+     * had more than its caffeine limit, and after the last one throws a `CaffeineException`. With
+     * prefetch it orders up to `prefetch` coffees ahead, but never more coffees than it would have
+     * ordered without, so it still drinks exactly `caffeineLimit` + 1 coffees before it throws.
+     */
+    private void orderNextCoffee() {
+        if (orderCount > caffeineLimit) return;
+        orderCount++;
+        orderFavoriteCoffee();
     }
 
     private void orderFavoriteCoffee() {
-        waiter.tell(new Waiter.ServeCoffee(favoriteCoffee), self());
+        // Never full, but should it be, the oldest time is dropped rather than the newest
+        if (orderedAtCount == orderedAt.length) pollOrderedAt();
+        orderedAt[(orderedAtHead + orderedAtCount) % orderedAt.length] = System.nanoTime();
+        orderedAtCount++;
+        waiter.tell(new Waiter.ServeCoffee(favoriteCoffee, guestId, self()), self());
+    }
+
+    private long pollOrderedAt() {
+        final long oldest = orderedAt[orderedAtHead];
+        orderedAtHead = (orderedAtHead + 1) % orderedAt.length;
+        orderedAtCount--;
+        return oldest;
     }
 
     private void scheduleCoffeeFinished() {
-        context().system().scheduler().scheduleOnce(finishCoffeeDuration, self(),
-                CoffeeFinished.Instance, context().dispatcher(), self());
+        schedule(scheduleCoffeeFinished);
+    }
+
+    private void schedule(GuestTimer.Schedule schedule) {
+        if (timer != null)
+            timer.tell(schedule, self());
+        else
+            scheduled.add(context().system().scheduler().scheduleOnce(finishCoffeeDuration, self(),
+                    schedule.message, context().dispatcher(), self()));
+    }
+
+    /**
+     * How a guest drinks, read from `coffee-house.guest`.
+     */
+    public static final class Settings {
+
+        public final FiniteDuration finishCoffeeDuration;
+
+        // Orders placed ahead, on top of the one replacing the coffee being drunk
+        public final int prefetch;
+
+        /**
+         * A guest ordering its next coffee only once it has finished one.
+         */
+        public Settings(final FiniteDuration finishCoffeeDuration) {
+            this(finishCoffeeDuration, 0);
+        }
+
+        private Settings(final FiniteDuration finishCoffeeDuration, final int prefetch) {
+            checkNotNull(finishCoffeeDuration, "Finish coffee duration cannot be null");
+            this.finishCoffeeDuration = finishCoffeeDuration;
+            this.prefetch = prefetch;
+        }
+
+        public static Settings fromConfig(Config config) {
+            return new Settings(
+                    Duration.create(config.getDuration("finish-coffee-duration", MILLISECONDS), MILLISECONDS),
+                    config.getInt("prefetch"));
+        }
+
+        public Settings withPrefetch(int prefetch) {
+            return new Settings(finishCoffeeDuration, prefetch);
+        }
+
+        @Override
+        public String toString() {
+            return "Settings{"
+                    + "finishCoffeeDuration=" + finishCoffeeDuration + ", "
+                    + "prefetch=" + prefetch + "}";
+        }
     }
 
     public static final class CaffeineException extends IllegalStateException {
@@ -77,6 +261,14 @@ public class Guest extends AbstractLoggingActor {
         }
     }
 
+    private static final class OrderAgain {
+
+        static final OrderAgain Instance = new OrderAgain();
+
+        private OrderAgain() {
+        }
+    }
+
     public static final class CoffeeFinished {
 
         public static final CoffeeFinished Instance = new CoffeeFinished();
@@ -0,0 +1,104 @@
+/**
+ * Copyright © 2014, 2015 Typesafe, Inc. All rights reserved. [http://www.typesafe.com]
+ */
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Hands out small numeric guest ids and reuses those of terminated guests, so the ids stay dense
+ * enough to index arrays. Looking up a guest by `ActorRef` is only needed on termination and for
+ * orders without a guest id.
+ *
+ * The guests of a `GuestSimulator` share its `ActorRef`, so they are removed by id as each of them
+ * leaves, or all at once by `removeAll` once the simulator terminates.
+ *
+ * Not thread-safe; owned by the `CoffeeHouse`.
+ */
+public final class GuestRegistry {
+
+    private ActorRef[] guests = new ActorRef[16];
+
+    private int[] freeIds = new int[16];
+
+    private int freeIdCount;
+
+    // Ids below have been handed out at least once
+    private int idLimit;
+
+    // The last id added per guest, so that of a single guest
+    private final Map<ActorRef, Integer> ids = new HashMap<>();
+
+    private int size;
+
+    /**
+     * Reserves an id for a guest about to be created; see `add`.
+     */
+    public int reserve() {
+        if (freeIdCount > 0) return freeIds[--freeIdCount];
+        if (idLimit == guests.length) guests = Arrays.copyOf(guests, idLimit * 2);
+        return idLimit++;
+    }
+
+    public void add(int id, ActorRef guest) {
+        guests[id] = guest;
+        ids.put(guest, id);
+        size++;
+    }
+
+    /**
+     * Returns the guest's id and recycles it, or -1 for an unknown guest.
+     */
+    public int remove(ActorRef guest) {
+        final Integer id = ids.get(guest);
+        if (id == null) return -1;
+        remove(id);
+        return id;
+    }
+
+    /**
+     * Recycles the id if a guest holds it; returns whether one did.
+     */
+    public boolean remove(int id) {
+        if (id < 0 || id >= idLimit || guests[id] == null) return false;
+        final ActorRef guest = guests[id];
+        guests[id] = null;
+        ids.remove(guest, id);
+        if (freeIdCount == freeIds.length) freeIds = Arrays.copyOf(freeIds, freeIdCount * 2);
+        freeIds[freeIdCount++] = id;
+        size--;
+        return true;
+    }
+
+    /**
+     * Recycles all ids the guest holds, passing each to `removed`; scans all ids, so it is meant for
+     * a terminated `GuestSimulator` rather than a single guest.
+     */
+    public void removeAll(ActorRef guest, IntConsumer removed) {
+        for (int id = 0; id < idLimit; id++) {
+            if (guest.equals(guests[id])) {
+                remove(id);
+                removed.accept(id);
+            }
+        }
+    }
+
+    /**
+     * Returns `guestId` if it still belongs to `guest`, else looks the guest up; -1 for an unknown guest.
+     */
+    public int resolve(int guestId, ActorRef guest) {
+        if (guestId >= 0 && guestId < idLimit && (guests[guestId] == guest || guest.equals(guests[guestId])))
+            return guestId;
+        final Integer id = ids.get(guest);
+        return id == null ? -1 : id;
+    }
+
+    public int size() {
+        return size;
+    }
+}
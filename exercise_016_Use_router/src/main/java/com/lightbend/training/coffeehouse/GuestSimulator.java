@@ -0,0 +1,270 @@
+/**
+ * Copyright © 2014, 2015 Typesafe, Inc. All rights reserved. [http://www.typesafe.com]
+ */
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import com.google.common.collect.ImmutableList;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Simulates many guests in one actor, each a `Guest` without prefetch, keeping their state in
+ * primitive arrays indexed alike rather than in an actor each, so a million guests fit into one
+ * JVM. The guests speak the `Waiter` protocol under their own guest id, which the waiter and the
+ * barista echo in `CoffeeServed` and `ComeBackLater` to tell them apart, as they all share the
+ * simulator's `ActorRef`.
+ *
+ * All guests take equally long to finish a coffee or to come back later, so their timers are due in
+ * the order they were started and are kept in a queue, checked every `tick`. A guest leaves by
+ * telling the parent `GuestLeft` instead of being stopped, and the simulator stops once all have
+ * left. A guest never orders more than `caffeineLimit` + 1 coffees, counting orders placed again
+ * after `ComeBackLater`, so the bookkeeper, which would stop the whole simulator, needs a limit above
+ * that.
+ *
+ * Guests arriving in a load run come with the time they arrived. The guests record how long after
+ * each order they were served, e.g. into a `LatencyHistogram`, counted from when the order was due
+ * rather than when it was sent: the arrival, or the timer firing up to a tick late, so a simulator
+ * or waiter falling behind shows in the latencies instead of hiding them.
+ */
+public class GuestSimulator extends AbstractLoggingActor {
+
+    private static final ImmutableList<Coffee> COFFEES = Coffee.COFFEES.asList();
+
+    private static final byte IDLE = 0;
+
+    private static final byte FINISHING = 1;
+
+    private static final byte COMING_BACK = 2;
+
+    private final long finishCoffeeNanos;
+
+    private final FiniteDuration tick;
+
+    private final int[] guestIds;
+
+    // Index of each guest by its id minus `minGuestId`, -1 for ids not (or no longer) simulated
+    private final int[] indexes;
+
+    private final int minGuestId;
+
+    // Index into `COFFEES`
+    private final byte[] favoriteCoffees;
+
+    private final int[] caffeineLimits;
+
+    private final int[] coffeeCounts;
+
+    private final int[] orderCounts;
+
+    private final byte[] timers;
+
+    private final long[] timersDueAt;
+
+    // When the outstanding order of each guest was due
+    private final long[] orderedAt;
+
+    // Null unless recording latencies
+    private final LongConsumer latencies;
+
+    // Indexes of the guests with a timer, in the order they are due
+    private final int[] timerQueue;
+
+    private int timerQueueHead;
+
+    private int timerQueueSize;
+
+    private int remaining;
+
+    private final ActorRef waiter;
+
+    private Cancellable ticks;
+
+    public GuestSimulator(ActorRef waiter, int[] guestIds, Coffee[] favoriteCoffees, int[] caffeineLimits,
+                          FiniteDuration finishCoffeeDuration, FiniteDuration tick) {
+        this(waiter, guestIds, favoriteCoffees, caffeineLimits, null, null, finishCoffeeDuration, tick);
+    }
+
+    /**
+     * @param arrivedAt the `System.nanoTime` each guest arrived at, or null for now
+     * @param latencies where to record the latency of each coffee served in nanoseconds, or null for nowhere
+     */
+    public GuestSimulator(ActorRef waiter, int[] guestIds, Coffee[] favoriteCoffees, int[] caffeineLimits,
+                          long[] arrivedAt, LongConsumer latencies,
+                          FiniteDuration finishCoffeeDuration, FiniteDuration tick) {
+        checkArgument(favoriteCoffees.length == guestIds.length && caffeineLimits.length == guestIds.length,
+                "Favorite coffees and caffeine limits must match guest ids");
+        checkArgument(arrivedAt == null || arrivedAt.length == guestIds.length, "Arrival times must match guest ids");
+        this.waiter = waiter;
+        this.latencies = latencies;
+        this.finishCoffeeNanos = finishCoffeeDuration.toNanos();
+        this.tick = tick;
+        final int count = guestIds.length;
+        this.guestIds = guestIds.clone();
+        this.minGuestId = Arrays.stream(guestIds).min().orElse(0);
+        this.indexes = new int[count == 0 ? 0 : Arrays.stream(guestIds).max().getAsInt() - minGuestId + 1];
+        Arrays.fill(indexes, -1);
+        this.favoriteCoffees = new byte[count];
+        this.caffeineLimits = caffeineLimits.clone();
+        this.coffeeCounts = new int[count];
+        this.orderCounts = new int[count];
+        this.timers = new byte[count];
+        this.timersDueAt = new long[count];
+        this.timerQueue = new int[count];
+        this.orderedAt = new long[count];
+        for (int i = 0; i < count; i++) {
+            indexes[guestIds[i] - minGuestId] = i;
+            this.favoriteCoffees[i] = (byte) COFFEES.indexOf(favoriteCoffees[i]);
+        }
+        this.remaining = count;
+        final long now = System.nanoTime();
+        for (int i = 0; i < count; i++) orderFavoriteCoffee(i, arrivedAt != null ? arrivedAt[i] : now);
+        if (remaining == 0) context().stop(self());
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder().
+                match(Waiter.CoffeeServed.class, coffeeServed -> {
+                    final int i = index(coffeeServed.guestId);
+                    if (i < 0) return;
+                    final Coffee favoriteCoffee = COFFEES.get(favoriteCoffees[i]);
+                    if (coffeeServed.coffee.equals(favoriteCoffee)) {
+                        coffeeCounts[i]++;
+                        if (latencies != null) latencies.accept(System.nanoTime() - orderedAt[i]);
+                        startTimer(i, FINISHING);
+                    } else {
+                        waiter.tell(new Waiter.Complaint(favoriteCoffee, guestIds[i], self()), self());
+                    }
+                }).
+                match(Waiter.ComeBackLater.class, comeBackLater -> {
+                    final int i = index(comeBackLater.guestId);
+                    if (i >= 0) startTimer(i, COMING_BACK);
+                }).
+                match(Tick.class, tick ->
+                        fireTimers(System.nanoTime())
+                ).build();
+    }
+
+    public static Props props(ActorRef waiter, int[] guestIds, Coffee[] favoriteCoffees,
+                              int[] caffeineLimits, FiniteDuration finishCoffeeDuration, FiniteDuration tick) {
+        return Props.create(GuestSimulator.class,
+                () -> new GuestSimulator(waiter, guestIds, favoriteCoffees, caffeineLimits, finishCoffeeDuration, tick));
+    }
+
+    public static Props props(ActorRef waiter, int[] guestIds, Coffee[] favoriteCoffees, int[] caffeineLimits,
+                              long[] arrivedAt, LongConsumer latencies,
+                              FiniteDuration finishCoffeeDuration, FiniteDuration tick) {
+        return Props.create(GuestSimulator.class,
+                () -> new GuestSimulator(waiter, guestIds, favoriteCoffees, caffeineLimits, arrivedAt, latencies,
+                        finishCoffeeDuration, tick));
+    }
+
+    @Override
+    public void preStart() {
+        ticks = context().system().scheduler().schedule(tick, tick, self(), Tick.Instance,
+                context().dispatcher(), self());
+    }
+
+    @Override
+    public void postStop() {
+        ticks.cancel();
+        log().debug("{} simulated guests still there", remaining);
+    }
+
+    private int index(int guestId) {
+        final int offset = guestId - minGuestId;
+        return offset < 0 || offset >= indexes.length ? -1 : indexes[offset];
+    }
+
+    private void startTimer(int i, byte timer) {
+        timers[i] = timer;
+        timersDueAt[i] = System.nanoTime() + finishCoffeeNanos;
+        // A guest has at most one timer, so the queue never holds more than all guests
+        timerQueue[(timerQueueHead + timerQueueSize++) % timerQueue.length] = i;
+    }
+
+    private void fireTimers(long now) {
+        while (timerQueueSize > 0 && timersDueAt[timerQueue[timerQueueHead]] - now <= 0) {
+            final int i = timerQueue[timerQueueHead];
+            timerQueueHead = (timerQueueHead + 1) % timerQueue.length;
+            timerQueueSize--;
+            final byte timer = timers[i];
+            timers[i] = IDLE;
+            if (timer == FINISHING && coffeeCounts[i] > caffeineLimits[i])
+                leave(i);
+            else
+                orderFavoriteCoffee(i, timersDueAt[i]);
+        }
+    }
+
+    /**
+     * Like `Guest`, but also counting the orders placed again, of which it can place no more after
+     * ordering `caffeineLimit` + 1 coffees either.
+     */
+    private void orderFavoriteCoffee(int i, long dueAt) {
+        if (orderCounts[i] > caffeineLimits[i]) {
+            leave(i);
+            return;
+        }
+        orderCounts[i]++;
+        orderedAt[i] = dueAt;
+        waiter.tell(new Waiter.ServeCoffee(COFFEES.get(favoriteCoffees[i]), guestIds[i], self()), self());
+    }
+
+    private void leave(int i) {
+        indexes[guestIds[i] - minGuestId] = -1;
+        context().parent().tell(new GuestLeft(guestIds[i]), self());
+        if (--remaining == 0) context().stop(self());
+    }
+
+    /**
+     * Sent to the parent as a simulated guest leaves, for it to recycle the guest id.
+     */
+    public static final class GuestLeft {
+
+        public final int guestId;
+
+        public GuestLeft(final int guestId) {
+            this.guestId = guestId;
+        }
+
+        @Override
+        public String toString() {
+            return "GuestLeft{guestId=" + guestId + "}";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (o instanceof GuestLeft) {
+                GuestLeft that = (GuestLeft) o;
+                return this.guestId == that.guestId;
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 1;
+            h *= 1000003;
+            h ^= guestId;
+            return h;
+        }
+    }
+
+    private static final class Tick {
+
+        static final Tick Instance = new Tick();
+
+        private Tick() {
+        }
+    }
+}
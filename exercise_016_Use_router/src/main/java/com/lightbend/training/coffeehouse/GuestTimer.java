@@ -0,0 +1,138 @@
+/**
+ * Copyright © 2014, 2015 Typesafe, Inc. All rights reserved. [http://www.typesafe.com]
+ */
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The timers of all guests, e.g. for `CoffeeFinished`, on one `TimingWheel` instead of one task per
+ * timer on the system scheduler. The wheel is advanced by a single periodic task every `tick`, and
+ * all timers due by then are fired within that one message, so a timer fires at most one tick after
+ * its deadline, plus however late the scheduler delivers the tick.
+ *
+ * A timer cannot be removed from the wheel, so a guest cancels its timers by `Cancel`: they are then
+ * dropped as they come due, until the longest delay scheduled so far has passed.
+ */
+public class GuestTimer extends AbstractLoggingActor {
+
+    private final long tickNanos;
+
+    private final long startedAt = System.nanoTime();
+
+    private final TimingWheel wheel = new TimingWheel(0);
+
+    // Guests whose timers are dropped as they come due
+    private final Set<ActorRef> cancelled = new HashSet<>();
+
+    private long longestDelayTicks;
+
+    private Cancellable ticks;
+
+    public GuestTimer(FiniteDuration tick) {
+        this.tickNanos = tick.toNanos();
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder().
+                match(Schedule.class, schedule -> {
+                    // Rounded up, so a timer never fires early
+                    final long delayTicks = (schedule.delayNanos + tickNanos - 1) / tickNanos;
+                    longestDelayTicks = Math.max(longestDelayTicks, delayTicks);
+                    wheel.add((System.nanoTime() - startedAt + schedule.delayNanos + tickNanos - 1) / tickNanos,
+                            sender(), schedule.message);
+                }).
+                match(Cancel.class, cancel -> {
+                    // All timers of the guest are due before it is forgotten, after the longest delay; counted
+                    // from now like the timers, as the wheel lags behind whenever a tick is late
+                    if (cancelled.add(sender()))
+                        wheel.add((System.nanoTime() - startedAt) / tickNanos + longestDelayTicks + 2, sender(),
+                                Forget.Instance);
+                }).
+                match(Tick.class, tick ->
+                        wheel.advance((System.nanoTime() - startedAt) / tickNanos, this::fire)
+                ).build();
+    }
+
+    public static Props props(FiniteDuration tick) {
+        return Props.create(GuestTimer.class, () -> new GuestTimer(tick)).withDispatcher("guest-timer-dispatcher");
+    }
+
+    @Override
+    public void preStart() {
+        final FiniteDuration tick = FiniteDuration.fromNanos(tickNanos);
+        ticks = context().system().scheduler().schedule(tick, tick, self(), Tick.Instance,
+                context().dispatcher(), self());
+    }
+
+    @Override
+    public void postStop() {
+        ticks.cancel();
+    }
+
+    private void fire(ActorRef guest, Object message) {
+        if (message == Forget.Instance) cancelled.remove(guest);
+        else if (cancelled.isEmpty() || !cancelled.contains(guest)) guest.tell(message, self());
+    }
+
+    /**
+     * Sends `message` back to the sender after `delay`. A guest scheduling the same message over and
+     * over again creates it once and sends it every time.
+     */
+    public static final class Schedule {
+
+        public final long delayNanos;
+
+        public final Object message;
+
+        public Schedule(final FiniteDuration delay, final Object message) {
+            checkNotNull(delay, "Delay cannot be null");
+            checkNotNull(message, "Message cannot be null");
+            this.delayNanos = delay.toNanos();
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return "Schedule{delayNanos=" + delayNanos + ", message=" + message + "}";
+        }
+    }
+
+    /**
+     * Cancels all timers the sender has scheduled so far; meant for a guest that stops, as its timers
+     * scheduled right after are dropped as well.
+     */
+    public static final class Cancel {
+
+        public static final Cancel Instance = new Cancel();
+
+        private Cancel() {
+        }
+    }
+
+    private static final class Forget {
+
+        static final Forget Instance = new Forget();
+
+        private Forget() {
+        }
+    }
+
+    private static final class Tick {
+
+        static final Tick Instance = new Tick();
+
+        private Tick() {
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/**
+ * Copyright © 2014, 2015 Typesafe, Inc. All rights reserved. [http://www.typesafe.com]
+ */
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractLoggingActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.actor.Terminated;
+import com.google.common.collect.ImmutableMap;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Lets guests arrive open loop, at `rate` per second on average for `duration`, whether or not the
+ * coffee house keeps up: the times between arrivals are drawn from an exponential distribution, so
+ * the guests arrive in a Poisson process, and every `tick` the arrivals due are handed to the coffee
+ * house in one `SimulateArrivals`, each guest ordering one coffee drawn from `mix` by its weight.
+ *
+ * The simulated guests record into a `LatencyHistogram` how long after arriving they were served,
+ * counted from their scheduled arrival rather than from when their order got sent, which corrects
+ * for coordinated omission: a coffee house or generator falling behind delays the orders, not the
+ * arrivals. Once `duration` is over and all simulators have stopped, or `drainTimeout` later at the
+ * latest, the generator replies a `Report` to `replyTo` and stops.
+ */
+public class LoadGenerator extends AbstractLoggingActor {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final ActorRef coffeeHouse;
+
+    private final ActorRef replyTo;
+
+    private final double rate;
+
+    private final FiniteDuration duration;
+
+    private final Coffee[] coffees;
+
+    // Running sums of the weights of `coffees`
+    private final int[] cumulativeWeights;
+
+    private final FiniteDuration tick;
+
+    private final long drainTimeoutNanos;
+
+    private final Random random;
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    // Simulators running the arrivals, and batches of arrivals not yet running
+    private final Set<ActorRef> simulators = new HashSet<>();
+
+    private int pendingBatches;
+
+    private long startedAt;
+
+    private long nextArrivalAt;
+
+    private long arrivals;
+
+    private long[] batch = new long[16];
+
+    private Cancellable ticks;
+
+    public LoadGenerator(ActorRef coffeeHouse, ActorRef replyTo, double rate, FiniteDuration duration,
+                         Map<Coffee, Integer> mix, FiniteDuration tick, FiniteDuration drainTimeout, Random random) {
+        checkArgument(rate > 0, "Rate must be positive");
+        this.coffeeHouse = coffeeHouse;
+        this.replyTo = replyTo;
+        this.rate = rate;
+        this.duration = duration;
+        this.coffees = mix.keySet().toArray(new Coffee[0]);
+        this.cumulativeWeights = new int[coffees.length];
+        int sum = 0;
+        for (int i = 0; i < coffees.length; i++) cumulativeWeights[i] = sum += mix.get(coffees[i]);
+        checkArgument(sum > 0, "Mix must not be empty");
+        this.tick = tick;
+        this.drainTimeoutNanos = drainTimeout.toNanos();
+        this.random = random;
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder().
+                match(Tick.class, tick ->
+                        onTick(System.nanoTime())
+                ).
+                match(ActorRef.class, simulator -> {
+                    pendingBatches--;
+                    simulators.add(simulator);
+                    context().watch(simulator);
+                }).
+                match(Terminated.class, terminated ->
+                        simulators.remove(terminated.getActor())
+                ).build();
+    }
+
+    public static Props props(ActorRef coffeeHouse, ActorRef replyTo, double rate, FiniteDuration duration,
+                              Map<Coffee, Integer> mix, FiniteDuration tick, FiniteDuration drainTimeout) {
+        return props(coffeeHouse, replyTo, rate, duration, mix, tick, drainTimeout, new Random());
+    }
+
+    public static Props props(ActorRef coffeeHouse, ActorRef replyTo, double rate, FiniteDuration duration,
+                              Map<Coffee, Integer> mix, FiniteDuration tick, FiniteDuration drainTimeout,
+                              Random random) {
+        return Props.create(LoadGenerator.class,
+                () -> new LoadGenerator(coffeeHouse, replyTo, rate, duration, mix, tick, drainTimeout, random));
+    }
+
+    @Override
+    public void preStart() {
+        startedAt = System.nanoTime();
+        nextArrivalAt = startedAt + interArrivalNanos();
+        ticks = context().system().scheduler().schedule(tick, tick, self(), Tick.Instance,
+                context().dispatcher(), self());
+    }
+
+    @Override
+    public void postStop() {
+        ticks.cancel();
+    }
+
+    private void onTick(long now) {
+        final long endAt = startedAt + duration.toNanos();
+        int size = 0;
+        while (nextArrivalAt - now <= 0 && nextArrivalAt - endAt < 0) {
+            if (size == batch.length) batch = Arrays.copyOf(batch, size * 2);
+            batch[size++] = nextArrivalAt;
+            nextArrivalAt += interArrivalNanos();
+        }
+        if (size > 0) {
+            final Coffee[] favoriteCoffees = new Coffee[size];
+            for (int i = 0; i < size; i++) favoriteCoffees[i] = drawCoffee();
+            coffeeHouse.tell(new CoffeeHouse.SimulateArrivals(Arrays.copyOf(batch, size), favoriteCoffees, latencies),
+                    self());
+            pendingBatches++;
+            arrivals += size;
+        }
+        if (now - endAt >= 0 && (pendingBatches == 0 && simulators.isEmpty() || now - endAt >= drainTimeoutNanos)) {
+            final Report report = report();
+            log().info("{}", report);
+            replyTo.tell(report, self());
+            context().stop(self());
+        }
+    }
+
+    private long interArrivalNanos() {
+        return Math.max(1, (long) (-Math.log(1 - random.nextDouble()) / rate * 1_000_000_000));
+    }
+
+    private Coffee drawCoffee() {
+        final int weight = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int i = 0;
+        while (cumulativeWeights[i] <= weight) i++;
+        return coffees[i];
+    }
+
+    private Report report() {
+        final ImmutableMap.Builder<Double, Long> percentiles = ImmutableMap.builder();
+        for (final double percentile : PERCENTILES) percentiles.put(percentile, latencies.valueAtPercentile(percentile));
+        return new Report(rate, duration, arrivals, latencies.count(), percentiles.build(), latencies.max());
+    }
+
+    /**
+     * The outcome of a load run: the guests that arrived, those served, and the latencies of the
+     * served ones in nanoseconds at the usual percentiles.
+     */
+    public static final class Report {
+
+        public final double rate;
+
+        public final FiniteDuration duration;
+
+        public final long arrivals;
+
+        public final long served;
+
+        // Latency in nanoseconds by percentile
+        public final ImmutableMap<Double, Long> percentiles;
+
+        public final long maxLatency;
+
+        public Report(final double rate, final FiniteDuration duration, final long arrivals, final long served,
+                      final ImmutableMap<Double, Long> percentiles, final long maxLatency) {
+            checkNotNull(duration, "Duration cannot be null");
+            checkNotNull(percentiles, "Percentiles cannot be null");
+            this.rate = rate;
+            this.duration = duration;
+            this.arrivals = arrivals;
+            this.served = served;
+            this.percentiles = percentiles;
+            this.maxLatency = maxLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "Report{"
+                    + "rate=" + rate + "/s, "
+                    + "duration=" + duration + ", "
+                    + "arrivals=" + arrivals + ", "
+                    + "served=" + served + ", "
+                    + LatencyHistogram.format(percentiles, maxLatency) + "}";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (o instanceof Report) {
+                Report that = (Report) o;
+                return (this.rate == that.rate)
+                        && (this.duration.equals(that.duration))
+                        && (this.arrivals == that.arrivals)
+                        && (this.served == that.served)
+                        && (this.percentiles.equals(that.percentiles))
+                        && (this.maxLatency == that.maxLatency);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 1;
+            h *= 1000003;
+            h ^= Double.hashCode(rate);
+            h *= 1000003;
+            h ^= duration.hashCode();
+            h *= 1000003;
+            h ^= Long.hashCode(arrivals);
+            h *= 1000003;
+            h ^= Long.hashCode(served);
+            h *= 1000003;
+            h ^= percentiles.hashCode();
+            h *= 1000003;
+            h ^= Long.hashCode(maxLatency);
+            return h;
+        }
+    }
+
+    private static final class Tick {
+
+        static final Tick Instance = new Tick();
+
+        private Tick() {
+        }
+    }
+}
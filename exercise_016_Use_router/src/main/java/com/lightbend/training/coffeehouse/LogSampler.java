@@ -0,0 +1,104 @@
+/**
+ * Copyright © 2014, 2015 Typesafe, Inc. All rights reserved. [http://www.typesafe.com]
+ */
+package com.lightbend.training.coffeehouse;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Decides which of the log messages logged for every coffee or guest are worth logging, per message
+ * template: one in `every`, and of those no more than `maxPerSecond` a second. Shared by all guests,
+ * waiters and bookkeepers, so a template is sampled across all of them, and asked before logging, so
+ * a message not logged is not even formatted. What was left out is summed up by `summarize`.
+ */
+public final class LogSampler {
+
+    /**
+     * Logs every message.
+     */
+    public static final LogSampler None = new LogSampler(1, 0);
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private final int every;
+
+    // 0 means no limit
+    private final int maxPerSecond;
+
+    private final Map<String, Counts> counts = new ConcurrentHashMap<>();
+
+    public LogSampler(int every, int maxPerSecond) {
+        checkArgument(every > 0, "Every must be positive");
+        checkArgument(maxPerSecond >= 0, "Max per second must not be negative");
+        this.every = every;
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    /**
+     * Counts a message with the template and tells whether to log it.
+     */
+    public boolean sample(String template) {
+        if (every == 1 && maxPerSecond == 0) return true;
+        Counts templateCounts = counts.get(template);
+        if (templateCounts == null) templateCounts = counts.computeIfAbsent(template, t -> new Counts());
+        return templateCounts.sample(System.nanoTime());
+    }
+
+    /**
+     * Hands each template with messages left out since the last summary to `summary`, with the number of
+     * messages and how many of them were logged.
+     */
+    public synchronized void summarize(Summary summary) {
+        counts.forEach((template, templateCounts) -> {
+            final long messages = templateCounts.messages.get();
+            final long logged = templateCounts.logged.get();
+            final long newMessages = messages - templateCounts.summarizedMessages;
+            final long newLogged = logged - templateCounts.summarizedLogged;
+            templateCounts.summarizedMessages = messages;
+            templateCounts.summarizedLogged = logged;
+            if (newMessages > newLogged) summary.of(template, newMessages, newLogged);
+        });
+    }
+
+    public interface Summary {
+
+        void of(String template, long messages, long logged);
+    }
+
+    private final class Counts {
+
+        final AtomicLong messages = new AtomicLong();
+
+        final AtomicLong logged = new AtomicLong();
+
+        // Only taken by one in `every` messages
+        private long secondStartedAt = System.nanoTime() - SECOND;
+
+        private int loggedInSecond;
+
+        // Guarded by `summarize`
+        long summarizedMessages;
+
+        long summarizedLogged;
+
+        boolean sample(long now) {
+            if ((messages.getAndIncrement() % every) != 0) return false;
+            if (maxPerSecond > 0) {
+                synchronized (this) {
+                    if (now - secondStartedAt >= SECOND) {
+                        secondStartedAt = now;
+                        loggedInSecond = 0;
+                    }
+                    if (loggedInSecond == maxPerSecond) return false;
+                    loggedInSecond++;
+                }
+            }
+            logged.incrementAndGet();
+            return true;
+        }
+    }
+}
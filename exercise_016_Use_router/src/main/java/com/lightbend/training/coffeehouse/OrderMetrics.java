@@ -0,0 +1,214 @@
+/**
+ * Copyright © 2014, 2015 Typesafe, Inc. All rights reserved. [http://www.typesafe.com]
+ */
+package com.lightbend.training.coffeehouse;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Counters of the orders, kept up to date by the waiters, bookkeepers, baristas and guests as orders
+ * pass through them, and read by the `CoffeeHouse` for its status without asking any of them: the
+ * orders in flight per stage, the coffees served per coffee and the complaints, as rates over the
+ * last 1, 5 and 15 minutes, and the latencies from order to serving. Shared like `DepartedGuests`,
+ * so updating is lock-free.
+ *
+ * The rates are exponentially weighted moving averages, like a load average, updated on every `tick`
+ * by the coffee house, which alone reads them. The latencies are those of the last one or two
+ * `latencyWindow`s, as the histogram is replaced every window.
+ */
+public final class OrderMetrics {
+
+    private static final double[] PERCENTILES = {50, 99, 99.9};
+
+    private static final double[] WINDOW_MINUTES = {1, 5, 15};
+
+    /**
+     * Counts nothing, for actors created on their own.
+     */
+    public static final OrderMetrics None = new OrderMetrics(false);
+
+    public enum Stage {
+        // Waiting for a bookkeeper to approve and admit the order
+        APPROVING,
+        // Approved, or a remake, and waiting for a barista to start brewing
+        WAITING_FOR_BARISTA,
+        BREWING,
+        // Prepared and waiting for the waiter to serve it
+        SERVING
+    }
+
+    private final boolean enabled;
+
+    private final Map<Stage, LongAdder> inFlight = new EnumMap<>(Stage.class);
+
+    private final ImmutableMap<Coffee, Meter> served;
+
+    private final Meter complaints = new Meter();
+
+    private volatile LatencyHistogram latencies;
+
+    private volatile LatencyHistogram previousLatencies;
+
+    private long latencyWindowStartedAt = System.nanoTime();
+
+    public OrderMetrics() {
+        this(true);
+    }
+
+    private OrderMetrics(boolean enabled) {
+        this.enabled = enabled;
+        for (final Stage stage : Stage.values()) inFlight.put(stage, new LongAdder());
+        final ImmutableMap.Builder<Coffee, Meter> served = ImmutableMap.builder();
+        for (final Coffee coffee : Coffee.COFFEES) served.put(coffee, new Meter());
+        this.served = served.build();
+        this.latencies = enabled ? new LatencyHistogram() : null;
+        this.previousLatencies = latencies;
+    }
+
+    public void enter(Stage stage) {
+        if (enabled) inFlight.get(stage).increment();
+    }
+
+    public void leave(Stage stage) {
+        if (enabled) inFlight.get(stage).decrement();
+    }
+
+    public void move(Stage from, Stage to) {
+        leave(from);
+        enter(to);
+    }
+
+    public void served(Coffee coffee) {
+        if (enabled) served.get(coffee).count.increment();
+    }
+
+    public void complained() {
+        if (enabled) complaints.count.increment();
+    }
+
+    /**
+     * Records the time from a guest's order until it was served its coffee.
+     */
+    public void recordLatency(long nanos) {
+        if (enabled) latencies.record(nanos);
+    }
+
+    /**
+     * Updates the rates as of `now`, `tickNanos` after the last tick, and starts a new latency window
+     * once `latencyWindowNanos` have passed; only called by the coffee house.
+     */
+    public void tick(long now, long tickNanos, long latencyWindowNanos) {
+        if (!enabled) return;
+        served.values().forEach(meter -> meter.tick(tickNanos));
+        complaints.tick(tickNanos);
+        if (now - latencyWindowStartedAt >= latencyWindowNanos) {
+            latencyWindowStartedAt = now;
+            previousLatencies = latencies;
+            latencies = new LatencyHistogram();
+        }
+    }
+
+    public Snapshot snapshot() {
+        final ImmutableMap.Builder<Stage, Long> inFlight = ImmutableMap.builder();
+        this.inFlight.forEach((stage, count) -> inFlight.put(stage, count.sum()));
+        final ImmutableMap.Builder<Coffee, Rates> throughput = ImmutableMap.builder();
+        served.forEach((coffee, meter) -> throughput.put(coffee, meter.rates()));
+        final ImmutableMap.Builder<Double, Long> percentiles = ImmutableMap.builder();
+        long maxLatency = 0;
+        if (enabled) {
+            final LatencyHistogram latencies = new LatencyHistogram();
+            latencies.add(this.latencies);
+            if (previousLatencies != this.latencies) latencies.add(previousLatencies);
+            for (final double percentile : PERCENTILES)
+                percentiles.put(percentile, latencies.valueAtPercentile(percentile));
+            maxLatency = latencies.max();
+        }
+        return new Snapshot(inFlight.build(), throughput.build(), complaints.rates(), percentiles.build(), maxLatency);
+    }
+
+    /**
+     * Events per second over the last 1, 5 and 15 minutes.
+     */
+    public static final class Rates {
+
+        public final double oneMinute;
+
+        public final double fiveMinutes;
+
+        public final double fifteenMinutes;
+
+        public Rates(final double oneMinute, final double fiveMinutes, final double fifteenMinutes) {
+            this.oneMinute = oneMinute;
+            this.fiveMinutes = fiveMinutes;
+            this.fifteenMinutes = fifteenMinutes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.2f/%.2f/%.2f per s", oneMinute, fiveMinutes, fifteenMinutes);
+        }
+    }
+
+    public static final class Snapshot {
+
+        public final ImmutableMap<Stage, Long> inFlight;
+
+        // Coffees served per second
+        public final ImmutableMap<Coffee, Rates> throughput;
+
+        public final Rates complaints;
+
+        // Latency in nanoseconds by percentile
+        public final ImmutableMap<Double, Long> latencies;
+
+        public final long maxLatency;
+
+        public Snapshot(final ImmutableMap<Stage, Long> inFlight, final ImmutableMap<Coffee, Rates> throughput,
+                        final Rates complaints, final ImmutableMap<Double, Long> latencies, final long maxLatency) {
+            checkNotNull(inFlight, "In flight cannot be null");
+            checkNotNull(throughput, "Throughput cannot be null");
+            checkNotNull(complaints, "Complaints cannot be null");
+            checkNotNull(latencies, "Latencies cannot be null");
+            this.inFlight = inFlight;
+            this.throughput = throughput;
+            this.complaints = complaints;
+            this.latencies = latencies;
+            this.maxLatency = maxLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{"
+                    + "inFlight=" + inFlight + ", "
+                    + "throughput=" + throughput + ", "
+                    + "complaints=" + complaints + ", "
+                    + "latencies={" + LatencyHistogram.format(latencies, maxLatency) + "}}";
+        }
+    }
+
+    private static final class Meter {
+
+        final LongAdder count = new LongAdder();
+
+        // Per second, by `WINDOW_MINUTES`
+        private final double[] rates = new double[WINDOW_MINUTES.length];
+
+        void tick(long tickNanos) {
+            final double rate = count.sumThenReset() * 1e9 / tickNanos;
+            for (int i = 0; i < rates.length; i++) {
+                final double alpha = 1 - Math.exp(-tickNanos / (WINDOW_MINUTES[i] * 60e9));
+                rates[i] += alpha * (rate - rates[i]);
+            }
+        }
+
+        Rates rates() {
+            return new Rates(rates[0], rates[1], rates[2]);
+        }
+    }
+}
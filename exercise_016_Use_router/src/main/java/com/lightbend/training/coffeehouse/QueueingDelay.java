@@ -0,0 +1,86 @@
+/**
+ * Copyright © 2014, 2015 Typesafe, Inc. All rights reserved. [http://www.typesafe.com]
+ */
+package com.lightbend.training.coffeehouse;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Time a `PrepareCoffee` spends waiting between being enqueued and a barista starting to brew it.
+ * Shared by all baristas of a pool, so recording is lock-free.
+ */
+public final class QueueingDelay {
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    // Remakes are also tracked since startup, as their guests have already waited a full cycle
+    private final LongAdder remakeCount = new LongAdder();
+
+    private final LongAdder remakeTotalNanos = new LongAdder();
+
+    private final AtomicLong remakeMaxNanos = new AtomicLong();
+
+    public void record(long delayNanos) {
+        count.increment();
+        totalNanos.add(delayNanos);
+        updateMax(maxNanos, delayNanos);
+    }
+
+    public void recordRemake(long delayNanos) {
+        record(delayNanos);
+        remakeCount.increment();
+        remakeTotalNanos.add(delayNanos);
+        updateMax(remakeMaxNanos, delayNanos);
+    }
+
+    /**
+     * Returns the delays recorded since the previous call and starts a new window.
+     */
+    public Sample sampleAndReset() {
+        return new Sample(count.sumThenReset(), totalNanos.sumThenReset(), maxNanos.getAndSet(0));
+    }
+
+    /**
+     * Returns the delays of all remakes recorded so far.
+     */
+    public Sample remakes() {
+        return new Sample(remakeCount.sum(), remakeTotalNanos.sum(), remakeMaxNanos.get());
+    }
+
+    private static void updateMax(AtomicLong maxNanos, long delayNanos) {
+        long max;
+        do {
+            max = maxNanos.get();
+        } while (delayNanos > max && !maxNanos.compareAndSet(max, delayNanos));
+    }
+
+    public static final class Sample {
+
+        public final long count;
+
+        public final long meanMillis;
+
+        public final long maxMillis;
+
+        Sample(final long count, final long totalNanos, final long maxNanos) {
+            this.count = count;
+            this.meanMillis = count == 0 ? 0 : NANOSECONDS.toMillis(totalNanos / count);
+            this.maxMillis = NANOSECONDS.toMillis(maxNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "Sample{"
+                    + "count=" + count + ", "
+                    + "meanMillis=" + meanMillis + ", "
+                    + "maxMillis=" + maxMillis + "}";
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright © 2014, 2015 Typesafe, Inc. All rights reserved. [http://www.typesafe.com]
+ */
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractLoggingActor;
+import akka.actor.Props;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Writes the snapshots encoded by a `Bookkeeper` to disk on the `snapshot-dispatcher`, so the
+ * bookkeeper does not block on file I/O, and hands each buffer back once it has been written. Once a
+ * snapshot is on disk, the journal segments the oldest retained snapshot covers are deleted, too.
+ */
+public class SnapshotWriter extends AbstractLoggingActor {
+
+    private final File dir;
+
+    private final String name;
+
+    private final int retention;
+
+    public SnapshotWriter(File dir, String name, int retention) {
+        this.dir = dir;
+        this.name = name;
+        this.retention = retention;
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder().
+                match(WriteSnapshot.class, writeSnapshot -> {
+                    try {
+                        CaffeineSnapshot.write(dir, name, writeSnapshot.buffer, retention);
+                        final List<File> snapshots = CaffeineSnapshot.list(dir, name);
+                        CaffeineJournal.truncate(dir, name,
+                                CaffeineSnapshot.position(snapshots.get(snapshots.size() - 1)));
+                    } catch (IOException e) {
+                        log().error(e, "Cannot write snapshot of {}", name);
+                    }
+                    // Even a failed write frees the buffer for the next snapshot
+                    sender().tell(new SnapshotWritten(writeSnapshot.buffer), self());
+                }).build();
+    }
+
+    public static Props props(File dir, String name, int retention) {
+        return Props.create(SnapshotWriter.class, () -> new SnapshotWriter(dir, name, retention)).
+                withDispatcher("snapshot-dispatcher");
+    }
+
+    /**
+     * The sender must not touch `buffer` until it gets it back with `SnapshotWritten`.
+     */
+    public static final class WriteSnapshot {
+
+        public final ByteBuffer buffer;
+
+        public WriteSnapshot(final ByteBuffer buffer) {
+            checkNotNull(buffer, "Buffer cannot be null");
+            this.buffer = buffer;
+        }
+
+        @Override
+        public String toString() {
+            return "WriteSnapshot{buffer=" + buffer + "}";
+        }
+    }
+
+    public static final class SnapshotWritten {
+
+        public final ByteBuffer buffer;
+
+        public SnapshotWritten(final ByteBuffer buffer) {
+            checkNotNull(buffer, "Buffer cannot be null");
+            this.buffer = buffer;
+        }
+
+        @Override
+        public String toString() {
+            return "SnapshotWritten{buffer=" + buffer + "}";
+        }
+    }
+}
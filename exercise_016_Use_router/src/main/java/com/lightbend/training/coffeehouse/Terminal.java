@@ -3,12 +3,25 @@
  */
 package com.lightbend.training.coffeehouse;
 
+import com.google.common.collect.ImmutableMap;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static java.util.concurrent.TimeUnit.SECONDS;
+
 public interface Terminal {
 
     Pattern createGuestPattern = Pattern.compile("(\\d+)?\\s*(?:guest|g)\\s*(A|a|M|m|C|c)?\\s*(\\d+)?");
+    // e.g. `load rate=500/s duration=60s mix=a:50,c:30,m:20`; every option may be left out
+    Pattern loadPattern = Pattern.compile("load((?:\\s+\\S+)*)\\s*");
+    Pattern loadRatePattern = Pattern.compile("rate=(\\d+(?:\\.\\d+)?)(?:/s)?");
+    Pattern loadDurationPattern = Pattern.compile("duration=(\\d+[a-z]+)");
+    Pattern loadMixPattern = Pattern.compile("mix=((?:[AaMmCc]:\\d+,?)+)");
+    double defaultLoadRate = 100;
+    FiniteDuration defaultLoadDuration = Duration.create(10, SECONDS);
     Pattern getStatusPattern = Pattern.compile("status|s");
     Pattern quitPattern = Pattern.compile("quit|q");
 
@@ -29,6 +42,46 @@ public interface Terminal {
 
             return new TerminalCommand.Guest(count, coffee, maxCoffeeCount);
         }
+        final Matcher loadMatcher = loadPattern.matcher(s);
+        if (loadMatcher.matches()) {
+            double rate = defaultLoadRate;
+            FiniteDuration duration = defaultLoadDuration;
+            ImmutableMap.Builder<Coffee, Integer> mix = null;
+            for (final String option : loadMatcher.group(1).trim().split("\\s+")) {
+                if (option.isEmpty()) continue;
+                final Matcher rateMatcher = loadRatePattern.matcher(option);
+                final Matcher durationMatcher = loadDurationPattern.matcher(option);
+                final Matcher mixMatcher = loadMixPattern.matcher(option);
+                if (rateMatcher.matches()) {
+                    rate = Double.parseDouble(rateMatcher.group(1));
+                } else if (durationMatcher.matches()) {
+                    final Duration parsed;
+                    try {
+                        parsed = Duration.create(durationMatcher.group(1));
+                    } catch (NumberFormatException e) {
+                        return new TerminalCommand.Unknown(s);
+                    }
+                    duration = (FiniteDuration) parsed;
+                } else if (mixMatcher.matches()) {
+                    mix = ImmutableMap.builder();
+                    for (final String entry : mixMatcher.group(1).split(",")) {
+                        final String[] coffeeAndWeight = entry.split(":");
+                        mix.put(Coffee.order(coffeeAndWeight[0]), Integer.parseInt(coffeeAndWeight[1]));
+                    }
+                } else {
+                    return new TerminalCommand.Unknown(s);
+                }
+            }
+            if (mix == null) {
+                mix = ImmutableMap.builder();
+                for (final Coffee coffee : Coffee.COFFEES) mix.put(coffee, 1);
+            }
+            try {
+                return new TerminalCommand.Load(rate, duration, mix.build());
+            } catch (IllegalArgumentException e) {
+                return new TerminalCommand.Unknown(s);
+            }
+        }
         if (getStatusPattern.matcher(s).matches()) return TerminalCommand.Status.Instance;
         if (quitPattern.matcher(s).matches()) return TerminalCommand.Quit.Instance;
         return new TerminalCommand.Unknown(s);
@@ -3,8 +3,12 @@
  */
 package com.lightbend.training.coffeehouse;
 
+import com.google.common.collect.ImmutableMap;
+import scala.concurrent.duration.FiniteDuration;
+
 import java.io.Serializable;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public interface TerminalCommand extends Serializable {
@@ -62,6 +66,64 @@ public interface TerminalCommand extends Serializable {
         }
     }
 
+    /**
+     * Lets guests arrive at `rate` per second on average for `duration`, each ordering one coffee
+     * drawn from `mix` by its weight.
+     */
+    final class Load implements TerminalCommand {
+
+        private static final long serialVersionUID = 1L;
+
+        public final double rate;
+
+        public final FiniteDuration duration;
+
+        public final ImmutableMap<Coffee, Integer> mix;
+
+        public Load(final double rate, final FiniteDuration duration, final ImmutableMap<Coffee, Integer> mix) {
+            checkArgument(rate > 0, "Rate must be positive");
+            checkNotNull(duration, "Duration cannot be null");
+            checkNotNull(mix, "Mix cannot be null");
+            checkArgument(mix.values().stream().mapToInt(Integer::intValue).sum() > 0, "Mix must not be empty");
+            this.rate = rate;
+            this.duration = duration;
+            this.mix = mix;
+        }
+
+        @Override
+        public String toString() {
+            return "Load{"
+                    + "rate=" + rate + ", "
+                    + "duration=" + duration + ", "
+                    + "mix=" + mix
+                    + "}";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (o instanceof Load) {
+                Load that = (Load) o;
+                return (this.rate == that.rate)
+                        && (this.duration.equals(that.duration))
+                        && (this.mix.equals(that.mix));
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 1;
+            h *= 1000003;
+            h ^= Double.hashCode(rate);
+            h *= 1000003;
+            h ^= duration.hashCode();
+            h *= 1000003;
+            h ^= mix.hashCode();
+            return h;
+        }
+    }
+
     final class Status implements TerminalCommand {
 
         public static final Status Instance = new Status();
@@ -0,0 +1,126 @@
+/**
+ * Copyright © 2014, 2015 Typesafe, Inc. All rights reserved. [http://www.typesafe.com]
+ */
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * A hierarchical timing wheel of messages to send at a given tick. Each of the `LEVELS` wheels has 64
+ * buckets, a bucket of level n spanning 64^n ticks, so a timer is added and fired in constant time no
+ * matter how many are pending. Whenever a bucket of a higher level comes due, its timers are spread
+ * over the lower levels, until they are fired with the rest of their bucket of level 0.
+ *
+ * Buckets keep their timers in arrays that are reused once fired, so a timer allocates nothing.
+ *
+ * Not thread-safe; owned by a single actor.
+ */
+public final class TimingWheel {
+
+    static final int LEVELS = 6;
+
+    private static final int SLOT_BITS = 6;
+
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    // The last tick the wheel can hold, counting from zero; later timers fire then. At 10 ms per tick
+    // that is some 20 years
+    static final long MAX_TICK = (1L << (LEVELS * SLOT_BITS)) - 1;
+
+    private final Bucket[] buckets = new Bucket[LEVELS * SLOTS];
+
+    private long currentTick;
+
+    private int size;
+
+    public TimingWheel(long currentTick) {
+        if (currentTick < 0 || currentTick >= MAX_TICK) throw new IllegalArgumentException("Tick out of range");
+        this.currentTick = currentTick;
+        for (int i = 0; i < buckets.length; i++) buckets[i] = new Bucket();
+    }
+
+    /**
+     * Adds a timer sending `message` to `target` at `tick`; one that is already due fires with the
+     * next tick.
+     */
+    public void add(long tick, ActorRef target, Object message) {
+        insert(Math.min(Math.max(tick, currentTick + 1), MAX_TICK), target, message);
+        size++;
+    }
+
+    /**
+     * Moves on to `tick`, passing all timers due by then to `fire`.
+     */
+    public void advance(long tick, BiConsumer<ActorRef, Object> fire) {
+        while (currentTick < tick) {
+            currentTick++;
+            for (int level = LEVELS - 1; level > 0; level--)
+                if ((currentTick & ((1L << (level * SLOT_BITS)) - 1)) == 0) cascade(bucket(level, currentTick));
+            final Bucket due = bucket(0, currentTick);
+            size -= due.size;
+            for (int i = 0; i < due.size; i++) fire.accept(due.targets[i], due.messages[i]);
+            due.clear();
+        }
+    }
+
+    public long currentTick() {
+        return currentTick;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void insert(long tick, ActorRef target, Object message) {
+        // The highest digit in which the tick differs from the current one picks the level
+        final long differing = tick ^ currentTick;
+        final int level = differing == 0 ? 0 : (63 - Long.numberOfLeadingZeros(differing)) / SLOT_BITS;
+        bucket(level, tick).add(tick, target, message);
+    }
+
+    private void cascade(Bucket bucket) {
+        for (int i = 0; i < bucket.size; i++) {
+            final long tick = bucket.ticks[i];
+            // Goes to the bucket of level 0 due right now if it is due at the current tick
+            insert(tick, bucket.targets[i], bucket.messages[i]);
+        }
+        bucket.clear();
+    }
+
+    private Bucket bucket(int level, long tick) {
+        return buckets[level * SLOTS + (int) ((tick >>> (level * SLOT_BITS)) & (SLOTS - 1))];
+    }
+
+    private static final class Bucket {
+
+        long[] ticks = new long[0];
+
+        ActorRef[] targets = new ActorRef[0];
+
+        Object[] messages = new Object[0];
+
+        int size;
+
+        void add(long tick, ActorRef target, Object message) {
+            if (size == ticks.length) {
+                final int length = Math.max(4, size * 2);
+                ticks = Arrays.copyOf(ticks, length);
+                targets = Arrays.copyOf(targets, length);
+                messages = Arrays.copyOf(messages, length);
+            }
+            ticks[size] = tick;
+            targets[size] = target;
+            messages[size] = message;
+            size++;
+        }
+
+        void clear() {
+            Arrays.fill(targets, 0, size, null);
+            Arrays.fill(messages, 0, size, null);
+            size = 0;
+        }
+    }
+}
@@ -7,12 +7,23 @@ package com.lightbend.training.coffeehouse;
 import akka.actor.AbstractLoggingActor;
 import akka.actor.ActorRef;
 import akka.actor.Props;
+import akka.routing.ConsistentHashingRouter;
+import com.typesafe.config.Config;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 public class Waiter extends AbstractLoggingActor {
 
-    private ActorRef coffeeHouse;
+    private static final String TOO_BUSY = "Sorry, {}, but we are too busy right now.";
+
+    // Approves orders and accounts for completed ones: the coffee house or its bookkeepers
+    private ActorRef bookkeeper;
 
     private ActorRef barista;
 
@@ -20,33 +31,200 @@ public class Waiter extends AbstractLoggingActor {
 
     private int complaintCount;
 
+    // Orders the baristas were too busy to take, retried when a coffee is prepared or after `backlogRetryInterval`
+    private final Deque<Barista.PrepareCoffee> backlog = new ArrayDeque<>();
+
+    private final int maxBacklog;
+
+    private final FiniteDuration backlogRetryInterval;
+
+    private boolean backlogRetryScheduled;
+
+    // Coffees of guests that have left are not served
+    private final DepartedGuests departedGuests;
+
+    private final LogSampler logSampler;
+
+    private final OrderMetrics metrics;
+
+    // Unspent approvals are returned to the bookkeepers when the waiter stops or restarts
+    private final CaffeineLeases leases = new CaffeineLeases();
 
-    public Waiter(ActorRef coffeeHouse, ActorRef barista, int maxComplaintCount) {
-        this.coffeeHouse = coffeeHouse;
+    public Waiter(ActorRef bookkeeper, ActorRef barista, int maxComplaintCount) {
+        this(bookkeeper, barista, new Settings(maxComplaintCount), new DepartedGuests(), LogSampler.None,
+                OrderMetrics.None);
+    }
+
+    public Waiter(ActorRef bookkeeper, ActorRef barista, Settings settings, DepartedGuests departedGuests,
+                  LogSampler logSampler, OrderMetrics metrics) {
+        this.bookkeeper = bookkeeper;
         this.barista = barista;
-        this.maxComplaintCount = maxComplaintCount;
+        this.maxComplaintCount = settings.maxComplaintCount;
+        this.maxBacklog = settings.maxBacklog;
+        this.backlogRetryInterval = settings.backlogRetryInterval;
+        this.departedGuests = departedGuests;
+        this.logSampler = logSampler;
+        this.metrics = metrics;
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder().
-                match(ServeCoffee.class, serveCoffee ->
-                        this.coffeeHouse.tell(new CoffeeHouse.ApproveCoffee(serveCoffee.coffee, sender()), self())
+                match(ServeCoffee.class, serveCoffee -> {
+                    if (leases.spend(serveCoffee.guestId, sender())) {
+                        metrics.enter(OrderMetrics.Stage.WAITING_FOR_BARISTA);
+                        barista.tell(new Barista.PrepareCoffee(serveCoffee.coffee, sender(), false, serveCoffee.guestId,
+                                true, 0), self());
+                    } else {
+                        metrics.enter(OrderMetrics.Stage.APPROVING);
+                        bookkeeper.tell(new CoffeeHouse.ApproveCoffee(serveCoffee.coffee, sender(), serveCoffee.guestId), self());
+                    }
+                }).
+                match(Lease.class, lease ->
+                        leases.grant(lease.guestId, lease.guest, lease.approvals)
+                ).
+                match(Barista.CoffeePrepared.class, coffeePrepared -> {
+                    metrics.leave(OrderMetrics.Stage.SERVING);
+                    if (departedGuests.hasDeparted(coffeePrepared.guestId, coffeePrepared.guest)) {
+                        departedGuests.servingDropped();
+                    } else {
+                        coffeePrepared.guest.tell(new CoffeeServed(coffeePrepared.coffee, coffeePrepared.guestId), self());
+                        metrics.served(coffeePrepared.coffee);
+                    }
+                    orderCompleted(coffeePrepared.remake || coffeePrepared.leased, coffeePrepared.guestId);
+                }).
+                match(Barista.OrderDropped.class, orderDropped ->
+                        orderCompleted(orderDropped.prepareCoffee.remake || orderDropped.prepareCoffee.leased,
+                                orderDropped.prepareCoffee.guestId)
                 ).
-                match(Barista.CoffeePrepared.class, coffeePrepared ->
-                        coffeePrepared.guest.tell(new CoffeeServed(coffeePrepared.coffee), self())
+                match(Barista.OrderServed.class, orderServed ->
+                        orderCompleted(orderServed.prepareCoffee.remake || orderServed.prepareCoffee.leased,
+                                orderServed.prepareCoffee.guestId)
                 ).
+                match(Barista.Busy.class, busy -> backlog.size() < maxBacklog, busy -> {
+                    backlog.add(busy.prepareCoffee);
+                    scheduleBacklogRetry();
+                }).
+                match(Barista.Busy.class, busy -> {
+                    metrics.leave(OrderMetrics.Stage.WAITING_FOR_BARISTA);
+                    if (departedGuests.hasDeparted(busy.prepareCoffee.guestId, busy.prepareCoffee.guest)) {
+                        departedGuests.orderDropped();
+                    } else {
+                        if (logSampler.sample(TOO_BUSY)) log().info(TOO_BUSY, busy.prepareCoffee.guest.path().name());
+                        busy.prepareCoffee.guest.tell(new ComeBackLater(busy.prepareCoffee.guestId), self());
+                    }
+                    if (!busy.prepareCoffee.remake && !busy.prepareCoffee.leased)
+                        bookkeeper.tell(new CoffeeHouse.OrderCompleted(busy.prepareCoffee.guestId), self());
+                }).
+                match(RetryBacklog.class, retryBacklog -> {
+                    backlogRetryScheduled = false;
+                    while (!backlog.isEmpty()) barista.tell(backlog.poll(), self());
+                }).
                 match(Complaint.class, complaint -> complaintCount == this.maxComplaintCount, complaint -> {
-                    throw new FrustratedException(complaint.coffee, sender());
+                    // The coffee house has it remade
+                    metrics.complained();
+                    throw new FrustratedException(complaint.coffee, sender(), self(), complaint.guestId);
                 }).
                 match(Complaint.class, complaint -> {
                     complaintCount++;
-                    this.barista.tell(new Barista.PrepareCoffee(complaint.coffee, sender()), self());
+                    metrics.complained();
+                    metrics.enter(OrderMetrics.Stage.WAITING_FOR_BARISTA);
+                    this.barista.tell(new Barista.PrepareCoffee(complaint.coffee, sender(), true, complaint.guestId,
+                            false, 0), self());
                 }).build();
     }
 
-    public static Props props(ActorRef coffeeHouse, ActorRef barista, int maxComplaintCount) {
-        return Props.create(Waiter.class, () -> new Waiter(coffeeHouse, barista, maxComplaintCount));
+    public static Props props(ActorRef bookkeeper, ActorRef barista, int maxComplaintCount) {
+        return Props.create(Waiter.class, () -> new Waiter(bookkeeper, barista, maxComplaintCount));
+    }
+
+    public static Props props(ActorRef bookkeeper, ActorRef barista, Settings settings,
+                              DepartedGuests departedGuests, LogSampler logSampler, OrderMetrics metrics) {
+        return Props.create(Waiter.class,
+                () -> new Waiter(bookkeeper, barista, settings, departedGuests, logSampler, metrics));
+    }
+
+    /**
+     * A restarted waiter starts with an empty backlog, so the orders in it are tried once more; any the
+     * baristas still cannot take come back to the new instance as `Busy`. It starts without leases, too,
+     * so their unspent approvals go back to the bookkeepers, which counted them when granting them.
+     */
+    @Override
+    public void postStop() {
+        backlog.forEach(prepareCoffee -> barista.tell(prepareCoffee, self()));
+        leases.drain((guestId, guest, approvals) ->
+                bookkeeper.tell(new Bookkeeper.ReturnLease(guestId, guest, approvals), self()));
+    }
+
+    /**
+     * A string, which the router hashes as is, rather than the `ActorRef`, which it would serialize
+     * first. The guest id comes first, as the guests of a `GuestSimulator` share one `ActorRef`;
+     * messages without either all go to the same waiter.
+     */
+    static String guestHashKey(int guestId, ActorRef guest) {
+        if (guestId >= 0) return Integer.toString(guestId);
+        return guest == null ? "" : "uid-" + guest.path().uid();
+    }
+
+    /**
+     * Reports a prepared or dropped order the bookkeepers admitted as completed, and makes room for an
+     * order of the backlog. Remakes and orders approved by a lease were never admitted.
+     */
+    private void orderCompleted(boolean notAdmitted, int guestId) {
+        if (!notAdmitted)
+            bookkeeper.tell(new CoffeeHouse.OrderCompleted(guestId), self());
+        if (!backlog.isEmpty()) barista.tell(backlog.poll(), self());
+    }
+
+    private void scheduleBacklogRetry() {
+        if (backlogRetryScheduled) return;
+        backlogRetryScheduled = true;
+        context().system().scheduler().scheduleOnce(backlogRetryInterval, self(),
+                RetryBacklog.Instance, context().dispatcher(), self());
+    }
+
+    /**
+     * How a waiter serves, read from `coffee-house.waiter`.
+     */
+    public static final class Settings {
+
+        public final int maxComplaintCount;
+
+        // Orders rejected as `Busy` held for a retry; 0 means none
+        public final int maxBacklog;
+
+        public final FiniteDuration backlogRetryInterval;
+
+        /**
+         * A waiter without a backlog, passing every `Busy` on to the guest.
+         */
+        public Settings(final int maxComplaintCount) {
+            this(maxComplaintCount, 0, Duration.Zero());
+        }
+
+        private Settings(final int maxComplaintCount, final int maxBacklog, final FiniteDuration backlogRetryInterval) {
+            checkNotNull(backlogRetryInterval, "Backlog retry interval cannot be null");
+            this.maxComplaintCount = maxComplaintCount;
+            this.maxBacklog = maxBacklog;
+            this.backlogRetryInterval = backlogRetryInterval;
+        }
+
+        public static Settings fromConfig(Config config) {
+            return new Settings(config.getInt("max-complaint-count"), config.getInt("max-backlog"),
+                    Duration.create(config.getDuration("backlog-retry-interval", MILLISECONDS), MILLISECONDS));
+        }
+
+        public Settings withBacklog(int maxBacklog, FiniteDuration backlogRetryInterval) {
+            return new Settings(maxComplaintCount, maxBacklog, backlogRetryInterval);
+        }
+
+        @Override
+        public String toString() {
+            return "Settings{"
+                    + "maxComplaintCount=" + maxComplaintCount + ", "
+                    + "maxBacklog=" + maxBacklog + ", "
+                    + "backlogRetryInterval=" + backlogRetryInterval + "}";
+        }
     }
 
     public static final class FrustratedException extends IllegalStateException {
@@ -56,25 +234,154 @@ public class Waiter extends AbstractLoggingActor {
 
         public final ActorRef guest;
 
+        // The frustrated waiter, for a supervisor that is not its parent to remake the coffee on its behalf
+        public final ActorRef waiter;
+
+        public final int guestId;
+
         public FrustratedException(final Coffee coffee, final ActorRef guest) {
+            this(coffee, guest, null, -1);
+        }
+
+        public FrustratedException(final Coffee coffee, final ActorRef guest, final ActorRef waiter, final int guestId) {
             super("Too many complaints!");
             this.coffee = coffee;
             this.guest = guest;
+            this.waiter = waiter;
+            this.guestId = guestId;
+        }
+    }
+
+    /**
+     * Approvals the waiter may spend on the guest's next orders without asking for them.
+     */
+    public static final class Lease {
+
+        public final int guestId;
+
+        public final ActorRef guest;
+
+        public final int approvals;
+
+        public Lease(final int guestId, final ActorRef guest, final int approvals) {
+            checkNotNull(guest, "Guest cannot be null");
+            this.guestId = guestId;
+            this.guest = guest;
+            this.approvals = approvals;
+        }
+
+        @Override
+        public String toString() {
+            return "Lease{"
+                    + "guestId=" + guestId + ", "
+                    + "guest=" + guest + ", "
+                    + "approvals=" + approvals + "}";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (o instanceof Lease) {
+                Lease that = (Lease) o;
+                return (this.guestId == that.guestId)
+                        && (this.guest.equals(that.guest))
+                        && (this.approvals == that.approvals);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 1;
+            h *= 1000003;
+            h ^= guestId;
+            h *= 1000003;
+            h ^= guest.hashCode();
+            h *= 1000003;
+            h ^= approvals;
+            return h;
         }
     }
 
-    public static final class ServeCoffee {
+    public static final class ComeBackLater {
+
+        public static final ComeBackLater Instance = new ComeBackLater(-1);
+
+        // Tells the guests of a `GuestSimulator` apart, -1 if unknown
+        public final int guestId;
+
+        public ComeBackLater(final int guestId) {
+            this.guestId = guestId;
+        }
+
+        @Override
+        public String toString() {
+            return "ComeBackLater{guestId=" + guestId + "}";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if (o instanceof ComeBackLater) {
+                ComeBackLater that = (ComeBackLater) o;
+                return this.guestId == that.guestId;
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 1;
+            h *= 1000003;
+            h ^= guestId;
+            return h;
+        }
+    }
+
+    private static final class RetryBacklog {
+
+        static final RetryBacklog Instance = new RetryBacklog();
+
+        private RetryBacklog() {
+        }
+    }
+
+    /**
+     * Routed to the waiter of the guest by a consistent hashing pool; see `guestHashKey`.
+     */
+    public static final class ServeCoffee implements ConsistentHashingRouter.ConsistentHashable {
 
         public final Coffee coffee;
 
+        // Assigned by the coffee house, -1 if unknown
+        public final int guestId;
+
+        // Only routes the order, the waiter serves the sender; not part of equality
+        public final ActorRef guest;
+
         public ServeCoffee(final Coffee coffee) {
+            this(coffee, -1);
+        }
+
+        public ServeCoffee(final Coffee coffee, final int guestId) {
+            this(coffee, guestId, null);
+        }
+
+        public ServeCoffee(final Coffee coffee, final int guestId, final ActorRef guest) {
             checkNotNull(coffee, "Coffee cannot be null");
             this.coffee = coffee;
+            this.guestId = guestId;
+            this.guest = guest;
+        }
+
+        @Override
+        public Object consistentHashKey() {
+            return guestHashKey(guestId, guest);
         }
 
         @Override
         public String toString() {
-            return "ServeCoffee{coffee=" + coffee + "}";
+            return "ServeCoffee{coffee=" + coffee + ", guestId=" + guestId + ", guest=" + guest + "}";
         }
 
         @Override
@@ -82,7 +389,8 @@ public class Waiter extends AbstractLoggingActor {
             if (o == this) return true;
             if (o instanceof ServeCoffee) {
                 ServeCoffee that = (ServeCoffee) o;
-                return this.coffee.equals(that.coffee);
+                return this.coffee.equals(that.coffee)
+                        && this.guestId == that.guestId;
             }
             return false;
         }
@@ -92,6 +400,8 @@ public class Waiter extends AbstractLoggingActor {
             int h = 1;
             h *= 1000003;
             h ^= coffee.hashCode();
+            h *= 1000003;
+            h ^= guestId;
             return h;
         }
     }
@@ -100,14 +410,22 @@ public class Waiter extends AbstractLoggingActor {
 
         public final Coffee coffee;
 
+        // Tells the guests of a `GuestSimulator` apart, -1 if unknown; not part of equality
+        public final int guestId;
+
         public CoffeeServed(final Coffee coffee) {
+            this(coffee, -1);
+        }
+
+        public CoffeeServed(final Coffee coffee, final int guestId) {
             checkNotNull(coffee, "Coffee cannot be null");
             this.coffee = coffee;
+            this.guestId = guestId;
         }
 
         @Override
         public String toString() {
-            return "CoffeeServed{coffee=" + coffee + "}";
+            return "CoffeeServed{coffee=" + coffee + ", guestId=" + guestId + "}";
         }
 
         @Override
@@ -129,18 +447,42 @@ public class Waiter extends AbstractLoggingActor {
         }
     }
 
-    public static final class Complaint {
+    /**
+     * Routed like `ServeCoffee`, so all complaints of a guest are counted by the same waiter.
+     */
+    public static final class Complaint implements ConsistentHashingRouter.ConsistentHashable {
 
         public final Coffee coffee;
 
+        // Assigned by the coffee house, -1 if unknown; not part of equality
+        public final int guestId;
+
+        // Only routes the complaint, the waiter remakes the coffee for the sender; not part of equality
+        public final ActorRef guest;
+
         public Complaint(final Coffee coffee) {
+            this(coffee, null);
+        }
+
+        public Complaint(final Coffee coffee, final ActorRef guest) {
+            this(coffee, -1, guest);
+        }
+
+        public Complaint(final Coffee coffee, final int guestId, final ActorRef guest) {
             checkNotNull(coffee, "Coffee cannot be null");
             this.coffee = coffee;
+            this.guestId = guestId;
+            this.guest = guest;
+        }
+
+        @Override
+        public Object consistentHashKey() {
+            return guestHashKey(guestId, guest);
         }
 
         @Override
         public String toString() {
-            return "Complaint{coffee=" + coffee + "}";
+            return "Complaint{coffee=" + coffee + ", guestId=" + guestId + ", guest=" + guest + "}";
         }
 
         @Override
@@ -0,0 +1,65 @@
+package com.lightbend.training.coffeehouse;
+
+import com.typesafe.config.ConfigFactory;
+import org.junit.Test;
+import scala.concurrent.duration.Duration;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdmissionControlTest {
+
+    @Test
+    public void shouldAdmitUpToLimitAndThenApplyPolicy() {
+        AdmissionControl admissionControl = new AdmissionControl(AdmissionControl.Policy.SHED, 2);
+        assertThat(admissionControl.admit()).isEqualTo(AdmissionControl.Decision.ADMIT);
+        assertThat(admissionControl.admit()).isEqualTo(AdmissionControl.Decision.ADMIT);
+        assertThat(admissionControl.admit()).isEqualTo(AdmissionControl.Decision.SHED);
+        admissionControl.complete();
+        assertThat(admissionControl.admit()).isEqualTo(AdmissionControl.Decision.ADMIT);
+        assertThat(admissionControl.stats().inFlight).isEqualTo(2);
+        assertThat(admissionControl.stats().admitted).isEqualTo(3);
+        assertThat(admissionControl.stats().shed).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldAlwaysAdmitWithPolicyNone() {
+        AdmissionControl admissionControl = new AdmissionControl(AdmissionControl.Policy.NONE, 1);
+        assertThat(admissionControl.admit()).isEqualTo(AdmissionControl.Decision.ADMIT);
+        assertThat(admissionControl.admit()).isEqualTo(AdmissionControl.Decision.ADMIT);
+        assertThat(admissionControl.stats().inFlight).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldAdmitQueuedOrderOnlyBelowLimit() {
+        AdmissionControl admissionControl = new AdmissionControl(AdmissionControl.Policy.QUEUE, 1);
+        assertThat(admissionControl.admit()).isEqualTo(AdmissionControl.Decision.ADMIT);
+        assertThat(admissionControl.admit()).isEqualTo(AdmissionControl.Decision.QUEUE);
+        assertThat(admissionControl.admitQueued()).isFalse();
+        admissionControl.complete();
+        assertThat(admissionControl.admitQueued()).isTrue();
+    }
+
+    @Test
+    public void shouldDeriveLimitFromSlotsPrepareDurationAndMaxWait() {
+        AdmissionControl admissionControl = AdmissionControl.fromConfig(
+                ConfigFactory.parseString("policy = delay, max-wait = 3 seconds"), 4, Duration.create(1, TimeUnit.SECONDS));
+        assertThat(admissionControl.stats().policy).isEqualTo(AdmissionControl.Policy.DELAY);
+        assertThat(admissionControl.stats().limit).isEqualTo(16);
+    }
+
+    @Test
+    public void shouldShareLimitAndAddUpStatsOfShares() {
+        AdmissionControl admissionControl = new AdmissionControl(AdmissionControl.Policy.SHED, 16);
+        AdmissionControl first = admissionControl.share(4);
+        AdmissionControl second = admissionControl.share(4);
+        first.admit();
+        second.admit();
+        AdmissionControl.Stats stats = first.stats().plus(second.stats());
+        assertThat(first.stats().limit).isEqualTo(4);
+        assertThat(stats.limit).isEqualTo(8);
+        assertThat(stats.inFlight).isEqualTo(2);
+        assertThat(new AdmissionControl(AdmissionControl.Policy.SHED, 2).share(4).stats().limit).isEqualTo(1);
+    }
+}
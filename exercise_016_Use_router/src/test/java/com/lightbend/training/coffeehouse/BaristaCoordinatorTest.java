@@ -0,0 +1,93 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.testkit.JavaTestKit;
+import akka.testkit.TestProbe;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BaristaCoordinatorTest extends BaseAkkaTestCase {
+
+    @Test
+    public void shouldHandPrepareCoffeeToBaristaRequestingWork() {
+        new JavaTestKit(system) {{
+            ActorRef coordinator = system.actorOf(BaristaCoordinator.props());
+            TestProbe barista = new TestProbe(system);
+            coordinator.tell(BaristaCoordinator.RequestWork.Instance, barista.ref());
+            coordinator.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+            barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()));
+            assertThat(barista.lastSender()).isEqualTo(getRef());
+        }};
+    }
+
+    @Test
+    public void shouldHoldPrepareCoffeeUntilBaristaRequestsWork() {
+        new JavaTestKit(system) {{
+            ActorRef coordinator = system.actorOf(BaristaCoordinator.props());
+            TestProbe barista = new TestProbe(system);
+            coordinator.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+            coordinator.tell(new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters()), getRef());
+            barista.expectNoMsg(duration("100 milliseconds"));
+            coordinator.tell(BaristaCoordinator.RequestWork.Instance, barista.ref());
+            barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()));
+            barista.expectNoMsg(duration("100 milliseconds"));
+            coordinator.tell(BaristaCoordinator.RequestWork.Instance, barista.ref());
+            barista.expectMsg(new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters()));
+        }};
+    }
+
+    @Test
+    public void shouldNotHandWorkToTerminatedBarista() {
+        new JavaTestKit(system) {{
+            ActorRef coordinator = system.actorOf(BaristaCoordinator.props());
+            TestProbe stopped = new TestProbe(system);
+            TestProbe barista = new TestProbe(system);
+            coordinator.tell(BaristaCoordinator.RequestWork.Instance, stopped.ref());
+            watch(stopped.ref());
+            system.stop(stopped.ref());
+            expectTerminated(stopped.ref());
+            expectNoMsg(duration("100 milliseconds")); // Let the coordinator see the termination as well
+            coordinator.tell(BaristaCoordinator.RequestWork.Instance, barista.ref());
+            coordinator.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+            barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()));
+        }};
+    }
+
+    @Test
+    public void shouldHandOutPendingRemakesFirst() {
+        new JavaTestKit(system) {{
+            ActorRef coordinator = system.actorOf(BaristaCoordinator.props());
+            TestProbe barista = new TestProbe(system);
+            coordinator.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+            coordinator.tell(new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters(), true, -1, false, 0), getRef());
+            coordinator.tell(BaristaCoordinator.RequestWork.Instance, barista.ref());
+            barista.expectMsg(new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters(), true, -1, false, 0));
+            coordinator.tell(BaristaCoordinator.RequestWork.Instance, barista.ref());
+            barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()));
+        }};
+    }
+
+    @Test
+    public void shouldReplyBusyWhenPendingOrdersAreFull() {
+        new JavaTestKit(system) {{
+            ActorRef coordinator = system.actorOf(BaristaCoordinator.props(1));
+            coordinator.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+            coordinator.tell(new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters()), getRef());
+            expectMsgEquals(new Barista.Busy(new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters())));
+        }};
+    }
+
+    @Test
+    public void shouldHoldRemakesEvenWhenPendingOrdersAreFull() {
+        new JavaTestKit(system) {{
+            ActorRef coordinator = system.actorOf(BaristaCoordinator.props(1));
+            TestProbe barista = new TestProbe(system);
+            coordinator.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+            coordinator.tell(new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters(), true, -1, false, 0), getRef());
+            coordinator.tell(BaristaCoordinator.RequestWork.Instance, barista.ref());
+            barista.expectMsg(new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters(), true, -1, false, 0));
+            expectNoMsg(duration("100 milliseconds"));
+        }};
+    }
+}
@@ -0,0 +1,88 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.dispatch.BoundedMessageQueueSemantics;
+import akka.dispatch.Envelope;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.UnboundedMessageQueueSemantics;
+import akka.testkit.JavaTestKit;
+import org.junit.Test;
+import scala.Option;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BaristaMailboxTest extends BaseAkkaTestCase {
+
+    @Test
+    public void shouldDequeueRemakesFirstAndOtherwiseKeepOrder() {
+        new JavaTestKit(system) {{
+            MessageQueue queue = new BaristaMailbox(true, 0).create(Option.empty(), Option.empty());
+            Barista.PrepareCoffee akkaccino = new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters());
+            Barista.PrepareCoffee caffeJava = new Barista.PrepareCoffee(new Coffee.CaffeJava(), system.deadLetters());
+            Barista.PrepareCoffee remake = new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters(), true, -1, false, 0);
+            queue.enqueue(getRef(), Envelope.apply(akkaccino, getRef(), system));
+            queue.enqueue(getRef(), Envelope.apply(caffeJava, getRef(), system));
+            queue.enqueue(getRef(), Envelope.apply(remake, getRef(), system));
+            assertThat(queue.dequeue().message()).isEqualTo(remake);
+            assertThat(queue.dequeue().message()).isEqualTo(akkaccino);
+            assertThat(queue.dequeue().message()).isEqualTo(caffeJava);
+            assertThat(queue.hasMessages()).isFalse();
+        }};
+    }
+
+    @Test
+    public void shouldReplyBusyInsteadOfEnqueueingBeyondCapacity() {
+        new JavaTestKit(system) {{
+            MessageQueue queue = new BaristaMailbox(true, 1).create(Option.empty(), Option.empty());
+            Barista.PrepareCoffee akkaccino = new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters());
+            Barista.PrepareCoffee mochaPlay = new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters());
+            queue.enqueue(ActorRef.noSender(), Envelope.apply(akkaccino, getRef(), system));
+            queue.enqueue(ActorRef.noSender(), Envelope.apply(mochaPlay, getRef(), system));
+            queue.enqueue(ActorRef.noSender(), Envelope.apply("Not an order", getRef(), system));
+            expectMsgEquals(new Barista.Busy(mochaPlay));
+            assertThat(queue.numberOfMessages()).isEqualTo(2);
+            queue.dequeue();
+            queue.enqueue(ActorRef.noSender(), Envelope.apply(mochaPlay, getRef(), system));
+            assertThat(queue.numberOfMessages()).isEqualTo(2);
+        }};
+    }
+
+    @Test
+    public void shouldNeverReplyBusyToRemakes() {
+        new JavaTestKit(system) {{
+            MessageQueue queue = new BaristaMailbox(true, 1).create(Option.empty(), Option.empty());
+            Barista.PrepareCoffee akkaccino = new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters());
+            Barista.PrepareCoffee remake = new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters(), true, -1, false, 0);
+            Barista.PrepareCoffee caffeJava = new Barista.PrepareCoffee(new Coffee.CaffeJava(), system.deadLetters());
+            queue.enqueue(ActorRef.noSender(), Envelope.apply(akkaccino, getRef(), system));
+            queue.enqueue(ActorRef.noSender(), Envelope.apply(remake, getRef(), system));
+            queue.enqueue(ActorRef.noSender(), Envelope.apply(caffeJava, getRef(), system));
+            expectMsgEquals(new Barista.Busy(caffeJava));
+            expectNoMsg(duration("100 milliseconds"));
+            assertThat(queue.numberOfMessages()).isEqualTo(2);
+        }};
+    }
+
+    @Test
+    public void shouldDeclareNeitherUnboundedNorBoundedSemantics() {
+        MessageQueue queue = new BaristaMailbox(true, 1).create(Option.empty(), Option.empty());
+        assertThat(queue).isNotInstanceOf(UnboundedMessageQueueSemantics.class);
+        assertThat(queue).isNotInstanceOf(BoundedMessageQueueSemantics.class);
+    }
+
+    @Test
+    public void shouldStampOrdersWhenEnqueuedUnlessAlreadyEnqueued() {
+        new JavaTestKit(system) {{
+            MessageQueue queue = new BaristaMailbox(false, 0).create(Option.empty(), Option.empty());
+            Barista.PrepareCoffee akkaccino = new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters());
+            Barista.PrepareCoffee coordinated = akkaccino.enqueued(1);
+            assertThat(akkaccino.enqueuedAt).isEqualTo(0);
+            final long before = System.nanoTime();
+            queue.enqueue(getRef(), Envelope.apply(akkaccino, getRef(), system));
+            queue.enqueue(getRef(), Envelope.apply(coordinated, getRef(), system));
+            assertThat(((Barista.PrepareCoffee) queue.dequeue().message()).enqueuedAt).isGreaterThanOrEqualTo(before);
+            assertThat(((Barista.PrepareCoffee) queue.dequeue().message()).enqueuedAt).isEqualTo(1);
+            assertThat(coordinated.requeued().enqueuedAt).isEqualTo(0);
+        }};
+    }
+}
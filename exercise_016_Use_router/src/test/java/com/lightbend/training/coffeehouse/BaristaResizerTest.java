@@ -0,0 +1,57 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.routing.NoRoutee$;
+import akka.routing.Routee;
+import org.junit.Test;
+import scala.collection.JavaConverters;
+import scala.collection.immutable.IndexedSeq;
+
+import java.util.Collections;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BaristaResizerTest {
+
+    private final QueueingDelay queueingDelay = new QueueingDelay();
+
+    private final BaristaResizer resizer = new BaristaResizer(queueingDelay, 2, 8, 10, 500, 50, 0.5);
+
+    @Test
+    public void shouldResizeEveryMessagesPerResizeMessages() {
+        assertThat(resizer.isTimeForResize(0)).isTrue();
+        assertThat(resizer.isTimeForResize(5)).isFalse();
+        assertThat(resizer.isTimeForResize(20)).isTrue();
+    }
+
+    @Test
+    public void shouldGrowWhenQueueingDelayIsAboveThreshold() {
+        queueingDelay.record(MILLISECONDS.toNanos(1000));
+        assertThat(resizer.resize(routees(4))).isEqualTo(2);
+        assertThat(resizer.lastDecision().newSize).isEqualTo(6);
+    }
+
+    @Test
+    public void shouldShrinkWhenQueueingDelayIsBelowThreshold() {
+        queueingDelay.record(MILLISECONDS.toNanos(10));
+        assertThat(resizer.resize(routees(4))).isEqualTo(-1);
+    }
+
+    @Test
+    public void shouldKeepSizeWithinBounds() {
+        queueingDelay.record(MILLISECONDS.toNanos(1000));
+        assertThat(resizer.resize(routees(8))).isEqualTo(0);
+        queueingDelay.record(MILLISECONDS.toNanos(10));
+        assertThat(resizer.resize(routees(2))).isEqualTo(0);
+        assertThat(resizer.resize(routees(0))).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldKeepSizeWithoutMeasuredDelay() {
+        assertThat(resizer.resize(routees(4))).isEqualTo(0);
+    }
+
+    private IndexedSeq<Routee> routees(int count) {
+        return JavaConverters.asScalaBuffer(Collections.<Routee>nCopies(count, NoRoutee$.MODULE$)).toIndexedSeq();
+    }
+}
@@ -1,7 +1,10 @@
 package com.lightbend.training.coffeehouse;
 
 import akka.actor.ActorRef;
+import akka.actor.Props;
 import akka.testkit.JavaTestKit;
+import akka.testkit.TestProbe;
+import com.google.common.collect.ImmutableMap;
 import org.junit.Test;
 
 import java.util.ArrayList;
@@ -45,4 +48,223 @@ public class BaristaTest extends BaseAkkaTestCase {
             assertThat(numberOfCorrectCoffee).isBetween(expectedCount - variation, expectedCount + variation);
         }};
     }
+
+    @Test
+    public void nonBlockingBaristaShouldBrewUpToMaxConcurrentBrewsAtOnce() {
+        new JavaTestKit(system) {{
+            ActorRef barista = system.actorOf(props(new Barista.Settings(duration("300 milliseconds"), 100)
+                    .withMaxConcurrentBrews(3)));
+            new Within(duration("250 milliseconds"), duration("550 milliseconds")) {
+                @Override
+                protected void run() {
+                    for (int i = 0; i < 3; i++)
+                        barista.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+                    expectMsgAllOf(
+                            new Barista.CoffeePrepared(new Coffee.Akkaccino(), system.deadLetters()),
+                            new Barista.CoffeePrepared(new Coffee.Akkaccino(), system.deadLetters()),
+                            new Barista.CoffeePrepared(new Coffee.Akkaccino(), system.deadLetters()));
+                }
+            };
+        }};
+    }
+
+    @Test
+    public void nonBlockingBaristaShouldQueueBrewsBeyondMaxConcurrentBrews() {
+        new JavaTestKit(system) {{
+            ActorRef barista = system.actorOf(props(new Barista.Settings(duration("200 milliseconds"), 100)
+                    .withMaxConcurrentBrews(1)));
+            new Within(duration("350 milliseconds"), duration("800 milliseconds")) {
+                @Override
+                protected void run() {
+                    barista.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+                    barista.tell(new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters()), getRef());
+                    expectMsgEquals(new Barista.CoffeePrepared(new Coffee.Akkaccino(), system.deadLetters()));
+                    expectMsgEquals(new Barista.CoffeePrepared(new Coffee.MochaPlay(), system.deadLetters()));
+                }
+            };
+        }};
+    }
+
+    @Test
+    public void baristaWithCoordinatorShouldRequestWorkOnStartAndAfterBrewing() {
+        new JavaTestKit(system) {{
+            ActorRef coordinator = getRef();
+            ActorRef barista = system.actorOf(props(
+                    new Barista.Settings(duration("0 milliseconds"), 100).withMaxConcurrentBrews(2), coordinator,
+                    new DepartedGuests()));
+            expectMsgAllOf(BaristaCoordinator.RequestWork.Instance, BaristaCoordinator.RequestWork.Instance);
+            barista.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+            expectMsgAllOf(new Barista.CoffeePrepared(new Coffee.Akkaccino(), system.deadLetters()),
+                    BaristaCoordinator.RequestWork.Instance);
+        }};
+    }
+
+    @Test
+    public void batchingBaristaWithCoordinatorShouldStopRequestingWorkWhileBusy() {
+        new JavaTestKit(system) {{
+            TestProbe coordinator = new TestProbe(system);
+            ActorRef barista = system.actorOf(props(new Barista.Settings(duration("500 milliseconds"), 100)
+                    .withMaxConcurrentBrews(1)
+                    .withBatching(new Barista.Batching(duration("100 milliseconds"), 2, duration("0 milliseconds"))),
+                    coordinator.ref(), new DepartedGuests()));
+            coordinator.expectMsg(BaristaCoordinator.RequestWork.Instance);
+            barista.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+            coordinator.expectMsg(BaristaCoordinator.RequestWork.Instance);
+            barista.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+            barista.tell(new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters()), getRef());
+            barista.tell(new Barista.PrepareCoffee(new Coffee.CaffeJava(), system.deadLetters()), getRef());
+            coordinator.expectNoMsg(duration("300 milliseconds"));
+            expectMsgAllOf(duration("1 second"),
+                    new Barista.CoffeePrepared(new Coffee.Akkaccino(), system.deadLetters()),
+                    new Barista.CoffeePrepared(new Coffee.Akkaccino(), system.deadLetters()));
+            coordinator.expectMsg(BaristaCoordinator.RequestWork.Instance);
+        }};
+    }
+
+    @Test
+    public void baristaServingDirectlyShouldSendCoffeeServedToGuest() {
+        new JavaTestKit(system) {{
+            TestProbe guest = new TestProbe(system);
+            ActorRef barista = system.actorOf(props(new Barista.Settings(duration("0 milliseconds"), 100)
+                    .withMaxConcurrentBrews(1).withServeDirectly(true)));
+            barista.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref()), getRef());
+            guest.expectMsg(new Waiter.CoffeeServed(new Coffee.Akkaccino()));
+            assertThat(guest.lastSender()).isEqualTo(getRef());
+            expectMsgEquals(new Barista.OrderServed(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref())));
+        }};
+    }
+
+    @Test
+    public void shouldUsePrepareCoffeeDurationOfTheOrderedCoffee() {
+        new JavaTestKit(system) {{
+            ActorRef barista = system.actorOf(props(new Barista.Settings(duration("500 milliseconds"), 100)
+                    .withPrepareCoffeeDurations(ImmutableMap.of(new Coffee.CaffeJava(), duration("50 milliseconds")))
+                    .withMaxConcurrentBrews(2)));
+            new Within(duration("0 milliseconds"), duration("300 milliseconds")) {
+                @Override
+                protected void run() {
+                    barista.tell(new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters()), getRef());
+                    barista.tell(new Barista.PrepareCoffee(new Coffee.CaffeJava(), system.deadLetters()), getRef());
+                    expectMsgEquals(new Barista.CoffeePrepared(new Coffee.CaffeJava(), system.deadLetters()));
+                }
+            };
+            expectMsgEquals(new Barista.CoffeePrepared(new Coffee.MochaPlay(), system.deadLetters()));
+        }};
+    }
+
+    @Test
+    public void shouldBrewIdenticalCoffeesOrderedWithinTheWindowInOneBatch() {
+        new JavaTestKit(system) {{
+            ActorRef barista = system.actorOf(props(new Barista.Settings(duration("200 milliseconds"), 100)
+                    .withMaxConcurrentBrews(1)
+                    .withBatching(new Barista.Batching(duration("100 milliseconds"), 4, duration("50 milliseconds")))));
+            new Within(duration("300 milliseconds"), duration("600 milliseconds")) {
+                @Override
+                protected void run() {
+                    barista.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+                    barista.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+                    barista.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+                    expectMsgAllOf(
+                            new Barista.CoffeePrepared(new Coffee.Akkaccino(), system.deadLetters()),
+                            new Barista.CoffeePrepared(new Coffee.Akkaccino(), system.deadLetters()),
+                            new Barista.CoffeePrepared(new Coffee.Akkaccino(), system.deadLetters()));
+                }
+            };
+        }};
+    }
+
+    @Test
+    public void shouldStartBrewingAFullBatchWithoutWaitingForTheWindow() {
+        new JavaTestKit(system) {{
+            ActorRef barista = system.actorOf(props(new Barista.Settings(duration("100 milliseconds"), 100)
+                    .withMaxConcurrentBrews(1)
+                    .withBatching(new Barista.Batching(duration("1 second"), 2, duration("0 milliseconds")))));
+            new Within(duration("0 milliseconds"), duration("400 milliseconds")) {
+                @Override
+                protected void run() {
+                    barista.tell(new Barista.PrepareCoffee(new Coffee.CaffeJava(), system.deadLetters()), getRef());
+                    barista.tell(new Barista.PrepareCoffee(new Coffee.CaffeJava(), system.deadLetters()), getRef());
+                    expectMsgAllOf(
+                            new Barista.CoffeePrepared(new Coffee.CaffeJava(), system.deadLetters()),
+                            new Barista.CoffeePrepared(new Coffee.CaffeJava(), system.deadLetters()));
+                }
+            };
+        }};
+    }
+
+    @Test
+    public void baristaMailboxShouldRankRemakesAheadOfFirstTimeOrders() {
+        new JavaTestKit(system) {{
+            ActorRef barista = system.actorOf(Barista.props(duration("100 milliseconds"), 100)
+                    .withMailbox("barista-mailbox"));
+            barista.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+            barista.tell(new Barista.PrepareCoffee(new Coffee.CaffeJava(), system.deadLetters()), getRef());
+            barista.tell(new Barista.PrepareCoffee(new Coffee.CaffeJava(), system.deadLetters()), getRef());
+            barista.tell(new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters(), true, -1, false, 0), getRef());
+            Object[] prepared = receiveN(4, duration("1 second"));
+            assertThat(prepared).endsWith(
+                    new Barista.CoffeePrepared(new Coffee.CaffeJava(), system.deadLetters()),
+                    new Barista.CoffeePrepared(new Coffee.CaffeJava(), system.deadLetters()));
+        }};
+    }
+
+    @Test
+    public void nonBlockingBaristaShouldStartPendingRemakesFirst() {
+        new JavaTestKit(system) {{
+            ActorRef barista = system.actorOf(props(new Barista.Settings(duration("100 milliseconds"), 100)
+                    .withMaxConcurrentBrews(1)));
+            barista.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+            barista.tell(new Barista.PrepareCoffee(new Coffee.CaffeJava(), system.deadLetters()), getRef());
+            barista.tell(new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters(), true, -1, false, 0), getRef());
+            expectMsgEquals(new Barista.CoffeePrepared(new Coffee.Akkaccino(), system.deadLetters()));
+            expectMsgEquals(new Barista.CoffeePrepared(new Coffee.MochaPlay(), system.deadLetters(), true));
+            expectMsgEquals(new Barista.CoffeePrepared(new Coffee.CaffeJava(), system.deadLetters()));
+        }};
+    }
+
+    @Test
+    public void shouldDropOrderOfDepartedGuestBeforeBrewing() {
+        new JavaTestKit(system) {{
+            TestProbe guest = new TestProbe(system);
+            DepartedGuests departedGuests = new DepartedGuests();
+            departedGuests.depart(7, guest.ref());
+            ActorRef barista = system.actorOf(props(
+                    new Barista.Settings(duration("500 milliseconds"), 100), null, departedGuests));
+            Barista.PrepareCoffee departed = new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref(), false, 7, false, 0);
+            new Within(duration("0 milliseconds"), duration("250 milliseconds")) {
+                @Override
+                protected void run() {
+                    barista.tell(departed, getRef());
+                    expectMsgEquals(new Barista.OrderDropped(departed));
+                }
+            };
+            assertThat(departedGuests.droppedOrders()).isEqualTo(1);
+        }};
+    }
+
+    @Test
+    public void nonBlockingBaristaShouldDropPendingOrderOfGuestDepartedWhileWaiting() {
+        new JavaTestKit(system) {{
+            TestProbe guest = new TestProbe(system);
+            DepartedGuests departedGuests = new DepartedGuests();
+            ActorRef barista = system.actorOf(props(
+                    new Barista.Settings(duration("200 milliseconds"), 100).withMaxConcurrentBrews(1), null,
+                    departedGuests));
+            Barista.PrepareCoffee pending = new Barista.PrepareCoffee(new Coffee.MochaPlay(), guest.ref(), false, 7, false, 0);
+            barista.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+            barista.tell(pending, getRef());
+            departedGuests.depart(7, guest.ref());
+            // Dropped as it arrives or once the barista is free, depending on which comes first
+            expectMsgAllOf(new Barista.CoffeePrepared(new Coffee.Akkaccino(), system.deadLetters()),
+                    new Barista.OrderDropped(pending));
+        }};
+    }
+
+    private static Props props(Barista.Settings settings) {
+        return props(settings, null, new DepartedGuests());
+    }
+
+    private static Props props(Barista.Settings settings, ActorRef coordinator, DepartedGuests departedGuests) {
+        return Barista.props(settings, new QueueingDelay(), coordinator, departedGuests, OrderMetrics.None);
+    }
 }
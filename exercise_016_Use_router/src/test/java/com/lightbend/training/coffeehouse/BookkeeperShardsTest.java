@@ -0,0 +1,35 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.japi.Util;
+import akka.routing.ActorRefRoutee;
+import akka.routing.Routee;
+import akka.testkit.TestProbe;
+import org.junit.Test;
+import scala.collection.immutable.IndexedSeq;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BookkeeperShardsTest extends BaseAkkaTestCase {
+
+    @Test
+    public void shouldRouteMessagesAboutGuestToShardAtGuestIdModuloShards() {
+        Routee first = new ActorRefRoutee(new TestProbe(system).ref());
+        Routee second = new ActorRefRoutee(new TestProbe(system).ref());
+        IndexedSeq<Routee> routees = Util.immutableIndexedSeq(Arrays.asList(first, second));
+        BookkeeperShards.GuestIdRoutingLogic logic = new BookkeeperShards.GuestIdRoutingLogic();
+        ActorRef guest = system.deadLetters();
+        assertThat(logic.select(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest, 3), routees)).isEqualTo(second);
+        assertThat(logic.select(new CoffeeHouse.OrderCompleted(3), routees)).isEqualTo(second);
+        assertThat(logic.select(new Bookkeeper.AddGuest(4, guest), routees)).isEqualTo(first);
+        assertThat(logic.select(new Bookkeeper.RemoveGuest(4), routees)).isEqualTo(first);
+        assertThat(logic.select(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), routees)).isEqualTo(first);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRequireAtLeastOneShard() {
+        new BookkeeperShards(0);
+    }
+}
@@ -0,0 +1,296 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.testkit.JavaTestKit;
+import akka.testkit.TestProbe;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import scala.concurrent.duration.Duration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BookkeeperTest extends BaseAkkaTestCase {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void sendingApproveCoffeeShouldForwardPrepareCoffeeToBarista() {
+        new JavaTestKit(system) {{
+            TestProbe guest = new TestProbe(system);
+            ActorRef bookkeeper = system.actorOf(props(system.deadLetters(), getRef(), Integer.MAX_VALUE,
+                    new Bookkeeper.Settings(2, Duration.Zero()),
+                    new AdmissionControl(AdmissionControl.Policy.NONE, 1)));
+            bookkeeper.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref(), 5), getRef());
+            Barista.PrepareCoffee prepareCoffee = expectMsgClass(Barista.PrepareCoffee.class);
+            assertThat(prepareCoffee).isEqualTo(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref()));
+            assertThat(prepareCoffee.guestId).isEqualTo(5);
+        }};
+    }
+
+    @Test
+    public void sendingApproveCoffeeShouldTellCoffeeHouseWhenLimitReached() {
+        new JavaTestKit(system) {{
+            TestProbe guest = new TestProbe(system);
+            ActorRef bookkeeper = system.actorOf(props(getRef(), system.deadLetters(), 1,
+                    new Bookkeeper.Settings(1, Duration.Zero()),
+                    new AdmissionControl(AdmissionControl.Policy.NONE, 1)));
+            bookkeeper.tell(new Bookkeeper.AddGuest(0, guest.ref()), ActorRef.noSender());
+            bookkeeper.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref(), 0), ActorRef.noSender());
+            interceptInfoLogMessage(this, ".*[Ss]orry.*", 1, () -> bookkeeper.tell(
+                    new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref(), 0), ActorRef.noSender()));
+            expectMsgEquals(new Bookkeeper.LimitReached(0, guest.ref()));
+        }};
+    }
+
+    @Test
+    public void sendingApproveCoffeeWithoutGuestIdShouldForwardItToCoffeeHouse() {
+        new JavaTestKit(system) {{
+            TestProbe guest = new TestProbe(system);
+            ActorRef bookkeeper = system.actorOf(props(getRef(), system.deadLetters(), Integer.MAX_VALUE,
+                    new Bookkeeper.Settings(1, Duration.Zero()),
+                    new AdmissionControl(AdmissionControl.Policy.NONE, 1)));
+            bookkeeper.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref()), ActorRef.noSender());
+            expectMsgEquals(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref()));
+        }};
+    }
+
+    @Test
+    public void sendingOrderCompletedShouldReleaseQueuedOrder() {
+        new JavaTestKit(system) {{
+            TestProbe guest = new TestProbe(system);
+            ActorRef bookkeeper = system.actorOf(props(system.deadLetters(), getRef(), Integer.MAX_VALUE,
+                    new Bookkeeper.Settings(1, Duration.Zero()),
+                    new AdmissionControl(AdmissionControl.Policy.QUEUE, 1)));
+            bookkeeper.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref(), 0), getRef());
+            bookkeeper.tell(new CoffeeHouse.ApproveCoffee(new Coffee.MochaPlay(), guest.ref(), 0), getRef());
+            expectMsgEquals(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref()));
+            expectNoMsg(duration("100 milliseconds"));
+            bookkeeper.tell(new CoffeeHouse.OrderCompleted(0), ActorRef.noSender());
+            expectMsgEquals(new Barista.PrepareCoffee(new Coffee.MochaPlay(), guest.ref()));
+        }};
+    }
+
+    @Test
+    public void sendingGetAdmissionStatsShouldResultInAdmissionStats() {
+        new JavaTestKit(system) {{
+            ActorRef bookkeeper = system.actorOf(props(system.deadLetters(), system.deadLetters(), Integer.MAX_VALUE,
+                    new Bookkeeper.Settings(1, Duration.create(1, TimeUnit.SECONDS)),
+                    new AdmissionControl(AdmissionControl.Policy.SHED, 3)));
+            bookkeeper.tell(new Bookkeeper.GetAdmissionStats(42), getRef());
+            Bookkeeper.AdmissionStats admissionStats = expectMsgClass(Bookkeeper.AdmissionStats.class);
+            assertThat(admissionStats.requestId).isEqualTo(42);
+            assertThat(admissionStats.stats.limit).isEqualTo(3);
+        }};
+    }
+
+    @Test
+    public void sendingApproveCoffeeShouldLeaseApprovalsWithinLimit() {
+        new JavaTestKit(system) {{
+            TestProbe barista = new TestProbe(system);
+            TestProbe guest = new TestProbe(system);
+            ActorRef bookkeeper = system.actorOf(props(system.deadLetters(), barista.ref(), 3,
+                    new Bookkeeper.Settings(1, Duration.Zero()).withLeaseSize(4),
+                    new AdmissionControl(AdmissionControl.Policy.NONE, 1)));
+            bookkeeper.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref(), 0), getRef());
+            barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref()));
+            expectMsgEquals(new Waiter.Lease(0, guest.ref(), 2));
+        }};
+    }
+
+    @Test
+    public void sendingReturnLeaseShouldUncountUnspentApprovals() {
+        new JavaTestKit(system) {{
+            TestProbe barista = new TestProbe(system);
+            TestProbe guest = new TestProbe(system);
+            ActorRef bookkeeper = system.actorOf(props(system.deadLetters(), barista.ref(), 3,
+                    new Bookkeeper.Settings(1, Duration.Zero()).withLeaseSize(4),
+                    new AdmissionControl(AdmissionControl.Policy.NONE, 1)));
+            bookkeeper.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref(), 0), getRef());
+            barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref()));
+            expectMsgEquals(new Waiter.Lease(0, guest.ref(), 2));
+            bookkeeper.tell(new Bookkeeper.ReturnLease(0, guest.ref(), 2), getRef());
+            bookkeeper.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref(), 0), getRef());
+            barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref()));
+            expectMsgEquals(new Waiter.Lease(0, guest.ref(), 1));
+        }};
+    }
+
+    @Test
+    public void sendingApproveCoffeeShouldNotLeaseApprovalsIfAdmissionControlled() {
+        new JavaTestKit(system) {{
+            TestProbe barista = new TestProbe(system);
+            TestProbe guest = new TestProbe(system);
+            ActorRef bookkeeper = system.actorOf(props(system.deadLetters(), barista.ref(), 3,
+                    new Bookkeeper.Settings(1, Duration.Zero()).withLeaseSize(4),
+                    new AdmissionControl(AdmissionControl.Policy.SHED, 10)));
+            bookkeeper.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref(), 0), getRef());
+            barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref()));
+            expectNoMsg(duration("100 milliseconds"));
+        }};
+    }
+
+    @Test
+    public void sendingApproveCoffeeShouldJournalApproval() throws IOException {
+        new JavaTestKit(system) {{
+            File dir = temporaryFolder.newFolder("journal");
+            TestProbe barista = new TestProbe(system);
+            TestProbe guest = new TestProbe(system);
+            ActorRef bookkeeper = system.actorOf(props(system.deadLetters(), barista.ref(), 1,
+                    new Bookkeeper.Settings(1, Duration.Zero())
+                    .withJournaling(new Bookkeeper.Journaling(dir, 1024, Duration.create(10, TimeUnit.MILLISECONDS),
+                            Duration.Zero(), 0)),
+                    new AdmissionControl(AdmissionControl.Policy.NONE, 1)), "journal-approval");
+            bookkeeper.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref(), 0), getRef());
+            barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref()));
+            watch(bookkeeper);
+            system.stop(bookkeeper);
+            expectTerminated(bookkeeper);
+            CaffeineBookkeeper caffeineBookkeeper = new CaffeineBookkeeper();
+            try (CaffeineJournal journal = CaffeineJournal.open(dir, "user-journal-approval", 1024)) {
+                journal.replay(caffeineBookkeeper, guestId -> guestId);
+            }
+            assertThat(caffeineBookkeeper.uid(0)).isEqualTo(guest.ref().path().uid());
+            assertThat(caffeineBookkeeper.count(0)).isEqualTo(1);
+        }};
+    }
+
+    @Test
+    public void shouldTellCoffeeHouseWhenLimitReachedBeforeStartAccordingToJournal() throws IOException {
+        new JavaTestKit(system) {{
+            File dir = temporaryFolder.newFolder("journal");
+            TestProbe guest = new TestProbe(system);
+            try (CaffeineJournal journal = CaffeineJournal.open(dir, "user-journal-replay", 1024)) {
+                journal.guestAdded(0, guest.ref().path().uid());
+                journal.coffeesCounted(0, guest.ref().path().uid(), 1);
+            }
+            ActorRef bookkeeper = system.actorOf(props(getRef(), system.deadLetters(), 1,
+                    new Bookkeeper.Settings(1, Duration.Zero())
+                    .withJournaling(new Bookkeeper.Journaling(dir, 1024, Duration.create(10, TimeUnit.MILLISECONDS),
+                            Duration.Zero(), 0)),
+                    new AdmissionControl(AdmissionControl.Policy.NONE, 1)), "journal-replay");
+            bookkeeper.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref(), 0), ActorRef.noSender());
+            expectMsgEquals(new Bookkeeper.LimitReached(0, guest.ref()));
+        }};
+    }
+
+    @Test
+    public void shouldHandSlotOfPreviousGuestInJournalOverToNewGuest() throws IOException {
+        new JavaTestKit(system) {{
+            File dir = temporaryFolder.newFolder("journal");
+            TestProbe barista = new TestProbe(system);
+            TestProbe guest = new TestProbe(system);
+            // A guest of an earlier run, at its limit and never removed
+            try (CaffeineJournal journal = CaffeineJournal.open(dir, "user-journal-stale", 1024)) {
+                journal.guestAdded(0, guest.ref().path().uid() + 1);
+                journal.coffeesCounted(0, guest.ref().path().uid() + 1, 1);
+            }
+            ActorRef bookkeeper = system.actorOf(props(getRef(), barista.ref(), 1,
+                    new Bookkeeper.Settings(1, Duration.Zero())
+                    .withJournaling(new Bookkeeper.Journaling(dir, 1024, Duration.create(10, TimeUnit.MILLISECONDS),
+                            Duration.Zero(), 0)),
+                    new AdmissionControl(AdmissionControl.Policy.NONE, 1)), "journal-stale");
+            bookkeeper.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref(), 0), ActorRef.noSender());
+            barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref()));
+            expectNoMsg(duration("100 milliseconds"));
+            watch(bookkeeper);
+            system.stop(bookkeeper);
+            expectTerminated(bookkeeper);
+            CaffeineBookkeeper caffeineBookkeeper = new CaffeineBookkeeper();
+            try (CaffeineJournal journal = CaffeineJournal.open(dir, "user-journal-stale", 1024)) {
+                journal.replay(caffeineBookkeeper, guestId -> guestId);
+            }
+            assertThat(caffeineBookkeeper.uid(0)).isEqualTo(guest.ref().path().uid());
+            assertThat(caffeineBookkeeper.count(0)).isEqualTo(1);
+        }};
+    }
+
+    @Test
+    public void sendingApproveCoffeeOfDepartedGuestShouldDropIt() {
+        new JavaTestKit(system) {{
+            TestProbe barista = new TestProbe(system);
+            TestProbe guest = new TestProbe(system);
+            DepartedGuests departedGuests = new DepartedGuests();
+            departedGuests.depart(0, guest.ref());
+            ActorRef bookkeeper = system.actorOf(Bookkeeper.props(getRef(), barista.ref(), 1,
+                    new Bookkeeper.Settings(1, Duration.Zero()), new AdmissionControl(AdmissionControl.Policy.NONE, 1),
+                    departedGuests, LogSampler.None, OrderMetrics.None));
+            bookkeeper.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref(), 0), ActorRef.noSender());
+            barista.expectNoMsg(duration("100 milliseconds"));
+            expectNoMsg(duration("100 milliseconds"));
+            assertThat(departedGuests.droppedOrders()).isEqualTo(1);
+        }};
+    }
+
+    @Test
+    public void shouldSnapshotApprovalsPeriodically() throws IOException {
+        new JavaTestKit(system) {{
+            File dir = temporaryFolder.newFolder("journal");
+            TestProbe barista = new TestProbe(system);
+            TestProbe guest = new TestProbe(system);
+            ActorRef bookkeeper = system.actorOf(props(system.deadLetters(), barista.ref(), 1,
+                    new Bookkeeper.Settings(1, Duration.Zero())
+                    .withJournaling(new Bookkeeper.Journaling(dir, 1024, Duration.create(10, TimeUnit.MILLISECONDS),
+                            Duration.create(10, TimeUnit.MILLISECONDS), 2)),
+                    new AdmissionControl(AdmissionControl.Policy.NONE, 1)), "snapshot-approval");
+            bookkeeper.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref(), 0), getRef());
+            barista.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref()));
+            new AwaitAssert(duration("1 second")) {
+                @Override
+                protected void check() {
+                    assertThat(CaffeineSnapshot.list(dir, "user-snapshot-approval")).isNotEmpty();
+                }
+            };
+            CaffeineBookkeeper caffeineBookkeeper = new CaffeineBookkeeper();
+            try {
+                assertThat(CaffeineSnapshot.load(CaffeineSnapshot.list(dir, "user-snapshot-approval").get(0),
+                        caffeineBookkeeper)).isEqualTo(1);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            assertThat(caffeineBookkeeper.count(0)).isEqualTo(1);
+        }};
+    }
+
+    @Test
+    public void shouldTellCoffeeHouseWhenLimitReachedBeforeStartAccordingToSnapshotAndJournal() throws IOException {
+        new JavaTestKit(system) {{
+            File dir = temporaryFolder.newFolder("journal");
+            TestProbe guest = new TestProbe(system);
+            int uid = guest.ref().path().uid();
+            try (CaffeineJournal journal = CaffeineJournal.open(dir, "user-snapshot-replay", 1024)) {
+                journal.guestAdded(0, uid);
+                journal.coffeesCounted(0, uid, 1);
+                journal.roll();
+                journal.coffeesCounted(0, uid, 1);
+            }
+            // The snapshot already covers the first segment, so the coffees of the guest add up to two
+            CaffeineBookkeeper snapshot = new CaffeineBookkeeper();
+            snapshot.restore(0, uid, 1);
+            CaffeineSnapshot.write(dir, "user-snapshot-replay", CaffeineSnapshot.encode(snapshot, 1, ByteBuffer.allocate(0)), 2);
+            TestProbe barista = new TestProbe(system);
+            ActorRef bookkeeper = system.actorOf(props(getRef(), barista.ref(), 3,
+                    new Bookkeeper.Settings(1, Duration.Zero())
+                    .withJournaling(new Bookkeeper.Journaling(dir, 1024, Duration.create(10, TimeUnit.MILLISECONDS),
+                            Duration.Zero(), 2)),
+                    new AdmissionControl(AdmissionControl.Policy.NONE, 1)), "snapshot-replay");
+            bookkeeper.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref(), 0), ActorRef.noSender());
+            barista.expectMsgClass(Barista.PrepareCoffee.class);
+            bookkeeper.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref(), 0), ActorRef.noSender());
+            expectMsgEquals(new Bookkeeper.LimitReached(0, guest.ref()));
+        }};
+    }
+
+    private static Props props(ActorRef coffeeHouse, ActorRef barista, int caffeineLimit,
+                               Bookkeeper.Settings settings, AdmissionControl admissionControl) {
+        return Bookkeeper.props(coffeeHouse, barista, caffeineLimit, settings, admissionControl, new DepartedGuests(),
+                LogSampler.None, OrderMetrics.None);
+    }
+}
@@ -0,0 +1,65 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.testkit.TestProbe;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CaffeineBookkeeperTest extends BaseAkkaTestCase {
+
+    @Test
+    public void shouldApproveCoffeesUpToLimit() {
+        CaffeineBookkeeper bookkeeper = new CaffeineBookkeeper();
+        ActorRef guest = new TestProbe(system).ref();
+        bookkeeper.add(0, guest);
+        assertThat(bookkeeper.approve(0, guest, 2)).isEqualTo(CaffeineBookkeeper.Approval.APPROVED);
+        assertThat(bookkeeper.approve(0, guest, 2)).isEqualTo(CaffeineBookkeeper.Approval.APPROVED);
+        assertThat(bookkeeper.approve(0, guest, 2)).isEqualTo(CaffeineBookkeeper.Approval.LIMIT_REACHED);
+        bookkeeper.undo(0);
+        assertThat(bookkeeper.count(0)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldAddGuestOnFirstApprovalAndKeepCountWhenAddedAgain() {
+        CaffeineBookkeeper bookkeeper = new CaffeineBookkeeper();
+        ActorRef guest = new TestProbe(system).ref();
+        assertThat(bookkeeper.approve(3, guest, Integer.MAX_VALUE)).isEqualTo(CaffeineBookkeeper.Approval.APPROVED);
+        bookkeeper.add(3, guest);
+        assertThat(bookkeeper.count(3)).isEqualTo(1);
+        assertThat(bookkeeper.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotApproveCoffeeOfGuestWhoseSlotWasReused() {
+        CaffeineBookkeeper bookkeeper = new CaffeineBookkeeper();
+        ActorRef guest = new TestProbe(system).ref();
+        ActorRef newGuest = new TestProbe(system).ref();
+        bookkeeper.add(0, guest);
+        bookkeeper.approve(0, guest, Integer.MAX_VALUE);
+        bookkeeper.remove(0);
+        assertThat(bookkeeper.size()).isEqualTo(0);
+        bookkeeper.add(0, newGuest);
+        assertThat(bookkeeper.count(0)).isEqualTo(0);
+        assertThat(bookkeeper.approve(0, guest, Integer.MAX_VALUE)).isEqualTo(CaffeineBookkeeper.Approval.OTHER_GUEST);
+        assertThat(bookkeeper.count(0)).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldGrowBeyondInitialCapacity() {
+        CaffeineBookkeeper bookkeeper = new CaffeineBookkeeper();
+        for (int slot = 0; slot < 100; slot++) bookkeeper.add(slot, new TestProbe(system).ref());
+        assertThat(bookkeeper.size()).isEqualTo(100);
+    }
+
+    @Test
+    public void shouldApproveUpToLimitForLease() {
+        CaffeineBookkeeper bookkeeper = new CaffeineBookkeeper();
+        ActorRef guest = new TestProbe(system).ref();
+        assertThat(bookkeeper.approveUpTo(0, guest, 2, 3)).isEqualTo(0);
+        bookkeeper.approve(0, guest, 3);
+        assertThat(bookkeeper.approveUpTo(0, guest, 4, 3)).isEqualTo(2);
+        assertThat(bookkeeper.approveUpTo(0, guest, 4, 3)).isEqualTo(0);
+        assertThat(bookkeeper.approve(0, guest, 3)).isEqualTo(CaffeineBookkeeper.Approval.LIMIT_REACHED);
+    }
+}
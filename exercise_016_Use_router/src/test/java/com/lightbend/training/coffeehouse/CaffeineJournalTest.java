@@ -0,0 +1,104 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.testkit.TestProbe;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CaffeineJournalTest extends BaseAkkaTestCase {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldReplayJournaledEventsAfterReopening() throws IOException {
+        File dir = temporaryFolder.newFolder("journal");
+        ActorRef guest = new TestProbe(system).ref();
+        ActorRef leftGuest = new TestProbe(system).ref();
+        int uid = guest.path().uid();
+        try (CaffeineJournal journal = CaffeineJournal.open(dir, "bookkeeper", 1024)) {
+            journal.guestAdded(0, uid);
+            journal.coffeesCounted(0, uid, 3);
+            journal.coffeesCounted(0, uid, -1);
+            journal.guestAdded(1, leftGuest.path().uid());
+            journal.guestRemoved(1);
+        }
+        CaffeineBookkeeper bookkeeper = new CaffeineBookkeeper();
+        try (CaffeineJournal journal = CaffeineJournal.open(dir, "bookkeeper", 1024)) {
+            assertThat(journal.size()).isEqualTo(5);
+            journal.replay(bookkeeper, guestId -> guestId);
+        }
+        assertThat(bookkeeper.size()).isEqualTo(1);
+        assertThat(bookkeeper.count(0)).isEqualTo(2);
+        assertThat(bookkeeper.approve(0, guest, 2)).isEqualTo(CaffeineBookkeeper.Approval.LIMIT_REACHED);
+        assertThat(bookkeeper.uid(1)).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldNotCountCoffeesOfPreviousGuestWithSameId() throws IOException {
+        File dir = temporaryFolder.newFolder("journal");
+        int uid = new TestProbe(system).ref().path().uid();
+        CaffeineBookkeeper bookkeeper = new CaffeineBookkeeper();
+        try (CaffeineJournal journal = CaffeineJournal.open(dir, "bookkeeper", 1024)) {
+            journal.guestAdded(0, uid);
+            journal.guestAdded(0, uid + 1);
+            journal.coffeesCounted(0, uid, 1);
+            journal.replay(bookkeeper, guestId -> guestId);
+        }
+        assertThat(bookkeeper.uid(0)).isEqualTo(uid + 1);
+        assertThat(bookkeeper.count(0)).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldReplayOnlySegmentsFromGivenOne() throws IOException {
+        File dir = temporaryFolder.newFolder("journal");
+        int uid = new TestProbe(system).ref().path().uid();
+        CaffeineBookkeeper bookkeeper = new CaffeineBookkeeper();
+        bookkeeper.restore(0, uid, 2);
+        try (CaffeineJournal journal = CaffeineJournal.open(dir, "bookkeeper", 1024)) {
+            journal.guestAdded(0, uid);
+            journal.coffeesCounted(0, uid, 2);
+            assertThat(journal.roll()).isEqualTo(1);
+            journal.coffeesCounted(0, uid, 1);
+            assertThat(journal.replay(bookkeeper, guestId -> guestId, 1)).isEqualTo(1);
+        }
+        assertThat(bookkeeper.count(0)).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldGrowBeyondInitialSize() throws IOException {
+        File dir = temporaryFolder.newFolder("journal");
+        try (CaffeineJournal journal = CaffeineJournal.open(dir, "bookkeeper", 32)) {
+            for (int guestId = 0; guestId < 100; guestId++) journal.guestAdded(guestId, guestId + 1);
+            journal.commit();
+        }
+        CaffeineBookkeeper bookkeeper = new CaffeineBookkeeper();
+        try (CaffeineJournal journal = CaffeineJournal.open(dir, "bookkeeper", 32)) {
+            journal.replay(bookkeeper, guestId -> guestId);
+        }
+        assertThat(bookkeeper.size()).isEqualTo(100);
+    }
+
+    @Test
+    public void shouldRollIntoNextSegmentWhenFull() throws IOException {
+        File dir = temporaryFolder.newFolder("journal");
+        try (CaffeineJournal journal = CaffeineJournal.open(dir, "bookkeeper", 32, 64)) {
+            for (int guestId = 0; guestId < 10; guestId++) journal.guestAdded(guestId, guestId + 1);
+            assertThat(journal.segment()).isEqualTo(2);
+            assertThat(journal.size()).isEqualTo(2);
+        }
+        assertThat(CaffeineJournal.segments(dir, "bookkeeper")).hasSize(3);
+        CaffeineBookkeeper bookkeeper = new CaffeineBookkeeper();
+        try (CaffeineJournal journal = CaffeineJournal.open(dir, "bookkeeper", 32, 64)) {
+            assertThat(journal.segment()).isEqualTo(2);
+            assertThat(journal.replay(bookkeeper, guestId -> guestId)).isEqualTo(10);
+        }
+        assertThat(bookkeeper.size()).isEqualTo(10);
+    }
+}
@@ -0,0 +1,51 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.testkit.TestProbe;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CaffeineLeasesTest extends BaseAkkaTestCase {
+
+    @Test
+    public void shouldSpendGrantedApprovalsOnly() {
+        CaffeineLeases leases = new CaffeineLeases();
+        ActorRef guest = new TestProbe(system).ref();
+        assertThat(leases.spend(0, guest)).isFalse();
+        leases.grant(0, guest, 1);
+        assertThat(leases.spend(0, guest)).isTrue();
+        assertThat(leases.spend(0, guest)).isFalse();
+        assertThat(leases.spend(-1, guest)).isFalse();
+    }
+
+    @Test
+    public void shouldDrainUnspentApprovals() {
+        CaffeineLeases leases = new CaffeineLeases();
+        ActorRef guest = new TestProbe(system).ref();
+        leases.grant(2, guest, 2);
+        leases.grant(30, guest, 1);
+        leases.spend(2, guest);
+        leases.spend(30, guest);
+        List<Bookkeeper.ReturnLease> unspent = new ArrayList<>();
+        leases.drain((guestId, leaseGuest, approvals) ->
+                unspent.add(new Bookkeeper.ReturnLease(guestId, leaseGuest, approvals)));
+        assertThat(unspent).containsExactly(new Bookkeeper.ReturnLease(2, guest, 1));
+        assertThat(leases.approvals(2, guest)).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldDropApprovalsOfPreviousGuestWithSameId() {
+        CaffeineLeases leases = new CaffeineLeases();
+        ActorRef guest = new TestProbe(system).ref();
+        ActorRef newGuest = new TestProbe(system).ref();
+        leases.grant(40, guest, 3);
+        leases.grant(40, newGuest, 1);
+        assertThat(leases.approvals(40, guest)).isEqualTo(0);
+        assertThat(leases.approvals(40, newGuest)).isEqualTo(1);
+        assertThat(leases.spend(40, guest)).isFalse();
+    }
+}
@@ -0,0 +1,68 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.testkit.TestProbe;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CaffeineSnapshotTest extends BaseAkkaTestCase {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void shouldRestoreWrittenSnapshot() throws IOException {
+        File dir = temporaryFolder.newFolder("snapshot");
+        ActorRef guest = new TestProbe(system).ref();
+        CaffeineBookkeeper bookkeeper = new CaffeineBookkeeper();
+        bookkeeper.restore(0, guest.path().uid(), 2);
+        bookkeeper.restore(40, 7, 1);
+        CaffeineSnapshot.write(dir, "bookkeeper", CaffeineSnapshot.encode(bookkeeper, 5, ByteBuffer.allocate(0)), 2);
+        CaffeineBookkeeper restored = new CaffeineBookkeeper();
+        assertThat(CaffeineSnapshot.load(CaffeineSnapshot.list(dir, "bookkeeper").get(0), restored)).isEqualTo(5);
+        assertThat(restored.size()).isEqualTo(2);
+        assertThat(restored.count(0)).isEqualTo(2);
+        assertThat(restored.approve(0, guest, 2)).isEqualTo(CaffeineBookkeeper.Approval.LIMIT_REACHED);
+        assertThat(restored.uid(40)).isEqualTo(7);
+        assertThat(restored.count(40)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotRestoreCorruptSnapshot() throws IOException {
+        File dir = temporaryFolder.newFolder("snapshot");
+        CaffeineBookkeeper bookkeeper = new CaffeineBookkeeper();
+        bookkeeper.restore(0, 7, 2);
+        CaffeineSnapshot.write(dir, "bookkeeper", CaffeineSnapshot.encode(bookkeeper, 1, ByteBuffer.allocate(0)), 2);
+        File file = CaffeineSnapshot.list(dir, "bookkeeper").get(0);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(CaffeineSnapshot.HEADER_SIZE + 8);
+            raf.writeInt(0);
+        }
+        CaffeineBookkeeper restored = new CaffeineBookkeeper();
+        assertThat(CaffeineSnapshot.load(file, restored)).isEqualTo(-1);
+        assertThat(restored.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldKeepNewestSnapshotsOnly() throws IOException {
+        File dir = temporaryFolder.newFolder("snapshot");
+        CaffeineBookkeeper bookkeeper = new CaffeineBookkeeper();
+        ByteBuffer buffer = ByteBuffer.allocate(0);
+        for (int position = 1; position <= 3; position++) {
+            bookkeeper.restore(position, position, position);
+            buffer = CaffeineSnapshot.encode(bookkeeper, position, buffer);
+            CaffeineSnapshot.write(dir, "bookkeeper", buffer, 2);
+        }
+        CaffeineSnapshot.write(dir, "other", CaffeineSnapshot.encode(bookkeeper, 1, ByteBuffer.allocate(0)), 2);
+        assertThat(CaffeineSnapshot.list(dir, "bookkeeper")).extracting(File::getName).
+                containsExactly("bookkeeper-0000000003.snapshot", "bookkeeper-0000000002.snapshot");
+    }
+}
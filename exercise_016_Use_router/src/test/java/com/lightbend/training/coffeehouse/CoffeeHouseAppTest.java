@@ -3,10 +3,12 @@ package com.lightbend.training.coffeehouse;
 
 import akka.actor.ActorRef;
 import akka.testkit.JavaTestKit;
+import com.google.common.collect.ImmutableMap;
 import org.assertj.core.data.MapEntry;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -49,9 +51,37 @@ public class CoffeeHouseAppTest extends BaseAkkaTestCase {
                     return getRef();
                 }
             }.createGuest(2, new Coffee.Akkaccino(), Integer.MAX_VALUE);
-            expectMsgAllOf(new CoffeeHouse.CreateGuest(new Coffee.Akkaccino(), Integer.MAX_VALUE),
-                    new CoffeeHouse.CreateGuest(new Coffee.Akkaccino(), Integer.MAX_VALUE));
+            expectMsgEquals(new CoffeeHouse.CreateGuests(2, new Coffee.Akkaccino(), Integer.MAX_VALUE));
         }};
 
     }
+
+    @Test
+    public void shouldAskCoffeeHouseForStatus() {
+        new JavaTestKit(system) {{
+            new CoffeeHouseApp(system) {
+                @Override
+                protected ActorRef createCoffeeHouse() {
+                    return getRef();
+                }
+            }.getStatus();
+            expectMsgEquals(CoffeeHouse.GetStatus.Instance);
+            reply(new CoffeeHouse.Status(0, Collections.emptyMap(), Collections.emptyMap(),
+                    new AdmissionControl(AdmissionControl.Policy.NONE, 1).stats(), Collections.emptyMap(), 0, 0,
+                    OrderMetrics.None.snapshot(), Collections.emptyMap(), 0));
+        }};
+    }
+
+    @Test
+    public void shouldAskCoffeeHouseToGenerateLoad() {
+        new JavaTestKit(system) {{
+            new CoffeeHouseApp(system) {
+                @Override
+                protected ActorRef createCoffeeHouse() {
+                    return getRef();
+                }
+            }.generateLoad(10, duration("1 second"), ImmutableMap.of(new Coffee.Akkaccino(), 1));
+            expectMsgEquals(new CoffeeHouse.GenerateLoad(10, duration("1 second"), ImmutableMap.of(new Coffee.Akkaccino(), 1)));
+        }};
+    }
 }
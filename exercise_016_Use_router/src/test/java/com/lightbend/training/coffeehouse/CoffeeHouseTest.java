@@ -2,10 +2,18 @@ package com.lightbend.training.coffeehouse;
 
 import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
 import akka.actor.Props;
+import akka.event.Logging;
 import akka.testkit.JavaTestKit;
+import akka.testkit.TestProbe;
+import com.google.common.collect.ImmutableMap;
+import com.typesafe.config.ConfigFactory;
 import org.junit.Test;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
 public class CoffeeHouseTest extends BaseAkkaTestCase {
 
     @Test
@@ -40,6 +48,79 @@ public class CoffeeHouseTest extends BaseAkkaTestCase {
         }};
     }
 
+    @Test
+    public void shouldCreateGuestsInChunksWhenCreateGuestsMessageSent() {
+        new JavaTestKit(system) {{
+            ActorRef coffeeHouse = system.actorOf(CoffeeHouse.props(Integer.MAX_VALUE), "create-guests");
+            interceptInfoLogMessage(this, ".*[Ss]pawned 250 guests.*", 1, () -> coffeeHouse.tell(
+                    new CoffeeHouse.CreateGuests(250, new Coffee.Akkaccino(), Integer.MAX_VALUE), ActorRef.noSender()));
+            coffeeHouse.tell(CoffeeHouse.GetStatus.Instance, getRef());
+            CoffeeHouse.Status status = expectMsgClass(CoffeeHouse.Status.class);
+            assertThat(status.guestCount).isEqualTo(250);
+        }};
+    }
+
+    @Test
+    public void shouldSimulateGuestsBelowCaffeineLimitAndRemoveThemAsTheyLeave() {
+        new JavaTestKit(system) {{
+            ActorRef coffeeHouse = system.actorOf(CoffeeHouse.props(1), "simulate-guests");
+            interceptInfoLogMessage(this, ".*[Ss]imulating 25 guests.*", 1, () -> coffeeHouse.tell(
+                    new CoffeeHouse.SimulateGuests(25, new Coffee.Akkaccino(), Integer.MAX_VALUE), ActorRef.noSender()));
+            coffeeHouse.tell(CoffeeHouse.GetStatus.Instance, getRef());
+            assertThat(expectMsgClass(CoffeeHouse.Status.class).guestCount).isEqualTo(25);
+            new AwaitAssert(duration("5 seconds")) {
+                @Override
+                protected void check() {
+                    coffeeHouse.tell(CoffeeHouse.GetStatus.Instance, getRef());
+                    assertThat(expectMsgClass(CoffeeHouse.Status.class).guestCount).isEqualTo(0);
+                }
+            };
+        }};
+    }
+
+    @Test
+    public void shouldGenerateLoadAndReportLatenciesOfAllArrivals() {
+        new JavaTestKit(system) {{
+            ActorRef coffeeHouse = system.actorOf(CoffeeHouse.props(Integer.MAX_VALUE), "generate-load");
+            coffeeHouse.tell(new CoffeeHouse.GenerateLoad(20, duration("1 second"),
+                    ImmutableMap.of(new Coffee.Akkaccino(), 1, new Coffee.MochaPlay(), 1)), getRef());
+            LoadGenerator.Report report = expectMsgClass(duration("10 seconds"), LoadGenerator.Report.class);
+            assertThat(report.arrivals).isGreaterThan(0);
+            assertThat(report.served).isEqualTo(report.arrivals);
+            assertThat(report.percentiles.get(50.0)).isGreaterThanOrEqualTo(100_000_000L);
+            coffeeHouse.tell(CoffeeHouse.GetStatus.Instance, getRef());
+            assertThat(expectMsgClass(CoffeeHouse.Status.class).guestCount).isEqualTo(0);
+        }};
+    }
+
+    @Test
+    public void baristasServingDirectlyShouldStillCompleteAdmittedOrders() {
+        ActorSystem serveDirectly = ActorSystem.create("serve-directly", ConfigFactory.parseString(
+                "akka.loglevel = off\n"
+                        + "coffee-house.barista.serve-directly = on\n"
+                        + "coffee-house.admission.policy = queue")
+                .withFallback(ConfigFactory.load()));
+        try {
+            new JavaTestKit(serveDirectly) {{
+                ActorRef coffeeHouse = serveDirectly.actorOf(CoffeeHouse.props(2), "coffee-house");
+                for (int i = 0; i < 3; i++)
+                    coffeeHouse.tell(new CoffeeHouse.CreateGuest(new Coffee.Akkaccino(), 10), ActorRef.noSender());
+                new AwaitAssert(duration("10 seconds"), duration("200 milliseconds")) {
+                    @Override
+                    protected void check() {
+                        coffeeHouse.tell(CoffeeHouse.GetStatus.Instance, getRef());
+                        CoffeeHouse.Status status = expectMsgClass(CoffeeHouse.Status.class);
+                        assertThat(status.guestCount).isEqualTo(0);
+                        assertThat(status.admission.admitted).isPositive();
+                        assertThat(status.admission.inFlight).isEqualTo(0);
+                    }
+                };
+            }};
+        } finally {
+            JavaTestKit.shutdownActorSystem(serveDirectly);
+        }
+    }
+
     @Test
     public void sendingApproveCoffeeShouldForwardPrepareCoffeeIfCaffeineLimitNotReached() {
         new JavaTestKit(system) {{
@@ -56,6 +137,55 @@ public class CoffeeHouseTest extends BaseAkkaTestCase {
         }};
     }
 
+    @Test
+    public void sendingApproveCoffeeShouldQueuePrepareCoffeeUntilOrderCompletedIfAdmissionLimitReached() {
+        new JavaTestKit(system) {{
+            ActorRef coffeeHouse = createActor(CoffeeHouse.class, "admission-queue", () -> new CoffeeHouse(Integer.MAX_VALUE) {
+                @Override
+                protected ActorRef createBarista() {
+                    return getRef();
+                }
+
+                @Override
+                protected AdmissionControl createAdmissionControl() {
+                    return new AdmissionControl(AdmissionControl.Policy.QUEUE, 1);
+                }
+            });
+            coffeeHouse.tell(new CoffeeHouse.CreateGuest(new Coffee.Akkaccino(), Integer.MAX_VALUE), ActorRef.noSender());
+            ActorRef guest = expectActor(this, "/user/admission-queue/$*");
+            expectMsgEquals(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest));
+            coffeeHouse.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), getRef());
+            expectNoMsg(duration("100 milliseconds"));
+            coffeeHouse.tell(new CoffeeHouse.OrderCompleted(0), ActorRef.noSender());
+            expectMsgEquals(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest));
+        }};
+    }
+
+    @Test
+    public void sendingApproveCoffeeShouldShedOrderIfAdmissionLimitReached() {
+        new JavaTestKit(system) {{
+            ActorRef coffeeHouse = createActor(CoffeeHouse.class, "admission-shed", () -> new CoffeeHouse(Integer.MAX_VALUE) {
+                @Override
+                protected ActorRef createBarista() {
+                    return getRef();
+                }
+
+                @Override
+                protected AdmissionControl createAdmissionControl() {
+                    return new AdmissionControl(AdmissionControl.Policy.SHED, 1);
+                }
+            });
+            coffeeHouse.tell(new CoffeeHouse.CreateGuest(new Coffee.Akkaccino(), Integer.MAX_VALUE), ActorRef.noSender());
+            ActorRef guest = expectActor(this, "/user/admission-shed/$*");
+            expectMsgEquals(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest));
+            coffeeHouse.tell(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest), getRef());
+            coffeeHouse.tell(CoffeeHouse.GetStatus.Instance, getRef());
+            CoffeeHouse.Status status = expectMsgClass(CoffeeHouse.Status.class);
+            assertThat(status.admission.inFlight).isEqualTo(1);
+            assertThat(status.admission.shed).isEqualTo(1);
+        }};
+    }
+
     @Test
     public void sendingApproveCoffeeShouldResultInLoggingStatusMessageWhenLimitReached() {
         new JavaTestKit(system) {{
@@ -79,6 +209,20 @@ public class CoffeeHouseTest extends BaseAkkaTestCase {
         }};
     }
 
+    @Test
+    public void sendingApproveCoffeeForUnknownGuestShouldLogWarningAndNotStopGuest() {
+        new JavaTestKit(system) {{
+            ActorRef coffeeHouse = system.actorOf(CoffeeHouse.props(1), "unknown-guest");
+            TestProbe guest = new TestProbe(system);
+            watch(guest.ref());
+            eventFilter(this, Logging.Warning.class, ".*unknown.*", 1, () -> coffeeHouse.tell(
+                    new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref()), ActorRef.noSender()));
+            expectNoMsg(duration("100 milliseconds"));
+            coffeeHouse.tell(CoffeeHouse.GetStatus.Instance, getRef());
+            assertThat(expectMsgClass(CoffeeHouse.Status.class).guestCount).isEqualTo(0);
+        }};
+    }
+
     @Test
     public void onTerminationOfGuestCoffeeHouseShouldRemoveGuestFromBookkeeper() {
         new JavaTestKit(system) {{
@@ -104,29 +248,134 @@ public class CoffeeHouseTest extends BaseAkkaTestCase {
     }
 
     @Test
-    public void shouldRestartWaiterAndResendPrepareCoffeeToBaristaOnFailure() {
+    public void shouldRestartFrustratedWaiterOfPoolAndResendPrepareCoffeeOnItsBehalf() {
         new JavaTestKit(system) {{
-            createActor(CoffeeHouse.class, "resend-prepare-coffee", () -> new CoffeeHouse(Integer.MAX_VALUE) {
+            createActor(CoffeeHouse.class, "frustrated-waiter", () -> new CoffeeHouse(Integer.MAX_VALUE) {
                 @Override
                 protected ActorRef createBarista() {
                     return getRef();
                 }
+            });
+            ActorRef waiters = expectActor(this, "/user/frustrated-waiter/waiter");
+            TestProbe guest = new TestProbe(system);
+            // Two complaints are remade, the third frustrates the waiter, the fourth goes to its new incarnation
+            for (int i = 0; i < 4; i++) {
+                waiters.tell(new Waiter.Complaint(new Coffee.Akkaccino(), guest.ref()), guest.ref());
+                expectMsgEquals(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref(), true, -1, false, 0));
+                assertThat(getLastSender().path().parent()).isEqualTo(waiters.path());
+            }
+        }};
+    }
+
+    @Test
+    public void sendingGetStatusShouldResultInStatusResponse() {
+        new JavaTestKit(system) {{
+            ActorRef coffeeHouse = system.actorOf(CoffeeHouse.props(Integer.MAX_VALUE), "get-status");
+            coffeeHouse.tell(new CoffeeHouse.CreateGuest(new Coffee.Akkaccino(), Integer.MAX_VALUE), ActorRef.noSender());
+            expectActor(this, "/user/get-status/$*");
+            coffeeHouse.tell(CoffeeHouse.GetStatus.Instance, getRef());
+            CoffeeHouse.Status status = expectMsgClass(CoffeeHouse.Status.class);
+            assertThat(status.guestCount).isEqualTo(1);
+        }};
+    }
+
+    @Test
+    public void sendingGetStatusShouldReplyWithPartialStatusIfBookkeepersDoNotReply() {
+        new JavaTestKit(system) {{
+            ActorRef coffeeHouse = system.actorOf(Props.create(CoffeeHouse.class, () -> new CoffeeHouse(1) {
+                @Override
+                protected ActorRef createBookkeeper() {
+                    return context().actorOf(Props.create(Silent.class, Silent::new), "bookkeeper");
+                }
+            }), "status-timeout");
+            eventFilter(this, Logging.Warning.class, ".*without the admission stats of 1 of 1.*", 1, () ->
+                    coffeeHouse.tell(CoffeeHouse.GetStatus.Instance, getRef()));
+            CoffeeHouse.Status status = expectMsgClass(CoffeeHouse.Status.class);
+            assertThat(status.admission.admitted).isEqualTo(0);
+            expectNoMsg(duration("1500 milliseconds"));
+        }};
+    }
 
+    @Test
+    public void shouldReportOrderMetricsInStatus() {
+        new JavaTestKit(system) {{
+            ActorRef coffeeHouse = system.actorOf(CoffeeHouse.props(Integer.MAX_VALUE), "order-metrics");
+            coffeeHouse.tell(new CoffeeHouse.CreateGuest(new Coffee.Akkaccino(), Integer.MAX_VALUE), ActorRef.noSender());
+            new AwaitAssert(duration("3 seconds")) {
                 @Override
-                protected ActorRef createWaiter() { //stubbing out the waiter actor to always throw exception
-                    return context().actorOf(Props.create(AbstractActor.class, () -> new AbstractActor() {
-                        @Override
-                        public Receive createReceive() {
-                            return receiveBuilder().matchAny(o -> {
-                                throw new Waiter.FrustratedException(new Coffee.Akkaccino(), system.deadLetters());
-                            }).build();
-                        }
-                    }), "waiter");
+                protected void check() {
+                    coffeeHouse.tell(CoffeeHouse.GetStatus.Instance, getRef());
+                    CoffeeHouse.Status status = expectMsgClass(CoffeeHouse.Status.class);
+                    assertThat(status.metrics.latencies.get(50.0)).isGreaterThanOrEqualTo(100_000_000L);
+                    assertThat(status.metrics.inFlight).containsOnlyKeys(OrderMetrics.Stage.values());
+                    assertThat(status.baristaPoolSizes).containsExactly(entry("barista", 4));
+                    assertThat(status.baristaUtilization).isBetween(0.0, 0.25);
                 }
-            });
-            ActorRef waiter = expectActor(this, "/user/resend-prepare-coffee/waiter");
-            waiter.tell("Blow up", ActorRef.noSender());
-            expectMsgEquals(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()));
+            };
         }};
     }
-}
\ No newline at end of file
+
+    @Test
+    public void orderMetricsShouldReturnToZeroAfterDropsAndRemakes() {
+        // Guests get every other coffee wrong and order ahead; they want more coffees than the coffee
+        // house allows, so the bookkeepers stop them with orders still in flight
+        ActorSystem drainSystem = ActorSystem.create("order-metrics-drain", ConfigFactory.parseString(
+                "akka.loglevel = off\n"
+                        + "coffee-house.barista.accuracy = 50\n"
+                        + "coffee-house.guest.prefetch = 2").withFallback(ConfigFactory.load()));
+        try {
+            new JavaTestKit(drainSystem) {{
+                ActorRef coffeeHouse = drainSystem.actorOf(CoffeeHouse.props(4), "coffee-house");
+                for (int i = 0; i < 5; i++)
+                    coffeeHouse.tell(new CoffeeHouse.CreateGuest(new Coffee.Akkaccino(), 10), ActorRef.noSender());
+                new AwaitAssert(duration("10 seconds"), duration("200 milliseconds")) {
+                    @Override
+                    protected void check() {
+                        coffeeHouse.tell(CoffeeHouse.GetStatus.Instance, getRef());
+                        CoffeeHouse.Status status = expectMsgClass(CoffeeHouse.Status.class);
+                        assertThat(status.guestCount).isEqualTo(0);
+                        assertThat(status.droppedOrders + status.droppedServings).isPositive();
+                        assertThat(status.baristaRemakeQueueingDelays.get("barista").count).isPositive();
+                        assertThat(status.metrics.inFlight).containsOnly(
+                                entry(OrderMetrics.Stage.APPROVING, 0L),
+                                entry(OrderMetrics.Stage.WAITING_FOR_BARISTA, 0L),
+                                entry(OrderMetrics.Stage.BREWING, 0L),
+                                entry(OrderMetrics.Stage.SERVING, 0L));
+                    }
+                };
+            }};
+        } finally {
+            JavaTestKit.shutdownActorSystem(drainSystem);
+        }
+    }
+
+    @Test
+    public void shouldCountDeadLettersByMessageInStatus() {
+        new JavaTestKit(system) {{
+            ActorRef coffeeHouse = system.actorOf(CoffeeHouse.props(Integer.MAX_VALUE), "dead-letters");
+            TestProbe guest = new TestProbe(system);
+            watch(guest.ref());
+            system.stop(guest.ref());
+            expectTerminated(guest.ref());
+            coffeeHouse.tell(CoffeeHouse.GetStatus.Instance, getRef());
+            expectMsgClass(CoffeeHouse.Status.class);
+            guest.ref().tell(new Waiter.CoffeeServed(new Coffee.Akkaccino()), ActorRef.noSender());
+            new AwaitAssert(duration("1 second")) {
+                @Override
+                protected void check() {
+                    coffeeHouse.tell(CoffeeHouse.GetStatus.Instance, getRef());
+                    assertThat(expectMsgClass(CoffeeHouse.Status.class).deadLetters).containsEntry("CoffeeServed", 1L);
+                }
+            };
+        }};
+    }
+
+    private static class Silent extends AbstractActor {
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder().matchAny(message -> {
+            }).build();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.testkit.JavaTestKit;
+import akka.testkit.TestProbe;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class CoffeeLanesTest extends BaseAkkaTestCase {
+
+    @Test
+    public void shouldRoutePrepareCoffeeToLaneOfItsCoffee() {
+        new JavaTestKit(system) {{
+            TestProbe akkaccino = new TestProbe(system, "akkaccino");
+            TestProbe caffeJava = new TestProbe(system, "caffe-java");
+            TestProbe mochaPlay = new TestProbe(system, "mocha-play");
+            ActorRef lanes = system.actorOf(new CoffeeLanes(Arrays.asList(
+                    akkaccino.ref().path().toStringWithoutAddress(),
+                    caffeJava.ref().path().toStringWithoutAddress(),
+                    mochaPlay.ref().path().toStringWithoutAddress())).props());
+            lanes.tell(new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters()), getRef());
+            lanes.tell(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()), getRef());
+            lanes.tell(new Barista.PrepareCoffee(new Coffee.CaffeJava(), system.deadLetters()), getRef());
+            mochaPlay.expectMsg(new Barista.PrepareCoffee(new Coffee.MochaPlay(), system.deadLetters()));
+            akkaccino.expectMsg(new Barista.PrepareCoffee(new Coffee.Akkaccino(), system.deadLetters()));
+            caffeJava.expectMsg(new Barista.PrepareCoffee(new Coffee.CaffeJava(), system.deadLetters()));
+            akkaccino.expectNoMsg(duration("100 milliseconds"));
+        }};
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRequireOneLanePerCoffee() {
+        new CoffeeLanes(Arrays.asList("/user/akkaccino"));
+    }
+}
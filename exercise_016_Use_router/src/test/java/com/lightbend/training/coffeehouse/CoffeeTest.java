@@ -3,6 +3,8 @@ package com.lightbend.training.coffeehouse;
 import com.google.common.collect.ImmutableSet;
 import org.junit.Test;
 
+import java.lang.management.ManagementFactory;
+
 import static com.lightbend.training.coffeehouse.Coffee.*;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.fail;
@@ -39,4 +41,23 @@ public class CoffeeTest {
     public void otherDrinkShouldReturnDrinkDifferentFromGivenCode() {
         COFFEES.forEach(c -> assertThat(orderOther(c)).isNotEqualTo(c));
     }
+
+    @Test
+    public void otherDrinkShouldNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        Coffee coffee = new Akkaccino();
+        for (int i = 0; i < 100_000; i++) coffee = orderOther(coffee);
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100_000; i++) coffee = orderOther(coffee);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        assertThat(allocated).isLessThan(100_000);
+    }
+
+    @Test
+    public void nameShouldBeHyphenatedLowerCaseClassName() {
+        assertThat(name(new Akkaccino())).isEqualTo("akkaccino");
+        assertThat(name(new CaffeJava())).isEqualTo("caffe-java");
+        assertThat(name(new MochaPlay())).isEqualTo("mocha-play");
+    }
 }
@@ -0,0 +1,34 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.testkit.TestProbe;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DepartedGuestsTest extends BaseAkkaTestCase {
+
+    @Test
+    public void shouldTellDepartedGuestByIdAndActorRef() {
+        DepartedGuests departedGuests = new DepartedGuests();
+        ActorRef guest = new TestProbe(system).ref();
+        ActorRef newGuest = new TestProbe(system).ref();
+        departedGuests.depart(3, guest);
+        assertThat(departedGuests.hasDeparted(3, guest)).isTrue();
+        assertThat(departedGuests.hasDeparted(4, guest)).isFalse();
+        assertThat(departedGuests.hasDeparted(-1, guest)).isFalse();
+        assertThat(departedGuests.hasDeparted(3, newGuest)).isFalse();
+    }
+
+    @Test
+    public void shouldKeepLastDepartureOfIdBeyondInitialCapacity() {
+        DepartedGuests departedGuests = new DepartedGuests();
+        ActorRef guest = new TestProbe(system).ref();
+        ActorRef nextGuest = new TestProbe(system).ref();
+        departedGuests.depart(100, guest);
+        departedGuests.depart(100, nextGuest);
+        assertThat(departedGuests.hasDeparted(100, guest)).isFalse();
+        assertThat(departedGuests.hasDeparted(100, nextGuest)).isTrue();
+        assertThat(departedGuests.hasDeparted(1000, guest)).isFalse();
+    }
+}
@@ -0,0 +1,73 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.testkit.TestProbe;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GuestRegistryTest extends BaseAkkaTestCase {
+
+    @Test
+    public void shouldResolveGuestByActorRefIfGuestIdIsUnknownOrStale() {
+        GuestRegistry registry = new GuestRegistry();
+        ActorRef guest = new TestProbe(system).ref();
+        ActorRef otherGuest = new TestProbe(system).ref();
+        int guestId = registry.reserve();
+        registry.add(guestId, guest);
+        int otherGuestId = registry.reserve();
+        registry.add(otherGuestId, otherGuest);
+        assertThat(registry.resolve(guestId, guest)).isEqualTo(guestId);
+        assertThat(registry.resolve(-1, guest)).isEqualTo(guestId);
+        assertThat(registry.resolve(otherGuestId, guest)).isEqualTo(guestId);
+        assertThat(registry.resolve(-1, new TestProbe(system).ref())).isEqualTo(-1);
+    }
+
+    @Test
+    public void shouldRecycleIdsOfRemovedGuests() {
+        GuestRegistry registry = new GuestRegistry();
+        ActorRef guest = new TestProbe(system).ref();
+        int guestId = registry.reserve();
+        registry.add(guestId, guest);
+        assertThat(registry.remove(guest)).isEqualTo(guestId);
+        assertThat(registry.remove(guest)).isEqualTo(-1);
+        assertThat(registry.size()).isEqualTo(0);
+        assertThat(registry.resolve(guestId, guest)).isEqualTo(-1);
+        assertThat(registry.reserve()).isEqualTo(guestId);
+    }
+
+    @Test
+    public void shouldRemoveGuestsSharingAnActorRefByIdOrAllAtOnce() {
+        GuestRegistry registry = new GuestRegistry();
+        ActorRef simulator = new TestProbe(system).ref();
+        ActorRef guest = new TestProbe(system).ref();
+        int firstId = registry.reserve();
+        registry.add(firstId, simulator);
+        int guestId = registry.reserve();
+        registry.add(guestId, guest);
+        int secondId = registry.reserve();
+        registry.add(secondId, simulator);
+        int thirdId = registry.reserve();
+        registry.add(thirdId, simulator);
+        assertThat(registry.resolve(secondId, simulator)).isEqualTo(secondId);
+        assertThat(registry.remove(secondId)).isTrue();
+        assertThat(registry.remove(secondId)).isFalse();
+        assertThat(registry.size()).isEqualTo(3);
+        List<Integer> removed = new ArrayList<>();
+        registry.removeAll(simulator, removed::add);
+        assertThat(removed).containsExactly(firstId, thirdId);
+        assertThat(registry.size()).isEqualTo(1);
+        assertThat(registry.resolve(-1, simulator)).isEqualTo(-1);
+        assertThat(registry.resolve(guestId, guest)).isEqualTo(guestId);
+    }
+
+    @Test
+    public void shouldGrowBeyondInitialCapacity() {
+        GuestRegistry registry = new GuestRegistry();
+        for (int i = 0; i < 100; i++) registry.add(registry.reserve(), new TestProbe(system).ref());
+        assertThat(registry.size()).isEqualTo(100);
+    }
+}
@@ -0,0 +1,129 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.testkit.JavaTestKit;
+import akka.testkit.TestProbe;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GuestSimulatorTest extends BaseAkkaTestCase {
+
+    @Test
+    public void shouldOrderFavoriteCoffeeOfEachGuestUnderItsId() {
+        new JavaTestKit(system) {{
+            createSimulator(this, new TestProbe(system).ref(), new int[]{3, 7},
+                    new Coffee[]{new Coffee.Akkaccino(), new Coffee.MochaPlay()}, new int[]{0, 0});
+            Waiter.ServeCoffee serveCoffee = expectMsgEquals(new Waiter.ServeCoffee(new Coffee.Akkaccino(), 3));
+            ActorRef simulator = getLastSender();
+            assertThat(serveCoffee.guest).isEqualTo(simulator);
+            expectMsgEquals(new Waiter.ServeCoffee(new Coffee.MochaPlay(), 7));
+            assertThat(getLastSender()).isEqualTo(simulator);
+        }};
+    }
+
+    @Test
+    public void shouldOrderAgainAfterFinishCoffeeDurationAndLeaveOnceCaffeineLimitExceeded() {
+        new JavaTestKit(system) {{
+            TestProbe parent = new TestProbe(system);
+            createSimulator(this, parent.ref(), new int[]{5}, new Coffee[]{new Coffee.Akkaccino()}, new int[]{1});
+            expectMsgEquals(new Waiter.ServeCoffee(new Coffee.Akkaccino(), 5));
+            ActorRef simulator = getLastSender();
+            watch(simulator);
+            new Within(duration("50 milliseconds"), duration("300 milliseconds")) {
+                @Override
+                protected void run() {
+                    simulator.tell(new Waiter.CoffeeServed(new Coffee.Akkaccino(), 5), getRef());
+                    expectMsgEquals(new Waiter.ServeCoffee(new Coffee.Akkaccino(), 5));
+                }
+            };
+            simulator.tell(new Waiter.CoffeeServed(new Coffee.Akkaccino(), 5), getRef());
+            parent.expectMsg(new GuestSimulator.GuestLeft(5));
+            expectTerminated(simulator);
+        }};
+    }
+
+    @Test
+    public void shouldComplainAboutWrongCoffeeAndIgnoreUnknownGuests() {
+        new JavaTestKit(system) {{
+            createSimulator(this, new TestProbe(system).ref(), new int[]{5},
+                    new Coffee[]{new Coffee.Akkaccino()}, new int[]{0});
+            expectMsgEquals(new Waiter.ServeCoffee(new Coffee.Akkaccino(), 5));
+            ActorRef simulator = getLastSender();
+            simulator.tell(new Waiter.CoffeeServed(new Coffee.MochaPlay(), 5), getRef());
+            Waiter.Complaint complaint = expectMsgClass(Waiter.Complaint.class);
+            assertThat(complaint.guestId).isEqualTo(5);
+            assertThat(complaint.coffee).isEqualTo(new Coffee.Akkaccino());
+            simulator.tell(new Waiter.CoffeeServed(new Coffee.Akkaccino(), 42), getRef());
+            simulator.tell(new Waiter.ComeBackLater(-1), getRef());
+            expectNoMsg(duration("300 milliseconds"));
+        }};
+    }
+
+    @Test
+    public void shouldCountOrdersPlacedAgainAfterComeBackLaterAgainstCaffeineLimit() {
+        new JavaTestKit(system) {{
+            TestProbe parent = new TestProbe(system);
+            createSimulator(this, parent.ref(), new int[]{5}, new Coffee[]{new Coffee.Akkaccino()}, new int[]{0});
+            expectMsgEquals(new Waiter.ServeCoffee(new Coffee.Akkaccino(), 5));
+            ActorRef simulator = getLastSender();
+            simulator.tell(new Waiter.ComeBackLater(5), getRef());
+            parent.expectMsg(new GuestSimulator.GuestLeft(5));
+            expectNoMsg(duration("100 milliseconds"));
+        }};
+    }
+
+    @Test
+    public void shouldRecordLatencyFromArrivalUntilFavoriteCoffeeServed() {
+        new JavaTestKit(system) {{
+            LatencyHistogram latencies = new LatencyHistogram();
+            long arrivedAt = System.nanoTime() - 1_000_000_000L;
+            Props props = GuestSimulator.props(getRef(), new int[]{5}, new Coffee[]{new Coffee.Akkaccino()},
+                    new int[]{0}, new long[]{arrivedAt}, latencies::record, duration("100 milliseconds"),
+                    duration("10 milliseconds"));
+            system.actorOf(Props.create(Forwarder.class, () -> new Forwarder(props, new TestProbe(system).ref())));
+            expectMsgEquals(new Waiter.ServeCoffee(new Coffee.Akkaccino(), 5));
+            ActorRef simulator = getLastSender();
+            simulator.tell(new Waiter.CoffeeServed(new Coffee.MochaPlay(), 5), getRef());
+            expectMsgClass(Waiter.Complaint.class);
+            assertThat(latencies.count()).isEqualTo(0);
+            simulator.tell(new Waiter.CoffeeServed(new Coffee.Akkaccino(), 5), getRef());
+            new AwaitAssert(duration("1 second")) {
+                @Override
+                protected void check() {
+                    assertThat(latencies.count()).isEqualTo(1);
+                }
+            };
+            assertThat(latencies.max()).isGreaterThanOrEqualTo(1_000_000_000L);
+        }};
+    }
+
+    /**
+     * Creates the simulator as child of an actor forwarding the messages of its child to `parent`; the
+     * simulator is the sender of its first order.
+     */
+    private void createSimulator(JavaTestKit kit, ActorRef parent, int[] guestIds, Coffee[] favoriteCoffees,
+                                     int[] caffeineLimits) {
+        Props props = GuestSimulator.props(kit.getRef(), guestIds, favoriteCoffees, caffeineLimits,
+                kit.duration("100 milliseconds"), kit.duration("10 milliseconds"));
+        system.actorOf(Props.create(Forwarder.class, () -> new Forwarder(props, parent)));
+    }
+
+    private static class Forwarder extends AbstractActor {
+
+        private final ActorRef parent;
+
+        Forwarder(Props props, ActorRef parent) {
+            this.parent = parent;
+            context().actorOf(props);
+        }
+
+        @Override
+        public Receive createReceive() {
+            return receiveBuilder().
+                    matchAny(message -> parent.forward(message, context())).build();
+        }
+    }
+}
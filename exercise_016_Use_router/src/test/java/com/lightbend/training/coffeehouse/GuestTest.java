@@ -2,8 +2,11 @@ package com.lightbend.training.coffeehouse;
 
 import akka.actor.ActorRef;
 import akka.testkit.JavaTestKit;
+import akka.testkit.TestProbe;
 import org.junit.Test;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 public class GuestTest extends BaseAkkaTestCase {
 
     @Test
@@ -58,6 +61,70 @@ public class GuestTest extends BaseAkkaTestCase {
         }};
     }
 
+    @Test
+    public void comeBackLaterShouldResultInServeCoffeeAfterFinishCoffeeDuration() {
+        new JavaTestKit(system) {{
+            ActorRef guest = createGuest(this, getRef());
+            new Within(duration("50 milliseconds"), duration("200 milliseconds")) {
+                @Override
+                protected void run() {
+                    guest.tell(Waiter.ComeBackLater.Instance, ActorRef.noSender());
+                    expectMsgEquals(new Waiter.ServeCoffee(new Coffee.Akkaccino()));
+                }
+            };
+        }};
+    }
+
+    @Test
+    public void guestWithPrefetchShouldOrderAheadAndDrinkPrefetchedCoffeeRightAfterCurrentOne() {
+        new JavaTestKit(system) {{
+            ActorRef guest = system.actorOf(Guest.props(-1, getRef(), new Coffee.Akkaccino(), Integer.MAX_VALUE,
+                    new Guest.Settings(duration("100 milliseconds")).withPrefetch(1),
+                    null, LogSampler.None, OrderMetrics.None));
+            expectMsgAllOf(new Waiter.ServeCoffee(new Coffee.Akkaccino()), new Waiter.ServeCoffee(new Coffee.Akkaccino()));
+            guest.tell(new Waiter.CoffeeServed(new Coffee.Akkaccino()), ActorRef.noSender());
+            guest.tell(new Waiter.CoffeeServed(new Coffee.Akkaccino()), ActorRef.noSender());
+            new Within(duration("150 milliseconds"), duration("350 milliseconds")) {
+                @Override
+                protected void run() {
+                    expectMsgEquals(new Waiter.ServeCoffee(new Coffee.Akkaccino()));
+                    expectMsgEquals(new Waiter.ServeCoffee(new Coffee.Akkaccino()));
+                }
+            };
+        }};
+    }
+
+    @Test
+    public void guestWithPrefetchShouldNotOrderMoreCoffeesThanItsCaffeineLimitAllows() {
+        new JavaTestKit(system) {{
+            ActorRef guest = system.actorOf(Guest.props(-1, getRef(), new Coffee.Akkaccino(), 1,
+                    new Guest.Settings(duration("50 milliseconds")).withPrefetch(3),
+                    null, LogSampler.None, OrderMetrics.None));
+            expectMsgAllOf(new Waiter.ServeCoffee(new Coffee.Akkaccino()), new Waiter.ServeCoffee(new Coffee.Akkaccino()));
+            guest.tell(new Waiter.CoffeeServed(new Coffee.Akkaccino()), ActorRef.noSender());
+            expectNoMsg(duration("150 milliseconds"));
+            eventFilter(this, Guest.CaffeineException.class, "", 1, () ->
+                    guest.tell(new Waiter.CoffeeServed(new Coffee.Akkaccino()), ActorRef.noSender())
+            );
+        }};
+    }
+
+    @Test
+    public void guestWithTimerShouldScheduleCoffeeFinishedOnIt() {
+        new JavaTestKit(system) {{
+            TestProbe timer = new TestProbe(system);
+            ActorRef guest = system.actorOf(Guest.props(-1, getRef(), new Coffee.Akkaccino(), Integer.MAX_VALUE,
+                    new Guest.Settings(duration("100 milliseconds")),
+                    timer.ref(), LogSampler.None, OrderMetrics.None));
+            expectMsgEquals(new Waiter.ServeCoffee(new Coffee.Akkaccino()));
+            guest.tell(new Waiter.CoffeeServed(new Coffee.Akkaccino()), ActorRef.noSender());
+            GuestTimer.Schedule schedule = timer.expectMsgClass(GuestTimer.Schedule.class);
+            assertThat(schedule.message).isSameAs(Guest.CoffeeFinished.Instance);
+            assertThat(schedule.delayNanos).isEqualTo(duration("100 milliseconds").toNanos());
+            expectNoMsg(duration("200 milliseconds"));
+        }};
+    }
+
     private ActorRef createGuest(JavaTestKit kit, ActorRef waiter) {
         ActorRef guest = system.actorOf(Guest.props(waiter, new Coffee.Akkaccino(), kit.duration("100 milliseconds"), Integer.MAX_VALUE));
         kit.expectMsgEquals(new Waiter.ServeCoffee(new Coffee.Akkaccino())); // Creating Guest immediately sends Waiter.ServeCoffee
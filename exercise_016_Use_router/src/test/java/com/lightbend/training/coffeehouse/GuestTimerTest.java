@@ -0,0 +1,38 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.testkit.JavaTestKit;
+import akka.testkit.TestProbe;
+import org.junit.Test;
+
+public class GuestTimerTest extends BaseAkkaTestCase {
+
+    @Test
+    public void sendingScheduleShouldResultInMessageAfterDelay() {
+        new JavaTestKit(system) {{
+            ActorRef guestTimer = system.actorOf(GuestTimer.props(duration("10 milliseconds")));
+            new Within(duration("100 milliseconds"), duration("300 milliseconds")) {
+                @Override
+                protected void run() {
+                    guestTimer.tell(new GuestTimer.Schedule(duration("100 milliseconds"), "finished"), getRef());
+                    expectMsgEquals("finished");
+                }
+            };
+        }};
+    }
+
+    @Test
+    public void sendingCancelShouldDropTimersOfSenderScheduledSoFar() {
+        new JavaTestKit(system) {{
+            ActorRef guestTimer = system.actorOf(GuestTimer.props(duration("10 milliseconds")));
+            TestProbe otherGuest = new TestProbe(system);
+            guestTimer.tell(new GuestTimer.Schedule(duration("100 milliseconds"), "finished"), getRef());
+            guestTimer.tell(new GuestTimer.Schedule(duration("100 milliseconds"), "finished"), otherGuest.ref());
+            guestTimer.tell(GuestTimer.Cancel.Instance, getRef());
+            otherGuest.expectMsg("finished");
+            expectNoMsg(duration("200 milliseconds"));
+            guestTimer.tell(new GuestTimer.Schedule(duration("50 milliseconds"), "finished"), getRef());
+            expectMsgEquals("finished");
+        }};
+    }
+}
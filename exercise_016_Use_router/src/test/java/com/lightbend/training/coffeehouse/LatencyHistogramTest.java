@@ -0,0 +1,43 @@
+package com.lightbend.training.coffeehouse;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void shouldCountSmallValuesExactly() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100; value++) histogram.record(value);
+        assertThat(histogram.count()).isEqualTo(100);
+        assertThat(histogram.valueAtPercentile(50)).isEqualTo(50);
+        assertThat(histogram.valueAtPercentile(99)).isEqualTo(99);
+        assertThat(histogram.valueAtPercentile(100)).isEqualTo(100);
+        assertThat(histogram.max()).isEqualTo(100);
+    }
+
+    @Test
+    public void shouldReportLargeValuesWithinOnePercent() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long millis = 1; millis <= 1000; millis++) histogram.record(millis * 1_000_000);
+        assertThat((double) histogram.valueAtPercentile(50)).isCloseTo(500e6, within(5e6));
+        assertThat((double) histogram.valueAtPercentile(99.9)).isCloseTo(999e6, within(9.99e6));
+        assertThat(histogram.valueAtPercentile(100)).isEqualTo(1_000_000_000L);
+    }
+
+    @Test
+    public void shouldMapEachValueToBucketItDoesNotExceed() {
+        for (long value : new long[]{0, 255, 256, 257, 511, 512, 1_000_000, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.index(value);
+            assertThat(LatencyHistogram.highestValue(index)).isGreaterThanOrEqualTo(value);
+            assertThat(index == 0 || LatencyHistogram.highestValue(index - 1) < value).isTrue();
+        }
+    }
+
+    @Test
+    public void shouldReportZeroIfEmpty() {
+        assertThat(new LatencyHistogram().valueAtPercentile(99)).isEqualTo(0);
+    }
+}
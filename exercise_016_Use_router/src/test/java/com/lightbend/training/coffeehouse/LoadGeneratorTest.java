@@ -0,0 +1,70 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.actor.PoisonPill;
+import akka.testkit.JavaTestKit;
+import akka.testkit.TestProbe;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LoadGeneratorTest extends BaseAkkaTestCase {
+
+    @Test
+    public void shouldLetGuestsArriveAtRateWithCoffeesFromMixUntilDurationIsOver() {
+        new JavaTestKit(system) {{
+            TestProbe coffeeHouse = new TestProbe(system);
+            system.actorOf(LoadGenerator.props(coffeeHouse.ref(), getRef(), 1000, duration("1 second"),
+                    ImmutableMap.of(new Coffee.Akkaccino(), 1, new Coffee.MochaPlay(), 0),
+                    duration("10 milliseconds"), duration("5 seconds"), new Random(42)));
+            int arrivals = 0;
+            long lastArrivedAt = 0;
+            while (true) {
+                Object message = coffeeHouse.receiveOne(duration("1 second"));
+                if (message == null) break;
+                CoffeeHouse.SimulateArrivals simulateArrivals = (CoffeeHouse.SimulateArrivals) message;
+                for (int i = 0; i < simulateArrivals.arrivedAt.length; i++) {
+                    assertThat(simulateArrivals.arrivedAt[i]).isGreaterThanOrEqualTo(lastArrivedAt);
+                    assertThat(simulateArrivals.favoriteCoffees[i]).isEqualTo(new Coffee.Akkaccino());
+                    lastArrivedAt = simulateArrivals.arrivedAt[i];
+                }
+                arrivals += simulateArrivals.arrivedAt.length;
+                coffeeHouse.reply(new TestProbe(system).ref());
+            }
+            // A Poisson process of 1000 arrivals on average deviates by 3 standard deviations in 0.3% of runs
+            assertThat(arrivals).isBetween(900, 1100);
+            LoadGenerator.Report report = expectMsgClass(duration("6 seconds"), LoadGenerator.Report.class);
+            assertThat(report.arrivals).isEqualTo(arrivals);
+            assertThat(report.served).isEqualTo(0);
+        }};
+    }
+
+    @Test
+    public void shouldReportOnceAllSimulatorsHaveStopped() {
+        new JavaTestKit(system) {{
+            TestProbe coffeeHouse = new TestProbe(system);
+            system.actorOf(LoadGenerator.props(coffeeHouse.ref(), getRef(), 100, duration("100 milliseconds"),
+                    ImmutableMap.of(new Coffee.Akkaccino(), 1), duration("10 milliseconds"), duration("10 seconds"),
+                    new Random(42)));
+            CoffeeHouse.SimulateArrivals simulateArrivals =
+                    coffeeHouse.expectMsgClass(CoffeeHouse.SimulateArrivals.class);
+            TestProbe simulator = new TestProbe(system);
+            coffeeHouse.reply(simulator.ref());
+            for (long arrivedAt : simulateArrivals.arrivedAt)
+                simulateArrivals.latencies.record(System.nanoTime() - arrivedAt);
+            while (coffeeHouse.receiveOne(duration("300 milliseconds")) != null) {
+                TestProbe stopped = new TestProbe(system);
+                coffeeHouse.reply(stopped.ref());
+                system.stop(stopped.ref());
+            }
+            expectNoMsg(duration("200 milliseconds"));
+            simulator.ref().tell(PoisonPill.getInstance(), ActorRef.noSender());
+            LoadGenerator.Report report = expectMsgClass(LoadGenerator.Report.class);
+            assertThat(report.served).isEqualTo(simulateArrivals.arrivedAt.length);
+            assertThat(report.percentiles.keySet()).containsExactly(50.0, 90.0, 99.0, 99.9);
+        }};
+    }
+}
@@ -0,0 +1,53 @@
+package com.lightbend.training.coffeehouse;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LogSamplerTest {
+
+    @Test
+    public void shouldLogOneInEveryMessagesPerTemplate() {
+        LogSampler logSampler = new LogSampler(3, 0);
+        List<Boolean> yummy = new ArrayList<>();
+        for (int i = 0; i < 7; i++) yummy.add(logSampler.sample("yummy"));
+        assertThat(yummy).containsExactly(true, false, false, true, false, false, true);
+        assertThat(logSampler.sample("goodbye")).isTrue();
+    }
+
+    @Test
+    public void shouldLogNoMoreThanMaxPerSecond() throws InterruptedException {
+        LogSampler logSampler = new LogSampler(1, 2);
+        assertThat(logSampler.sample("yummy")).isTrue();
+        assertThat(logSampler.sample("yummy")).isTrue();
+        assertThat(logSampler.sample("yummy")).isFalse();
+        Thread.sleep(1100);
+        assertThat(logSampler.sample("yummy")).isTrue();
+    }
+
+    @Test
+    public void shouldSummarizeTemplatesWithMessagesLeftOutSinceLastSummary() {
+        LogSampler logSampler = new LogSampler(2, 0);
+        for (int i = 0; i < 5; i++) logSampler.sample("yummy");
+        logSampler.sample("goodbye");
+        List<String> summaries = new ArrayList<>();
+        LogSampler.Summary summary = (template, messages, logged) -> summaries.add(template + " " + logged + "/" + messages);
+        logSampler.summarize(summary);
+        assertThat(summaries).containsExactly("yummy 3/5");
+        summaries.clear();
+        logSampler.sample("yummy");
+        logSampler.summarize(summary);
+        assertThat(summaries).containsExactly("yummy 0/1");
+    }
+
+    @Test
+    public void shouldLogEverythingWithoutSampling() {
+        for (int i = 0; i < 100; i++) assertThat(LogSampler.None.sample("yummy")).isTrue();
+        List<String> summaries = new ArrayList<>();
+        LogSampler.None.summarize((template, messages, logged) -> summaries.add(template));
+        assertThat(summaries).isEmpty();
+    }
+}
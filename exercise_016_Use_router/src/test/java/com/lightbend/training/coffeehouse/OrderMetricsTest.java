@@ -0,0 +1,79 @@
+package com.lightbend.training.coffeehouse;
+
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+public class OrderMetricsTest {
+
+    private static final long TICK = SECONDS.toNanos(5);
+
+    private static final long WINDOW = MINUTES.toNanos(1);
+
+    @Test
+    public void shouldCountOrdersInFlightPerStage() {
+        OrderMetrics metrics = new OrderMetrics();
+        metrics.enter(OrderMetrics.Stage.APPROVING);
+        metrics.enter(OrderMetrics.Stage.APPROVING);
+        metrics.move(OrderMetrics.Stage.APPROVING, OrderMetrics.Stage.WAITING_FOR_BARISTA);
+        metrics.move(OrderMetrics.Stage.WAITING_FOR_BARISTA, OrderMetrics.Stage.BREWING);
+        metrics.leave(OrderMetrics.Stage.BREWING);
+        metrics.enter(OrderMetrics.Stage.SERVING);
+        OrderMetrics.Snapshot snapshot = metrics.snapshot();
+        assertThat(snapshot.inFlight.get(OrderMetrics.Stage.APPROVING)).isEqualTo(1);
+        assertThat(snapshot.inFlight.get(OrderMetrics.Stage.WAITING_FOR_BARISTA)).isEqualTo(0);
+        assertThat(snapshot.inFlight.get(OrderMetrics.Stage.BREWING)).isEqualTo(0);
+        assertThat(snapshot.inFlight.get(OrderMetrics.Stage.SERVING)).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldAverageThroughputAndComplaintsOverOneFiveAndFifteenMinutes() {
+        OrderMetrics metrics = new OrderMetrics();
+        long now = System.nanoTime();
+        for (int i = 0; i < 12; i++) {
+            for (int j = 0; j < 50; j++) metrics.served(new Coffee.Akkaccino());
+            metrics.complained();
+            metrics.tick(now += TICK, TICK, WINDOW);
+        }
+        OrderMetrics.Snapshot snapshot = metrics.snapshot();
+        OrderMetrics.Rates akkaccinos = snapshot.throughput.get(new Coffee.Akkaccino());
+        // After one minute at 10 per second the averages are 1 - 1/e, 1 - 1/e^(1/5) and 1 - 1/e^(1/15) of it
+        assertThat(akkaccinos.oneMinute).isCloseTo(6.32, offset(0.01));
+        assertThat(akkaccinos.fiveMinutes).isCloseTo(1.81, offset(0.01));
+        assertThat(akkaccinos.fifteenMinutes).isCloseTo(0.64, offset(0.01));
+        assertThat(snapshot.throughput.get(new Coffee.CaffeJava()).oneMinute).isEqualTo(0);
+        assertThat(snapshot.complaints.oneMinute).isCloseTo(0.126, offset(0.001));
+    }
+
+    @Test
+    public void shouldReportLatenciesOfTheLastOneOrTwoWindows() {
+        OrderMetrics metrics = new OrderMetrics();
+        long startedAt = System.nanoTime();
+        for (int i = 1; i <= 1000; i++) metrics.recordLatency(i * 1_000_000L);
+        OrderMetrics.Snapshot snapshot = metrics.snapshot();
+        assertThat(snapshot.latencies.keySet()).containsExactly(50.0, 99.0, 99.9);
+        assertThat(snapshot.latencies.get(50.0)).isBetween(495_000_000L, 505_000_000L);
+        assertThat(snapshot.latencies.get(99.9)).isBetween(990_000_000L, 1_000_000_000L);
+        assertThat(snapshot.maxLatency).isEqualTo(1_000_000_000L);
+        metrics.tick(startedAt + WINDOW, TICK, WINDOW);
+        metrics.recordLatency(1_000L);
+        assertThat(metrics.snapshot().maxLatency).isEqualTo(1_000_000_000L);
+        metrics.tick(startedAt + 2 * WINDOW, TICK, WINDOW);
+        assertThat(metrics.snapshot().maxLatency).isEqualTo(1_000L);
+    }
+
+    @Test
+    public void shouldCountNothingWithoutMetrics() {
+        OrderMetrics.None.enter(OrderMetrics.Stage.BREWING);
+        OrderMetrics.None.served(new Coffee.Akkaccino());
+        OrderMetrics.None.recordLatency(1_000L);
+        OrderMetrics.None.tick(TICK, TICK, WINDOW);
+        OrderMetrics.Snapshot snapshot = OrderMetrics.None.snapshot();
+        assertThat(snapshot.inFlight.get(OrderMetrics.Stage.BREWING)).isEqualTo(0);
+        assertThat(snapshot.throughput.get(new Coffee.Akkaccino()).oneMinute).isEqualTo(0);
+        assertThat(snapshot.latencies).isEmpty();
+    }
+}
@@ -0,0 +1,64 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.testkit.JavaTestKit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SnapshotWriterTest extends BaseAkkaTestCase {
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void sendingWriteSnapshotShouldResultInSnapshotWritten() throws IOException {
+        new JavaTestKit(system) {{
+            File dir = temporaryFolder.newFolder("snapshot");
+            CaffeineBookkeeper bookkeeper = new CaffeineBookkeeper();
+            bookkeeper.restore(0, 7, 1);
+            ByteBuffer buffer = CaffeineSnapshot.encode(bookkeeper, 1, ByteBuffer.allocate(0));
+            ActorRef snapshotWriter = system.actorOf(SnapshotWriter.props(dir, "bookkeeper", 2));
+            snapshotWriter.tell(new SnapshotWriter.WriteSnapshot(buffer), getRef());
+            assertThat(expectMsgClass(SnapshotWriter.SnapshotWritten.class).buffer).isSameAs(buffer);
+            assertThat(CaffeineSnapshot.list(dir, "bookkeeper")).hasSize(1);
+        }};
+    }
+
+    @Test
+    public void shouldDeleteJournalSegmentsCoveredByAllRetainedSnapshots() throws IOException {
+        new JavaTestKit(system) {{
+            File dir = temporaryFolder.newFolder("snapshot");
+            try (CaffeineJournal journal = CaffeineJournal.open(dir, "bookkeeper", 1024)) {
+                journal.guestAdded(0, 7);
+                journal.roll();
+                journal.coffeesCounted(0, 7, 1);
+                journal.roll();
+                journal.coffeesCounted(0, 7, 1);
+            }
+            ActorRef snapshotWriter = system.actorOf(SnapshotWriter.props(dir, "bookkeeper", 2));
+            CaffeineBookkeeper bookkeeper = new CaffeineBookkeeper();
+            bookkeeper.restore(0, 7, 0);
+            snapshotWriter.tell(new SnapshotWriter.WriteSnapshot(
+                    CaffeineSnapshot.encode(bookkeeper, 1, ByteBuffer.allocate(0))), getRef());
+            expectMsgClass(SnapshotWriter.SnapshotWritten.class);
+            assertThat(CaffeineJournal.segments(dir, "bookkeeper")).hasSize(2);
+            bookkeeper.restore(0, 7, 1);
+            snapshotWriter.tell(new SnapshotWriter.WriteSnapshot(
+                    CaffeineSnapshot.encode(bookkeeper, 2, ByteBuffer.allocate(0))), getRef());
+            expectMsgClass(SnapshotWriter.SnapshotWritten.class);
+            // The older snapshot is still retained and needs the segment after it
+            assertThat(CaffeineJournal.segments(dir, "bookkeeper")).hasSize(2);
+            snapshotWriter.tell(new SnapshotWriter.WriteSnapshot(
+                    CaffeineSnapshot.encode(bookkeeper, 3, ByteBuffer.allocate(0))), getRef());
+            expectMsgClass(SnapshotWriter.SnapshotWritten.class);
+            assertThat(CaffeineJournal.segments(dir, "bookkeeper")).hasSize(1);
+        }};
+    }
+}
@@ -1,7 +1,11 @@
 package com.lightbend.training.coffeehouse;
 
+import com.google.common.collect.ImmutableMap;
 import org.junit.Test;
+import scala.concurrent.duration.Duration;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class TerminalTest {
@@ -15,6 +19,27 @@ public class TerminalTest {
         assertThat(Terminal.create("2 g m 1")).isEqualTo(new TerminalCommand.Guest(2, new Coffee.MochaPlay(), 1));
     }
 
+    @Test
+    public void shouldCreateLoadFromCommand() {
+        assertThat(Terminal.create("load rate=500/s duration=60s mix=a:50,c:30,m:20")).isEqualTo(
+                new TerminalCommand.Load(500, Duration.create(60, SECONDS), ImmutableMap.of(
+                        new Coffee.Akkaccino(), 50, new Coffee.CaffeJava(), 30, new Coffee.MochaPlay(), 20)));
+        assertThat(Terminal.create("load duration=500ms rate=2.5")).isEqualTo(
+                new TerminalCommand.Load(2.5, Duration.create(500, MILLISECONDS), ImmutableMap.of(
+                        new Coffee.Akkaccino(), 1, new Coffee.CaffeJava(), 1, new Coffee.MochaPlay(), 1)));
+        assertThat(Terminal.create("load")).isEqualTo(
+                new TerminalCommand.Load(Terminal.defaultLoadRate, Terminal.defaultLoadDuration, ImmutableMap.of(
+                        new Coffee.Akkaccino(), 1, new Coffee.CaffeJava(), 1, new Coffee.MochaPlay(), 1)));
+    }
+
+    @Test
+    public void shouldCreateUnknownFromMalformedLoadCommand() {
+        assertThat(Terminal.create("load rate=0")).isEqualTo(new TerminalCommand.Unknown("load rate=0"));
+        assertThat(Terminal.create("load duration=1y")).isEqualTo(new TerminalCommand.Unknown("load duration=1y"));
+        assertThat(Terminal.create("load mix=a:0")).isEqualTo(new TerminalCommand.Unknown("load mix=a:0"));
+        assertThat(Terminal.create("load foo=1")).isEqualTo(new TerminalCommand.Unknown("load foo=1"));
+    }
+
     @Test
     public void shouldCreateGetStatusFromCommand() {
         assertThat(Terminal.create("status")).isEqualTo(TerminalCommand.Status.Instance);
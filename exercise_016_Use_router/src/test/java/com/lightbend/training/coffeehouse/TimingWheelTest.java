@@ -0,0 +1,67 @@
+package com.lightbend.training.coffeehouse;
+
+import akka.actor.ActorRef;
+import akka.testkit.TestProbe;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TimingWheelTest extends BaseAkkaTestCase {
+
+    @Test
+    public void shouldFireTimersAtTheirTick() {
+        TimingWheel wheel = new TimingWheel(0);
+        ActorRef guest = new TestProbe(system).ref();
+        List<Object> fired = new ArrayList<>();
+        wheel.add(3, guest, "three");
+        wheel.add(1, guest, "one");
+        wheel.add(3, guest, "also three");
+        wheel.advance(2, (target, message) -> fired.add(message));
+        assertThat(fired).containsExactly("one");
+        wheel.advance(3, (target, message) -> fired.add(message));
+        assertThat(fired).containsExactly("one", "three", "also three");
+        assertThat(wheel.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldFireTimersOfHigherLevelsAtTheirTick() {
+        TimingWheel wheel = new TimingWheel(100);
+        ActorRef guest = new TestProbe(system).ref();
+        long[] ticks = {163, 164, 191, 4095, 4096, 4200, 300_000, 1_000_000};
+        for (long tick : ticks) wheel.add(tick, guest, tick);
+        List<Long> fired = new ArrayList<>();
+        for (long tick = 101; tick <= 1_000_000; tick++) {
+            final long now = tick;
+            wheel.advance(tick, (target, message) -> {
+                assertThat(message).isEqualTo(now);
+                fired.add((Long) message);
+            });
+        }
+        assertThat(fired).containsExactly(163L, 164L, 191L, 4095L, 4096L, 4200L, 300_000L, 1_000_000L);
+    }
+
+    @Test
+    public void shouldFireOverdueTimersWithTheNextTick() {
+        TimingWheel wheel = new TimingWheel(10);
+        ActorRef guest = new TestProbe(system).ref();
+        List<Object> fired = new ArrayList<>();
+        wheel.add(5, guest, "overdue");
+        wheel.advance(11, (target, message) -> fired.add(message));
+        assertThat(fired).containsExactly("overdue");
+    }
+
+    @Test
+    public void shouldFireAllTimersDueWhenAdvancingSeveralTicksAtOnce() {
+        TimingWheel wheel = new TimingWheel(0);
+        ActorRef guest = new TestProbe(system).ref();
+        for (int tick = 1; tick <= 10_000; tick++) wheel.add(tick, guest, tick);
+        List<Object> fired = new ArrayList<>();
+        wheel.advance(5_000, (target, message) -> fired.add(message));
+        assertThat(fired).hasSize(5_000);
+        assertThat(wheel.size()).isEqualTo(5_000);
+        assertThat(wheel.currentTick()).isEqualTo(5_000);
+    }
+}
@@ -2,9 +2,12 @@ package com.lightbend.training.coffeehouse;
 
 import akka.actor.ActorRef;
 import akka.testkit.JavaTestKit;
+import akka.routing.ConsistentHashingPool;
 import akka.testkit.TestProbe;
 import org.junit.Test;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 public class WaiterTest extends BaseAkkaTestCase {
 
     @Test
@@ -18,6 +21,17 @@ public class WaiterTest extends BaseAkkaTestCase {
         }};
     }
 
+    @Test
+    public void sendingServeCoffeeShouldPassGuestIdOnInApproveCoffee() {
+        new JavaTestKit(system) {{
+            ActorRef coffeeHouse = getRef();
+            TestProbe guest = new TestProbe(system);
+            ActorRef waiter = system.actorOf(Waiter.props(coffeeHouse, system.deadLetters(), Integer.MAX_VALUE));
+            waiter.tell(new Waiter.ServeCoffee(new Coffee.Akkaccino(), 7), guest.ref());
+            expectMsgEquals(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref(), 7));
+        }};
+    }
+
     @Test
     public void sendingComplaintShouldResultInPrepareCoffeeToBarista() {
         new JavaTestKit(system) {{
@@ -26,7 +40,24 @@ public class WaiterTest extends BaseAkkaTestCase {
             ActorRef waiter = system.actorOf(Waiter.props(system.deadLetters(), barista, 1));
 
             waiter.tell(new Waiter.Complaint(new Coffee.Akkaccino()), guest.ref());
-            expectMsgEquals(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref()));
+            expectMsgEquals(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref(), true, -1, false, 0));
+        }};
+    }
+
+    @Test
+    public void serveCoffeeAndComplaintsOfGuestShouldBeRoutedToSameWaiterOfPool() {
+        new JavaTestKit(system) {{
+            TestProbe guest = new TestProbe(system);
+            ActorRef waiters = system.actorOf(new ConsistentHashingPool(4).props(
+                    Waiter.props(getRef(), getRef(), Integer.MAX_VALUE)));
+            waiters.tell(new Waiter.ServeCoffee(new Coffee.Akkaccino(), 7, guest.ref()), guest.ref());
+            expectMsgEquals(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref(), 7));
+            ActorRef waiter = getLastSender();
+            for (int i = 0; i < 3; i++) {
+                waiters.tell(new Waiter.Complaint(new Coffee.Akkaccino(), 7, guest.ref()), guest.ref());
+                expectMsgEquals(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref(), true, -1, false, 0));
+                assertThat(getLastSender()).isEqualTo(waiter);
+            }
         }};
     }
 
@@ -39,4 +70,139 @@ public class WaiterTest extends BaseAkkaTestCase {
             });
         }};
     }
+
+    @Test
+    public void busyShouldResultInPrepareCoffeeRetriedAfterBacklogRetryInterval() {
+        new JavaTestKit(system) {{
+            ActorRef barista = getRef();
+            TestProbe guest = new TestProbe(system);
+            ActorRef waiter = system.actorOf(Waiter.props(system.deadLetters(), barista,
+                    new Waiter.Settings(1).withBacklog(1, duration("100 milliseconds")),
+                    new DepartedGuests(), LogSampler.None, OrderMetrics.None));
+            new Within(duration("50 milliseconds"), duration("300 milliseconds")) {
+                @Override
+                protected void run() {
+                    waiter.tell(new Barista.Busy(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref())), barista);
+                    expectMsgEquals(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref()));
+                }
+            };
+        }};
+    }
+
+    @Test
+    public void coffeePreparedShouldResultInPrepareCoffeeRetriedFromBacklog() {
+        new JavaTestKit(system) {{
+            ActorRef barista = getRef();
+            TestProbe guest = new TestProbe(system);
+            ActorRef waiter = system.actorOf(Waiter.props(system.deadLetters(), barista,
+                    new Waiter.Settings(1).withBacklog(1, duration("1 minute")),
+                    new DepartedGuests(), LogSampler.None, OrderMetrics.None));
+            waiter.tell(new Barista.Busy(new Barista.PrepareCoffee(new Coffee.MochaPlay(), guest.ref())), barista);
+            waiter.tell(new Barista.CoffeePrepared(new Coffee.Akkaccino(), guest.ref()), barista);
+            guest.expectMsg(new Waiter.CoffeeServed(new Coffee.Akkaccino()));
+            expectMsgEquals(new Barista.PrepareCoffee(new Coffee.MochaPlay(), guest.ref()));
+        }};
+    }
+
+    @Test
+    public void busyWithFullBacklogShouldResultInComeBackLater() {
+        new JavaTestKit(system) {{
+            TestProbe guest = new TestProbe(system);
+            ActorRef waiter = system.actorOf(Waiter.props(system.deadLetters(), system.deadLetters(),
+                    new Waiter.Settings(1).withBacklog(1, duration("1 minute")),
+                    new DepartedGuests(), LogSampler.None, OrderMetrics.None));
+            waiter.tell(new Barista.Busy(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref())), ActorRef.noSender());
+            waiter.tell(new Barista.Busy(new Barista.PrepareCoffee(new Coffee.MochaPlay(), guest.ref())), ActorRef.noSender());
+            guest.expectMsg(Waiter.ComeBackLater.Instance);
+        }};
+    }
+
+    @Test
+    public void coffeePreparedShouldResultInOrderCompletedToCoffeeHouseUnlessRemake() {
+        new JavaTestKit(system) {{
+            ActorRef coffeeHouse = getRef();
+            TestProbe guest = new TestProbe(system);
+            ActorRef waiter = system.actorOf(Waiter.props(coffeeHouse, system.deadLetters(), 1));
+            waiter.tell(new Barista.CoffeePrepared(new Coffee.Akkaccino(), guest.ref(), true), ActorRef.noSender());
+            waiter.tell(new Barista.CoffeePrepared(new Coffee.MochaPlay(), guest.ref(), false, 7), ActorRef.noSender());
+            expectMsgEquals(new CoffeeHouse.OrderCompleted(7));
+            expectNoMsg(duration("100 milliseconds"));
+        }};
+    }
+
+    @Test
+    public void sendingServeCoffeeShouldSpendLeasedApprovalsBeforeAskingCoffeeHouse() {
+        new JavaTestKit(system) {{
+            ActorRef coffeeHouse = getRef();
+            TestProbe barista = new TestProbe(system);
+            TestProbe guest = new TestProbe(system);
+            ActorRef waiter = system.actorOf(Waiter.props(coffeeHouse, barista.ref(), Integer.MAX_VALUE));
+            waiter.tell(new Waiter.Lease(7, guest.ref(), 1), ActorRef.noSender());
+            waiter.tell(new Waiter.ServeCoffee(new Coffee.Akkaccino(), 7), guest.ref());
+            Barista.PrepareCoffee prepareCoffee = barista.expectMsgClass(Barista.PrepareCoffee.class);
+            assertThat(prepareCoffee).isEqualTo(new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref()));
+            assertThat(prepareCoffee.leased).isTrue();
+            waiter.tell(new Barista.CoffeePrepared(new Coffee.Akkaccino(), guest.ref(), false, 7, true),
+                    ActorRef.noSender());
+            waiter.tell(new Waiter.ServeCoffee(new Coffee.Akkaccino(), 7), guest.ref());
+            expectMsgEquals(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref(), 7));
+        }};
+    }
+
+    @Test
+    public void restartedWaiterShouldReturnUnspentLeaseAndNotCompleteLeasedOrder() {
+        new JavaTestKit(system) {{
+            ActorRef coffeeHouse = getRef();
+            TestProbe barista = new TestProbe(system);
+            TestProbe guest = new TestProbe(system);
+            ActorRef waiter = system.actorOf(Waiter.props(coffeeHouse, barista.ref(), 0));
+            waiter.tell(new Waiter.Lease(7, guest.ref(), 3), ActorRef.noSender());
+            waiter.tell(new Waiter.ServeCoffee(new Coffee.Akkaccino(), 7), guest.ref());
+            Barista.PrepareCoffee prepareCoffee = barista.expectMsgClass(Barista.PrepareCoffee.class);
+            eventFilter(this, Waiter.FrustratedException.class, "", 1, () ->
+                    waiter.tell(new Waiter.Complaint(new Coffee.Akkaccino(), 7, guest.ref()), guest.ref())
+            );
+            expectMsgEquals(new Bookkeeper.ReturnLease(7, guest.ref(), 2));
+            waiter.tell(new Barista.CoffeePrepared(prepareCoffee.coffee, prepareCoffee.guest, false, 7,
+                    prepareCoffee.leased), ActorRef.noSender());
+            guest.expectMsg(new Waiter.CoffeeServed(new Coffee.Akkaccino()));
+            waiter.tell(new Waiter.ServeCoffee(new Coffee.Akkaccino(), 7), guest.ref());
+            expectMsgEquals(new CoffeeHouse.ApproveCoffee(new Coffee.Akkaccino(), guest.ref(), 7));
+        }};
+    }
+
+    @Test
+    public void shouldNotServeCoffeePreparedForDepartedGuestButCompleteOrder() {
+        new JavaTestKit(system) {{
+            TestProbe guest = new TestProbe(system);
+            DepartedGuests departedGuests = new DepartedGuests();
+            departedGuests.depart(7, guest.ref());
+            ActorRef waiter = system.actorOf(Waiter.props(getRef(), system.deadLetters(),
+                    new Waiter.Settings(Integer.MAX_VALUE).withBacklog(0, duration("1 second")),
+                    departedGuests, LogSampler.None, OrderMetrics.None));
+            waiter.tell(new Barista.CoffeePrepared(new Coffee.Akkaccino(), guest.ref(), false, 7), ActorRef.noSender());
+            expectMsgEquals(new CoffeeHouse.OrderCompleted(7));
+            waiter.tell(new Barista.OrderDropped(
+                    new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref(), false, 7, false, 0)), ActorRef.noSender());
+            expectMsgEquals(new CoffeeHouse.OrderCompleted(7));
+            guest.expectNoMsg(duration("100 milliseconds"));
+            assertThat(departedGuests.droppedServings()).isEqualTo(1);
+        }};
+    }
+
+    @Test
+    public void sendingOrderServedShouldCompleteAdmittedOrderOnly() {
+        new JavaTestKit(system) {{
+            TestProbe guest = new TestProbe(system);
+            ActorRef waiter = system.actorOf(Waiter.props(getRef(), system.deadLetters(),
+                    new Waiter.Settings(Integer.MAX_VALUE), new DepartedGuests(), LogSampler.None, OrderMetrics.None));
+            waiter.tell(new Barista.OrderServed(
+                    new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref(), false, 7, false, 0)), ActorRef.noSender());
+            expectMsgEquals(new CoffeeHouse.OrderCompleted(7));
+            waiter.tell(new Barista.OrderServed(
+                    new Barista.PrepareCoffee(new Coffee.Akkaccino(), guest.ref(), true, 7, false, 0)), ActorRef.noSender());
+            expectNoMsg(duration("100 milliseconds"));
+            guest.expectNoMsg(duration("100 milliseconds"));
+        }};
+    }
 }